@@ -1,23 +1,24 @@
+import io.github.joblo2213.sma.speedwire.Device;
 import io.github.joblo2213.sma.speedwire.Speedwire;
-import io.github.joblo2213.sma.speedwire.protocol.telegrams.DiscoveryResponse;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
 
 /**
  * This sample demonstrates a simple way to detect all speedwire devices in the local network.
  */
 public class DeviceDiscovery {
 
-    public static void main(String[] args) throws IOException, InterruptedException {
-        Speedwire speedwire = new Speedwire();
-        speedwire.onError(Exception::printStackTrace);
-        speedwire.onTimeout(() -> System.err.println("speedwire timeout"));
-        speedwire.onData(DiscoveryResponse.class, data ->
-                System.out.println("Device detected with ip " + data.getOrigin().getHostAddress())
-        );
-        speedwire.start();
-        speedwire.sendDiscoveryRequest();
-        Thread.sleep(5_000);
-        speedwire.shutdown();
+    public static void main(String[] args) throws IOException {
+        try (Speedwire speedwire = new Speedwire()) {
+            speedwire.onError(Exception::printStackTrace);
+            speedwire.onTimeout(() -> System.err.println("speedwire timeout"));
+            speedwire.start();
+
+            //wait up to 5 seconds for answers, pass the number of devices you expect to return as soon as all answered
+            Set<Device> devices = speedwire.discover(Duration.ofSeconds(5), Integer.MAX_VALUE).join();
+            devices.forEach(device -> System.out.println("Device detected with ip " + device.getOrigin().getHostAddress()));
+        }
     }
 }
@@ -0,0 +1,50 @@
+import io.github.joblo2213.sma.speedwire.Speedwire;
+import io.github.joblo2213.sma.speedwire.inverter.InverterQuery;
+import io.github.joblo2213.sma.speedwire.inverter.InverterRequestEngine;
+import io.github.joblo2213.sma.speedwire.inverter.SimulatedInverter;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.InverterTelegram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This sample demonstrates how to query data from an inverter.<br>
+ * Pass the ip address of your inverter as argument, without arguments a simulated inverter is queried.
+ */
+public class InverterQuerySample {
+
+    public static void main(String[] args) throws IOException {
+        Speedwire speedwire = new Speedwire();
+        speedwire.onError(Exception::printStackTrace);
+        InverterRequestEngine engine = new InverterRequestEngine(speedwire);
+        speedwire.start();
+        engine.start();
+
+        InetSocketAddress target;
+        SimulatedInverter simulator = null;
+        if (args.length > 0) {
+            target = new InetSocketAddress(args[0], speedwire.getPort());
+        } else {
+            simulator = new SimulatedInverter(new InetSocketAddress("127.0.0.2", 0), new DeviceAddress(378, 2000000001L));
+            simulator.start();
+            target = simulator.getSocketAddress();
+        }
+
+        //both requests are in flight at the same time
+        CompletableFuture<InverterTelegram> powerRequest =
+                engine.request(target, DeviceAddress.ANY, InverterQuery.SPOT_AC_TOTAL_POWER);
+        CompletableFuture<InverterTelegram> yieldRequest =
+                engine.request(target, DeviceAddress.ANY, InverterQuery.ENERGY_PRODUCTION);
+        InverterTelegram power = powerRequest.join();
+        InverterTelegram yield = yieldRequest.join();
+        System.out.printf("Inverter %s%n", power.getSource());
+        System.out.printf("AC power: %d W%n", power.getRecord(0x263F00).getValue());
+        System.out.printf("Total yield: %d Wh%n", yield.getRecord(0x260100).getValue());
+
+        engine.shutdown();
+        speedwire.shutdown();
+        if (simulator != null) simulator.close();
+    }
+}
@@ -0,0 +1,77 @@
+import io.github.joblo2213.sma.speedwire.loadtest.LoadTest;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * This sample runs the {@link LoadTest} from the command line and prints its progress to {@code System.err}.<br>
+ * The report is printed as JSON or written to the given file. All options are optional:
+ * <pre>{@code
+ * java LoadTestSample --transport=loopback --devices=100 --start-rate=1000 --rate-factor=2 --max-rate=1000000
+ *      --step-seconds=5 --discovery-share=0.01 --partitions=0 --pooling=false --idle=blocking
+ *      --max-drop-ratio=0.001 --report=report.json
+ * }</pre>
+ */
+public class LoadTestSample {
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        test.setProgress(System.err);
+        double startRate = 1000, rateFactor = 2, maxRate = 1_000_000;
+        Path report = null;
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0) throw new IllegalArgumentException("invalid argument: " + arg);
+            String name = arg.substring(2, split);
+            String value = arg.substring(split + 1);
+            switch (name) {
+                case "transport":
+                    if (!value.equals("loopback") && !value.equals("multicast"))
+                        throw new IllegalArgumentException("transport must be loopback or multicast");
+                    test.setMulticast(value.equals("multicast"));
+                    break;
+                case "devices":
+                    test.setDevices(Integer.parseInt(value));
+                    break;
+                case "start-rate":
+                    startRate = Double.parseDouble(value);
+                    break;
+                case "rate-factor":
+                    rateFactor = Double.parseDouble(value);
+                    break;
+                case "max-rate":
+                    maxRate = Double.parseDouble(value);
+                    break;
+                case "step-seconds":
+                    test.setStepDuration(Duration.ofMillis((long) (Double.parseDouble(value) * 1000)));
+                    break;
+                case "discovery-share":
+                    test.setDiscoveryShare(Double.parseDouble(value));
+                    break;
+                case "partitions":
+                    test.setDecodePartitions(Integer.parseInt(value));
+                    break;
+                case "pooling":
+                    test.setTelegramPooling(Boolean.parseBoolean(value));
+                    break;
+                case "idle":
+                    test.setIdleMode(value);
+                    break;
+                case "max-drop-ratio":
+                    test.setMaxDropRatio(Double.parseDouble(value));
+                    break;
+                case "report":
+                    report = Path.of(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+        test.setRates(startRate, rateFactor, maxRate);
+        String json = test.run();
+        if (report != null) Files.write(report, json.getBytes(StandardCharsets.UTF_8));
+        else System.out.print(json);
+    }
+}
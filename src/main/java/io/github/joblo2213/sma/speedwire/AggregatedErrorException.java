@@ -0,0 +1,58 @@
+package io.github.joblo2213.sma.speedwire;
+
+import java.net.InetAddress;
+
+/**
+ * <p>
+ * Summary of errors caused by a single origin that were not reported individually because the origin exceeded the
+ * error rate limit (see {@link Speedwire#setErrorRateLimit(double)}).
+ * </p><p>
+ * One summary is passed to the error handlers per origin and report interval, containing the number of suppressed
+ * errors and the first of them as sample.
+ * </p>
+ */
+public class AggregatedErrorException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final InetAddress origin;
+    private final long count;
+    private final boolean quarantined;
+
+    AggregatedErrorException(InetAddress origin, long count, Exception sample, boolean quarantined) {
+        super(count + " errors from " + (origin == null ? "other origins" : origin.getHostAddress())
+                + (quarantined ? " (origin quarantined)" : "") + ", e.g. " + sample, sample, false, false);
+        this.origin = origin;
+        this.count = count;
+        this.quarantined = quarantined;
+    }
+
+    /**
+     * Returns the address of the device that caused the errors.<br>
+     * {@code null} if the errors were caused by several origins that exceeded the number of tracked origins.
+     */
+    public InetAddress getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Returns the number of suppressed errors
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the first suppressed error
+     */
+    public Exception getSample() {
+        return (Exception) getCause();
+    }
+
+    /**
+     * Returns {@code true} if the origin is quarantined, so its packets are dropped without decoding them
+     */
+    public boolean isQuarantined() {
+        return quarantined;
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.joblo2213.sma.speedwire;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Distributes received datagrams to a fixed number of decode workers.
+ * </p><p>
+ * The receive thread only peeks at the packet header to determine the sending device and hands the raw packet to the
+ * partition that belongs to this device. Each partition is served by exactly one worker thread, so all telegrams of
+ * a device are decoded and dispatched in the order they were received while different devices are decoded in parallel.
+ * </p><p>
+ * Exceptions thrown while handling a packet are passed to the error handler and the worker continues with the next
+ * packet.
+ * </p>
+ */
+class DecodePartitions {
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final ArrayBlockingQueue<DatagramPacket>[] queues;
+    private final Thread[] workers;
+    private final AtomicLong dropped = new AtomicLong();
+
+    DecodePartitions(int partitions, String name, Consumer<DatagramPacket> handler,
+                     SpeedwireErrorHandler errorHandler) {
+        if (partitions < 1) throw new IllegalArgumentException("at least one partition is required");
+        @SuppressWarnings("unchecked")
+        ArrayBlockingQueue<DatagramPacket>[] queues =
+                (ArrayBlockingQueue<DatagramPacket>[]) new ArrayBlockingQueue<?>[partitions];
+        this.queues = queues;
+        workers = new Thread[partitions];
+        for (int i = 0; i < partitions; i++) {
+            final ArrayBlockingQueue<DatagramPacket> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            queues[i] = queue;
+            workers[i] = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        DatagramPacket packet = queue.take();
+                        try {
+                            handler.accept(packet);
+                        } catch (RuntimeException e) {
+                            //a failing packet must not end the worker, its queue would never be drained again
+                            try {
+                                errorHandler.onError(e);
+                            } catch (RuntimeException ignored) {
+                                //the error handlers failed themselves, there is nothing left to report to
+                            }
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }, name + "-decoder-" + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    /**
+     * Starts all worker threads
+     */
+    void start() {
+        for (Thread worker : workers) worker.start();
+    }
+
+    /**
+     * Stops all worker threads. Packets that are still queued are discarded.
+     */
+    void shutdown() {
+        for (Thread worker : workers) worker.interrupt();
+        for (ArrayBlockingQueue<DatagramPacket> queue : queues) queue.clear();
+    }
+
+    /**
+     * Waits until all worker threads terminated
+     *
+     * @param deadlineNanos deadline as returned by {@link System#nanoTime()}
+     * @return {@code true} if all workers terminated before the deadline
+     */
+    boolean awaitTermination(long deadlineNanos) throws InterruptedException {
+        for (Thread worker : workers) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (worker.isAlive()) worker.join(Math.max(1, millis));
+            if (worker.isAlive()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hands a packet to the partition of its sending device.<br>
+     * If the queue of the partition is full the packet is dropped, as blocking the receive thread would only move the
+     * overflow into the kernel receive buffer.
+     *
+     * @param packet received packet
+     * @return {@code false} if the packet was dropped
+     */
+    boolean submit(DatagramPacket packet) {
+        if (queues[partitionOf(packet, queues.length)].offer(packet)) return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Returns the number of packets that are currently queued for each partition
+     */
+    int[] queueDepths() {
+        int[] depths = new int[queues.length];
+        for (int i = 0; i < queues.length; i++) depths[i] = queues[i].size();
+        return depths;
+    }
+
+    /**
+     * Returns the number of packets that were dropped because their partition queue was full
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * <p>
+     * Determines the partition of a packet without decoding it.
+     * </p><p>
+     * Energy meter telegrams (SMA Net 2, protocol id 0x6069) are partitioned by SUSyID and serial number, as multiple
+     * meters might share one origin if their traffic is relayed.
+     * All other packets are partitioned by the address of their origin.
+     * </p>
+     */
+    static int partitionOf(DatagramPacket packet, int partitions) {
+        byte[] buf = packet.getData();
+        int off = packet.getOffset();
+        int hash;
+        if (packet.getLength() >= 24
+                && (buf[off + 14] & 0xff) == 0x00 && (buf[off + 15] & 0xff) == 0x10
+                && (buf[off + 16] & 0xff) == 0x60 && (buf[off + 17] & 0xff) == 0x69) {
+            hash = 1;
+            for (int i = off + 18; i < off + 24; i++) hash = 31 * hash + buf[i];
+        } else {
+            hash = packet.getAddress().hashCode();
+        }
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, partitions);
+    }
+}
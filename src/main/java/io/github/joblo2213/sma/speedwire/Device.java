@@ -0,0 +1,66 @@
+package io.github.joblo2213.sma.speedwire;
+
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.DiscoveryResponse;
+
+import java.net.InetAddress;
+import java.time.Instant;
+
+/**
+ * A speedwire device that answered a discovery request.<br>
+ * Devices are identified by their ip address, two devices are equal if they share the same origin.
+ *
+ * @see DeviceRegistry
+ */
+public class Device {
+
+    private final InetAddress origin;
+    private final Instant firstSeen;
+    private volatile Instant lastSeen;
+
+    Device(InetAddress origin, Instant seen) {
+        this.origin = origin;
+        this.firstSeen = seen;
+        this.lastSeen = seen;
+    }
+
+    /**
+     * Returns the ip address of the device
+     */
+    public InetAddress getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Returns the time the first {@link DiscoveryResponse} of this device was received
+     */
+    public Instant getFirstSeen() {
+        return firstSeen;
+    }
+
+    /**
+     * Returns the time the latest {@link DiscoveryResponse} of this device was received
+     */
+    public Instant getLastSeen() {
+        return lastSeen;
+    }
+
+    void setLastSeen(Instant lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    @Override
+    public String toString() {
+        return origin.getHostAddress();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        return origin.equals(((Device) o).origin);
+    }
+
+    @Override
+    public int hashCode() {
+        return origin.hashCode();
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.joblo2213.sma.speedwire;
+
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.DiscoveryResponse;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Registry of all devices that answered a discovery request, deduplicated by their ip address.
+ * </p><p>
+ * The registry of a {@link Speedwire} instance is updated with every received {@link DiscoveryResponse}.
+ * If a discovery interval is configured using {@link Speedwire#setDiscoveryInterval(java.time.Duration)} the speedwire
+ * thread periodically sends discovery requests and removes devices that stopped answering them.
+ * </p>
+ */
+public class DeviceRegistry {
+
+    private final ConcurrentHashMap<InetAddress, Device> devices = new ConcurrentHashMap<>();
+    private final CopyOnWriteArraySet<Consumer<Device>> addedHandlers = new CopyOnWriteArraySet<>();
+    private final CopyOnWriteArraySet<Consumer<Device>> removedHandlers = new CopyOnWriteArraySet<>();
+    private final CopyOnWriteArraySet<Consumer<Device>> responseHandlers = new CopyOnWriteArraySet<>();
+
+    DeviceRegistry() {
+    }
+
+    /**
+     * Returns an unmodifiable live view of all known devices
+     */
+    public Collection<Device> getDevices() {
+        return Collections.unmodifiableCollection(devices.values());
+    }
+
+    /**
+     * Returns the device with the given ip address or {@code null} if it is unknown
+     */
+    public Device get(InetAddress origin) {
+        return devices.get(origin);
+    }
+
+    /**
+     * Returns the number of known devices
+     */
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * Register a callback that is run when a new device answered a discovery request.<br>
+     * The callback will be run on the speedwire thread so avoid blocking or very slow operations.
+     *
+     * @param handler callback receiving the new device
+     */
+    public void onDeviceAdded(Consumer<Device> handler) {
+        addedHandlers.add(handler);
+    }
+
+    /**
+     * Register a callback that is run when a device is removed because it stopped answering discovery requests.<br>
+     * The callback will be run on the speedwire thread so avoid blocking or very slow operations.
+     *
+     * @param handler callback receiving the removed device
+     */
+    public void onDeviceRemoved(Consumer<Device> handler) {
+        removedHandlers.add(handler);
+    }
+
+    void addResponseHandler(Consumer<Device> handler) {
+        responseHandlers.add(handler);
+    }
+
+    void removeResponseHandler(Consumer<Device> handler) {
+        responseHandlers.remove(handler);
+    }
+
+    /**
+     * Registers a received discovery response
+     */
+    void update(InetAddress origin, Instant now) {
+        boolean[] added = new boolean[1];
+        Device device = devices.compute(origin, (k, d) -> {
+            if (d == null) {
+                added[0] = true;
+                return new Device(origin, now);
+            }
+            d.setLastSeen(now);
+            return d;
+        });
+        if (added[0]) addedHandlers.forEach(h -> h.accept(device));
+        responseHandlers.forEach(h -> h.accept(device));
+    }
+
+    /**
+     * Removes all devices that weren't seen since the given time
+     */
+    void expire(Instant notSeenSince) {
+        devices.values().removeIf(d -> {
+            if (!d.getLastSeen().isBefore(notSeenSince)) return false;
+            removedHandlers.forEach(h -> h.accept(d));
+            return true;
+        });
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.joblo2213.sma.speedwire;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Protects the error handlers and the decoder against origins that send lots of malformed packets.
+ * </p><p>
+ * The errors of each origin are rate limited using a token bucket, errors exceeding the limit are counted and
+ * reported as a single {@link AggregatedErrorException} per report interval. Origins that cause more than the
+ * quarantine threshold of errors in a report interval are quarantined: their packets are dropped before decoding.
+ * </p>
+ */
+class ErrorGuard {
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    private static final int MAX_ORIGINS = 4096;
+
+    private final ConcurrentHashMap<InetAddress, Origin> origins = new ConcurrentHashMap<>();
+    private final Origin others = new Origin(null);
+    private final AtomicLong quarantinedPackets = new AtomicLong();
+    private volatile double rate = 10;
+    private volatile int quarantineThreshold = 0;
+    private volatile long quarantineDuration = 0;
+    private volatile long nextFlush = System.nanoTime() + INTERVAL;
+
+    void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    void setQuarantine(int threshold, long durationNanos) {
+        this.quarantineThreshold = threshold;
+        this.quarantineDuration = durationNanos;
+    }
+
+    /**
+     * Returns {@code true} if packets of the origin should be dropped without decoding them
+     */
+    boolean isQuarantined(InetAddress origin, long now) {
+        if (quarantineThreshold <= 0) return false;
+        Origin state = origins.get(origin);
+        if (state == null || state.quarantinedUntil - now <= 0) return false;
+        quarantinedPackets.incrementAndGet();
+        return true;
+    }
+
+    long getQuarantinedPackets() {
+        return quarantinedPackets.get();
+    }
+
+    Set<InetAddress> getQuarantinedOrigins(long now) {
+        Set<InetAddress> result = new HashSet<>();
+        origins.forEach((address, state) -> {
+            if (state.quarantinedUntil - now > 0) result.add(address);
+        });
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Accounts an error caused by an origin
+     *
+     * @return the error if it should be reported, {@code null} if it was suppressed
+     */
+    Exception report(InetAddress origin, Exception e, long now) {
+        Origin state = origins.get(origin);
+        if (state == null) {
+            state = origins.size() < MAX_ORIGINS ? origins.computeIfAbsent(origin, Origin::new) : others;
+        }
+        synchronized (state) {
+            state.errors++;
+            int threshold = quarantineThreshold;
+            if (threshold > 0 && state.address != null && state.errors >= threshold && state.quarantinedUntil - now <= 0) {
+                state.quarantinedUntil = now + quarantineDuration;
+            }
+            double r = rate;
+            state.tokens = Math.min(Math.max(1, r), state.tokens + (now - state.lastRefill) * r / 1e9);
+            state.lastRefill = now;
+            if (state.tokens >= 1) {
+                state.tokens--;
+                return e;
+            }
+            if (state.suppressed++ == 0) state.sample = e;
+            return null;
+        }
+    }
+
+    /**
+     * Collects the summaries of all suppressed errors once per report interval and forgets idle origins
+     */
+    List<AggregatedErrorException> flush(long now) {
+        if (now - nextFlush < 0) return List.of();
+        nextFlush = now + INTERVAL;
+        List<AggregatedErrorException> reports = new ArrayList<>();
+        others.drain(now, reports);
+        for (Iterator<Map.Entry<InetAddress, Origin>> it = origins.entrySet().iterator(); it.hasNext(); ) {
+            Origin state = it.next().getValue();
+            if (state.drain(now, reports)) it.remove();
+        }
+        return reports;
+    }
+
+    /**
+     * Error state of a single origin
+     */
+    private static class Origin {
+        final InetAddress address;
+        long errors;
+        long suppressed;
+        Exception sample;
+        double tokens = 1;
+        long lastRefill = System.nanoTime();
+        volatile long quarantinedUntil = System.nanoTime();
+
+        Origin(InetAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * Adds the summary of the suppressed errors to the reports and starts a new interval
+         *
+         * @return {@code true} if the origin caused no errors in the interval and can be forgotten
+         */
+        synchronized boolean drain(long now, List<AggregatedErrorException> reports) {
+            boolean quarantined = quarantinedUntil - now > 0;
+            if (suppressed > 0) reports.add(new AggregatedErrorException(address, suppressed, sample, quarantined));
+            boolean idle = errors == 0 && !quarantined;
+            errors = 0;
+            suppressed = 0;
+            sample = null;
+            return idle;
+        }
+    }
+}
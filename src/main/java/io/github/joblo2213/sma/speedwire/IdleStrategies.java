@@ -0,0 +1,67 @@
+package io.github.joblo2213.sma.speedwire;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Implementations of the {@link IdleStrategy idle strategies}
+ */
+final class IdleStrategies {
+
+    private IdleStrategies() {
+    }
+
+    static final class BusySpin implements IdleStrategy {
+        @Override
+        public void idle() {
+            Thread.onSpinWait();
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+
+    /**
+     * Spins, yields and finally parks with exponentially growing periods
+     */
+    static final class Backoff implements IdleStrategy {
+        private final long spins;
+        private final long yields;
+        private final long minPark;
+        private final long maxPark;
+        private long count;
+        private long park;
+
+        Backoff(int spins, int yields, long minPark, long maxPark) {
+            if (spins < 0 || yields < 0) throw new IllegalArgumentException("spins and yields must not be negative");
+            if (minPark <= 0 || maxPark < minPark)
+                throw new IllegalArgumentException("park periods must be positive and minPark <= maxPark");
+            this.spins = spins;
+            //yields are counted after the spins
+            this.yields = spins + (long) yields;
+            this.minPark = minPark;
+            this.maxPark = maxPark;
+            this.park = minPark;
+        }
+
+        @Override
+        public void idle() {
+            if (count < spins) {
+                count++;
+                Thread.onSpinWait();
+            } else if (count < yields) {
+                count++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(park);
+                park = Math.min(park << 1, maxPark);
+            }
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+            park = minPark;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.joblo2213.sma.speedwire;
+
+import java.time.Duration;
+
+/**
+ * <p>
+ * Decides how the speedwire thread waits while polling for packets, see {@link Speedwire#setIdleStrategy(IdleStrategy)}.
+ * </p><p>
+ * Polling trades cpu time for latency: a busy spinning thread picks up a packet within microseconds, but occupies a
+ * whole core. Strategies that yield or park the thread after some time without packets save cpu time, at the cost of a
+ * higher latency for the first packet after an idle period.
+ * </p><p>
+ * Strategies are stateful and used by a single thread, create a new instance for each speedwire instance.
+ * </p>
+ */
+public interface IdleStrategy {
+
+    /**
+     * Called whenever polling didn't return a packet
+     */
+    void idle();
+
+    /**
+     * Called after a packet was received, the next idle period starts from the beginning
+     */
+    void reset();
+
+    /**
+     * Returns a strategy that keeps spinning on the cpu, with the lowest latency and highest cpu usage
+     */
+    static IdleStrategy busySpin() {
+        return new IdleStrategies.BusySpin();
+    }
+
+    /**
+     * Returns a strategy that spins a given number of times and then yields the cpu to other threads on each idle call
+     *
+     * @param spins number of idle calls that spin before yielding
+     */
+    static IdleStrategy spinThenYield(int spins) {
+        return new IdleStrategies.Backoff(spins, Integer.MAX_VALUE, 1, 1);
+    }
+
+    /**
+     * Returns a strategy that spins, then yields and then parks the thread for exponentially growing periods
+     *
+     * @param spins   number of idle calls that spin
+     * @param yields  number of idle calls that yield after spinning
+     * @param minPark first park period
+     * @param maxPark maximum park period
+     */
+    static IdleStrategy backoff(int spins, int yields, Duration minPark, Duration maxPark) {
+        return new IdleStrategies.Backoff(spins, yields, minPark.toNanos(), maxPark.toNanos());
+    }
+}
@@ -1,17 +1,37 @@
 package io.github.joblo2213.sma.speedwire;
 
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramException;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.ChannelProjection;
 import io.github.joblo2213.sma.speedwire.protocol.telegrams.DiscoveryResponse;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
 import io.github.joblo2213.sma.speedwire.protocol.telegrams.Telegram;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.TelegramPool;
+import io.github.joblo2213.sma.speedwire.transport.ChannelTransport;
+import io.github.joblo2213.sma.speedwire.transport.MulticastTransport;
+import io.github.joblo2213.sma.speedwire.transport.SpeedwireTransport;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.MulticastSocket;
-import java.net.Socket;
+import java.net.NetworkInterface;
 import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * <p>
@@ -26,6 +46,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
  * The thread will read all incoming data and parse the telegrams.<br>
  * Register callbacks that receive the parsed telegrams from the thread by using {@code onData()}.<br>
  * Callbacks that handle occurring errors or timeouts can also be registered but aren't mandatory.<br>
+ * Call {@code close()} to leave the multicast group again, {@code awaitTermination()} waits until the thread stopped.
  * </p><p>
  * <b>Example:</b>
  * </p><pre>{@code
@@ -46,23 +67,45 @@ import java.util.concurrent.CopyOnWriteArraySet;
  * To find all devices that support the speedwire protocol in your local network
  * send a discovery request using {@code sendDiscoveryRequest()}.<br>
  * Each device will answer with a {@link DiscoveryResponse} that you can listen for using the {@code onData()} callback.
+ * Alternatively use {@code discover()} to await the responses, all devices that answered are kept in the
+ * {@link DeviceRegistry}.
+ * </p><p>
+ * Independent modules of one application that each need a speedwire instance can share a single network connection
+ * by creating their instances as views of a {@link SpeedwireHub}.
  * </p>
  */
-public class Speedwire extends Thread {
+public class Speedwire extends Thread implements AutoCloseable {
 
-    private static final String DEFAULT_GROUP = "239.12.255.254";
-    private static final int DEFAULT_PORT = 9522;
+    static final String DEFAULT_GROUP = "239.12.255.254";
+    static final int DEFAULT_PORT = 9522;
     private static final int TIMEOUT = 5000;
+    private static final int PACKET_SIZE = 8192;
 
     private final InetAddress hostAddress;
     private final InetAddress multicastGroup;
     private final int port;
+    //channel of the hub this instance is a view of, null for standalone instances
+    private final SpeedwireHub.Channel hub;
 
-    private final CopyOnWriteArraySet<SpeedwireCallback<Telegram>> callbacks = new CopyOnWriteArraySet<>();
+    private final SubscriptionRouter router = new SubscriptionRouter();
     private final CopyOnWriteArraySet<SpeedwireErrorHandler> errorHandlers = new CopyOnWriteArraySet<>();
     private final CopyOnWriteArraySet<Runnable> timeoutHandlers = new CopyOnWriteArraySet<>();
+    private final DeviceRegistry registry = new DeviceRegistry();
+    private final ErrorGuard errorGuard = new ErrorGuard();
+    //received packets are recycled once they were decoded
+    private final ArrayBlockingQueue<DatagramPacket> packets = new ArrayBlockingQueue<>(256);
 
-    private MulticastSocket socket;
+    private SpeedwireTransport transport;
+    private boolean started;
+    private volatile boolean closed;
+    private int decodePartitions = 0;
+    private DecodePartitions partitions;
+    private TelegramPool telegramPool;
+    private volatile Duration discoveryInterval;
+    private long nextDiscovery;
+    private Supplier<ChannelProjection> projection = router::projection;
+    private IdleStrategy idleStrategy;
+    private Runnable affinityHook;
 
     /**
      * Construct a new thread for exchanging data with speedwire devices in your local network.<br>
@@ -81,10 +124,22 @@ public class Speedwire extends Thread {
         this.hostAddress = InetAddress.getByName(hostAddress);
         this.multicastGroup = InetAddress.getByName(multicastGroup);
         this.port = port;
+        this.hub = null;
         if (!this.multicastGroup.isMulticastAddress())
             throw new IOException("multicastGroup is not a multicast address");
     }
 
+    /**
+     * Construct a view of a receiver shared by a {@link SpeedwireHub}
+     */
+    Speedwire(SpeedwireHub.Channel hub) {
+        super("Speedwire-view");
+        this.hostAddress = hub.getHostAddress();
+        this.multicastGroup = hub.getMulticastGroup();
+        this.port = hub.getPort();
+        this.hub = hub;
+    }
+
     /**
      * Construct a new thread for exchanging data with speedwire devices in your local network.<br>
      * Automatically determines your host address and uses the default port ({@code 9522}) and the
@@ -98,28 +153,29 @@ public class Speedwire extends Thread {
     }
 
     /**
-     * Try to determine your host address by opening a socket as {@link InetAddress#getLocalHost()} often returns the
-     * wrong address if a device has multiple ethernet adapters.
+     * Determine your host address from the local network interfaces, as {@link InetAddress#getLocalHost()} often
+     * returns the wrong address if a device has multiple ethernet adapters.<br>
+     * Only interfaces that are up and support multicast are considered, site local IPv4 addresses (e.g.
+     * {@code 192.168.x.x}) are preferred. No network traffic is caused.
      *
      * @return your host address
-     * @throws IOException if the socket could not be opened and therefore the host address could not be determined
+     * @throws IOException if no suitable network interface exists and therefore the host address could not be
+     *                     determined
      */
-    private static InetAddress getLocalAddress() throws IOException {
-        if (System.getProperty("os.name").contains("mac")) {
-            try (Socket socket = new Socket()) {
-                socket.connect(new InetSocketAddress("google.com", 80));
-                return socket.getLocalAddress();
-            } catch (IOException e) {
-                throw new IOException("Could not automatically determine your host address. Please specify it.", e);
-            }
-        } else {
-            try (final DatagramSocket socket = new DatagramSocket()) {
-                socket.connect(InetAddress.getByName("8.8.8.8"), 10002);
-                return socket.getLocalAddress();
-            } catch (IOException e) {
-                throw new IOException("Could not automatically determine your host address. Please specify it.", e);
+    public static InetAddress getLocalAddress() throws IOException {
+        InetAddress fallback = null;
+        for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!nif.isUp() || nif.isLoopback() || nif.isVirtual() || nif.isPointToPoint() || !nif.supportsMulticast())
+                continue;
+            for (InetAddress address : Collections.list(nif.getInetAddresses())) {
+                if (!(address instanceof Inet4Address) || address.isLinkLocalAddress()) continue;
+                if (address.isSiteLocalAddress()) return address;
+                if (fallback == null) fallback = address;
             }
         }
+        if (fallback == null)
+            throw new IOException("Could not automatically determine your host address. Please specify it.");
+        return fallback;
     }
 
     /**
@@ -136,13 +192,232 @@ public class Speedwire extends Thread {
      * </p>
      *
      * @param callback callback that listens for all incoming telegrams
+     * @return handle that unregisters the callback
+     */
+    public Subscription onData(SpeedwireCallback<Telegram> callback) {
+        return router.add(Telegram.class, null, callback);
+    }
+
+    /**
+     * Register a callback that is run when a new telegram of the given type (or one of its subclasses) is received.
+     *
+     * @param type     class of the telegrams to listen for
+     * @param callback callback that listens for all incoming telegrams of the given type
+     * @return handle that unregisters the callback
+     * @see #onData(SpeedwireCallback)
+     */
+    public <T extends Telegram> Subscription onData(Class<T> type, SpeedwireCallback<T> callback) {
+        return router.add(type, null, callback);
+    }
+
+    /**
+     * Register a callback that is run when a new telegram of the given type is received from a specific device.<br>
+     * Telegrams are routed to these callbacks by a lookup of their device address, so registering many device
+     * specific callbacks doesn't slow down the dispatch of telegrams to other devices.
+     *
+     * @param type     class of the telegrams to listen for
+     * @param device   SMA device address of the device (see {@link Telegram#getDeviceAddress()})
+     * @param callback callback that listens for the telegrams of the device
+     * @return handle that unregisters the callback
+     * @see #onData(SpeedwireCallback)
+     */
+    public <T extends Telegram> Subscription onData(Class<T> type, DeviceAddress device, SpeedwireCallback<T> callback) {
+        return router.add(type, Objects.requireNonNull(device), callback);
+    }
+
+    /**
+     * Register a callback that is run when a new telegram of the given type is received from a specific ip address.
+     *
+     * @param type     class of the telegrams to listen for
+     * @param origin   ip address of the device (see {@link Telegram#getOrigin()})
+     * @param callback callback that listens for the telegrams of the device
+     * @return handle that unregisters the callback
+     * @see #onData(SpeedwireCallback)
+     */
+    public <T extends Telegram> Subscription onData(Class<T> type, InetAddress origin, SpeedwireCallback<T> callback) {
+        return router.add(type, Objects.requireNonNull(origin), callback);
+    }
+
+    /**
+     * <p>
+     * Register a callback for energy meter telegrams that only needs some of their channels.
+     * </p><p>
+     * Energy meter telegrams are decoded with the union of the channels all registered callbacks need, all other
+     * records are skipped. Callbacks registered without channels (e.g. using {@link #onData(Class, SpeedwireCallback)})
+     * need all channels. The union is updated whenever a callback is registered or cancelled.<br>
+     * The telegrams passed to this callback may contain more than the requested channels, but other channels can't be
+     * relied on.
+     * </p><p>
+     * <b>Example:</b>
+     * </p><pre>{@code
+     * speedwire.onData(List.of(EnergyMeterChannels.TOTAL_P_IN, EnergyMeterChannels.TOTAL_P_OUT),
+     *         em -> System.out.println(em.getData(EnergyMeterChannels.TOTAL_P_IN)));
+     * }</pre>
+     *
+     * @param channels channels the callback needs
+     * @param callback callback that listens for all incoming energy meter telegrams
+     * @return handle that unregisters the callback
+     * @see #onData(SpeedwireCallback)
+     */
+    public Subscription onData(Collection<? extends MeasuringChannel<?>> channels,
+                               SpeedwireCallback<EnergyMeterTelegram> callback) {
+        return router.add(EnergyMeterTelegram.class, null, ChannelProjection.of(channels), callback);
+    }
+
+    /**
+     * Returns the energy meter channels that are currently decoded, the union of the channels all callbacks need
+     */
+    public ChannelProjection getChannelProjection() {
+        return router.projection();
+    }
+
+    /**
+     * <p>
+     * Configure the number of worker threads that decode incoming telegrams.
+     * </p><p>
+     * By default ({@code 0}) the speedwire thread receives and decodes all telegrams on its own.
+     * If set to a positive value the speedwire thread only receives packets and hands them to the given number of
+     * decode partitions. Packets are assigned to partitions by their sending device, so callbacks still receive the
+     * telegrams of each device in order, but telegrams of different devices may be handled concurrently on different
+     * threads.<br>
+     * Callbacks must therefore be thread safe if more than one partition is used.
+     * </p>
+     *
+     * @param partitions number of decode worker threads, {@code 0} to decode on the speedwire thread
+     * @throws IllegalStateException    if the speedwire thread was already started or this is a
+     *                                  {@link SpeedwireHub} view
+     * @throws IllegalArgumentException if {@code partitions} is negative
+     */
+    public synchronized void setDecodePartitions(int partitions) {
+        if (started) throw new IllegalStateException("decode partitions must be configured before start()");
+        if (hub != null) throw new IllegalStateException("decode partitions of a hub view can't be configured");
+        if (partitions < 0) throw new IllegalArgumentException("partitions must not be negative");
+        this.decodePartitions = partitions;
+    }
+
+    /**
+     * Returns the number of configured decode partitions ({@code 0} if telegrams are decoded on the speedwire thread)
+     */
+    public int getDecodePartitions() {
+        return decodePartitions;
+    }
+
+    /**
+     * Returns the number of received packets that are currently waiting to be decoded, one entry for each decode
+     * partition.<br>
+     * The array is empty if no decode partitions are configured or the thread wasn't started yet.
      */
-    public void onData(SpeedwireCallback<Telegram> callback) {
-        callbacks.add(callback);
+    public int[] getPartitionQueueDepths() {
+        DecodePartitions p = partitions;
+        return p == null ? new int[0] : p.queueDepths();
     }
 
-    public <T extends Telegram> void onData(Class<T> d, SpeedwireCallback<T> callback) {
-        callbacks.add(new CallBackWrapper<>(d, callback));
+    /**
+     * Returns the number of received packets that were dropped because the queue of their decode partition was full.
+     */
+    public long getDroppedPackets() {
+        DecodePartitions p = partitions;
+        return p == null ? 0 : p.dropped();
+    }
+
+    /**
+     * <p>
+     * Enable or disable recycling of energy meter telegrams (disabled by default).
+     * </p><p>
+     * If enabled, energy meter telegrams are taken from a {@link TelegramPool} and recycled as soon as all callbacks
+     * returned, so receiving telegrams from known devices does not allocate in steady state. Callbacks must not keep
+     * references to received telegrams after returning unless they {@link Telegram#retain() retain} them and
+     * {@link Telegram#release() release} them once they are done.
+     * </p>
+     *
+     * @param enabled {@code true} to recycle energy meter telegrams
+     * @throws IllegalStateException if the speedwire thread was already started or this is a {@link SpeedwireHub} view
+     */
+    public synchronized void setTelegramPooling(boolean enabled) {
+        if (started) throw new IllegalStateException("telegram pooling must be configured before start()");
+        if (hub != null) throw new IllegalStateException("telegram pooling of a hub view can't be configured");
+        this.telegramPool = enabled ? new TelegramPool(64) : null;
+    }
+
+    /**
+     * Returns {@code true} if energy meter telegrams are recycled
+     *
+     * @see #setTelegramPooling(boolean)
+     */
+    public boolean isTelegramPooling() {
+        return telegramPool != null;
+    }
+
+    /**
+     * <p>
+     * Configure the transport used to exchange packets with the devices.
+     * </p><p>
+     * By default a {@link MulticastTransport} is opened on the network interface of the host address when the thread
+     * is started. Other transports, like a {@link io.github.joblo2213.sma.speedwire.transport.LoopbackTransport},
+     * allow running speedwire without a multicast capable network. The transport is closed together with this
+     * instance.
+     * </p>
+     *
+     * @param transport transport to use
+     * @throws IllegalStateException if the speedwire thread was already started, this is a {@link SpeedwireHub} view
+     *                               or an {@link #setIdleStrategy(IdleStrategy) idle strategy} is configured and the
+     *                               transport doesn't support polling
+     */
+    public synchronized void setTransport(SpeedwireTransport transport) {
+        if (started) throw new IllegalStateException("the transport must be configured before start()");
+        if (hub != null) throw new IllegalStateException("the transport of a hub view can't be configured");
+        Objects.requireNonNull(transport);
+        if (idleStrategy != null && !transport.supportsPolling())
+            throw new IllegalStateException(transport.getClass().getSimpleName() + " doesn't support polling");
+        this.transport = transport;
+    }
+
+    /**
+     * <p>
+     * Configure the speedwire thread to poll for packets without blocking (disabled by default).
+     * </p><p>
+     * By default the speedwire thread blocks while waiting for packets, so the operating system has to wake it up for
+     * each packet. If an idle strategy is configured the thread polls the transport instead and calls the strategy
+     * whenever no packet is available. Combined with {@link IdleStrategy#busySpin()} this occupies a whole core, but
+     * passes packets to the callbacks with a latency of a few microseconds that is hardly affected by the scheduler.
+     * </p><p>
+     * The transport must support {@link SpeedwireTransport#supportsPolling() polling}. If no transport is configured
+     * a non-blocking {@link ChannelTransport} is opened instead of the default {@link MulticastTransport}.
+     * </p>
+     *
+     * @param strategy strategy used while no packets are available, {@code null} to receive blocking
+     * @throws IllegalStateException if the speedwire thread was already started, this is a {@link SpeedwireHub} view
+     *                               or the configured transport doesn't support polling
+     * @see #setAffinityHook(Runnable)
+     */
+    public synchronized void setIdleStrategy(IdleStrategy strategy) {
+        if (started) throw new IllegalStateException("the idle strategy must be configured before start()");
+        if (hub != null) throw new IllegalStateException("the idle strategy of a hub view can't be configured");
+        if (strategy != null && transport != null && !transport.supportsPolling())
+            throw new IllegalStateException(transport.getClass().getSimpleName() + " doesn't support polling");
+        this.idleStrategy = strategy;
+    }
+
+    /**
+     * Returns the idle strategy used while polling for packets, {@code null} if packets are received blocking
+     */
+    public IdleStrategy getIdleStrategy() {
+        return idleStrategy;
+    }
+
+    /**
+     * Configure a hook that is run on the speedwire thread before it starts receiving packets.<br>
+     * Use it to pin the thread to a dedicated cpu core using a thread affinity library, e.g. together with a busy
+     * spinning {@link #setIdleStrategy(IdleStrategy) idle strategy}. Exceptions thrown by the hook are passed to the
+     * error handlers.
+     *
+     * @param hook hook run on the speedwire thread, {@code null} to remove it
+     * @throws IllegalStateException if the speedwire thread was already started or this is a {@link SpeedwireHub} view
+     */
+    public synchronized void setAffinityHook(Runnable hook) {
+        if (started) throw new IllegalStateException("the affinity hook must be configured before start()");
+        if (hub != null) throw new IllegalStateException("the affinity hook of a hub view can't be configured");
+        this.affinityHook = hook;
     }
 
     /**
@@ -155,6 +430,54 @@ public class Speedwire extends Thread {
         errorHandlers.add(errorHandler);
     }
 
+    /**
+     * <p>
+     * Configure the maximum rate of errors per origin that are passed to the error handlers (default 10 per second).
+     * </p><p>
+     * Errors caused by packets that can't be decoded are counted per sending device. Errors exceeding the rate are
+     * not reported individually, instead a single {@link AggregatedErrorException} containing their count and a sample
+     * is reported for each origin every 10 seconds. This keeps a misbehaving device or a port scan from flooding the
+     * error handlers.
+     * </p>
+     *
+     * @param errorsPerSecond maximum number of individually reported errors per origin and second
+     */
+    public void setErrorRateLimit(double errorsPerSecond) {
+        if (errorsPerSecond <= 0) throw new IllegalArgumentException("rate must be positive");
+        errorGuard.setRate(errorsPerSecond);
+    }
+
+    /**
+     * <p>
+     * Configure the quarantine of origins that keep sending garbage (disabled by default).
+     * </p><p>
+     * An origin that causes {@code threshold} or more decoding errors within 10 seconds is quarantined for the given
+     * duration: its packets are dropped right after receiving them without decoding them.
+     * </p>
+     *
+     * @param threshold number of errors within 10 seconds that cause a quarantine, {@code 0} to disable the quarantine
+     * @param duration  duration of the quarantine
+     */
+    public void setQuarantine(int threshold, Duration duration) {
+        if (threshold < 0) throw new IllegalArgumentException("threshold must not be negative");
+        if (duration.isNegative()) throw new IllegalArgumentException("duration must not be negative");
+        errorGuard.setQuarantine(threshold, duration.toNanos());
+    }
+
+    /**
+     * Returns the addresses of all origins that are currently quarantined
+     */
+    public Set<InetAddress> getQuarantinedOrigins() {
+        return errorGuard.getQuarantinedOrigins(System.nanoTime());
+    }
+
+    /**
+     * Returns the number of packets dropped because their origin was quarantined
+     */
+    public long getQuarantinedPackets() {
+        return errorGuard.getQuarantinedPackets();
+    }
+
     /**
      * Register a callback that is run when no data is received for over 5 seconds.<br>
      * As most known speedwire devices send data every second this indicates a network error.
@@ -175,7 +498,24 @@ public class Speedwire extends Thread {
     public void send(byte[] packet) {
         try {
             DatagramPacket pkt = new DatagramPacket(packet, packet.length, multicastGroup, port);
-            socket.send(pkt);
+            transport.send(pkt);
+        } catch (IOException e) {
+            errorHandlers.forEach(h -> h.onError(e));
+        }
+    }
+
+    /**
+     * Send any packet of bytes to a single device via unicast.<br>
+     * Responses are received on the same transport and passed to the callbacks like all other telegrams.<br>
+     * Please make sure the send data does not violate the speedwire protocol as this isn't checked.
+     *
+     * @param packet an array of bytes that will be send to the target
+     * @param target ip address and port of the receiving device
+     */
+    public void send(byte[] packet, InetSocketAddress target) {
+        try {
+            DatagramPacket pkt = new DatagramPacket(packet, packet.length, target);
+            transport.send(pkt);
         } catch (IOException e) {
             errorHandlers.forEach(h -> h.onError(e));
         }
@@ -205,26 +545,117 @@ public class Speedwire extends Thread {
         send(discoveryRequest);
     }
 
+    /**
+     * <p>
+     * Sends a discovery request and collects the devices that answer it.
+     * </p><p>
+     * The returned future completes as soon as {@code expectedCount} distinct devices answered or the timeout elapsed,
+     * whichever comes first. In case of a timeout it completes normally with all devices that answered so far.<br>
+     * All answering devices are added to the {@link #getDeviceRegistry() device registry} as well.
+     * </p><p>
+     * <b>Example:</b>
+     * </p><pre>{@code
+     * speedwire.start();
+     * Set<Device> devices = speedwire.discover(Duration.ofSeconds(5), 2).join();
+     * }</pre>
+     *
+     * @param timeout       maximum time to wait for answers
+     * @param expectedCount number of devices after which the future completes early, use {@link Integer#MAX_VALUE} to
+     *                      always wait for the full timeout
+     * @return future that completes with all devices that answered the request
+     */
+    public CompletableFuture<Set<Device>> discover(Duration timeout, int expectedCount) {
+        final Set<Device> found = ConcurrentHashMap.newKeySet();
+        final CompletableFuture<Set<Device>> future = new CompletableFuture<>();
+        final Consumer<Device> listener = device -> {
+            if (found.add(device) && found.size() >= expectedCount)
+                future.complete(Set.copyOf(found));
+        };
+        registry.addResponseHandler(listener);
+        future.whenComplete((r, e) -> registry.removeResponseHandler(listener));
+        CompletableFuture.delayedExecutor(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                .execute(() -> future.complete(Set.copyOf(found)));
+        if (expectedCount <= 0) future.complete(Set.of());
+        else sendDiscoveryRequest();
+        return future;
+    }
+
+    /**
+     * Returns the registry of all devices that answered a discovery request.
+     */
+    public DeviceRegistry getDeviceRegistry() {
+        return registry;
+    }
+
+    /**
+     * <p>
+     * Configure the speedwire thread to periodically refresh the {@link DeviceRegistry}.
+     * </p><p>
+     * A discovery request is sent every {@code interval}, devices that did not answer for three intervals are removed
+     * from the registry. The requests are sent from the speedwire thread while it processes incoming data, so if the
+     * network is completely silent the refresh might be delayed by up to 5 seconds.
+     * </p>
+     *
+     * @param interval interval between two discovery requests or {@code null} to disable the refresh
+     */
+    public void setDiscoveryInterval(Duration interval) {
+        if (interval != null && (interval.isNegative() || interval.isZero()))
+            throw new IllegalArgumentException("discovery interval must be positive");
+        this.nextDiscovery = System.nanoTime();
+        this.discoveryInterval = interval;
+    }
+
+    /**
+     * Sends a discovery request and expires old devices if the discovery interval elapsed
+     */
+    private void refreshRegistry() {
+        Duration interval = discoveryInterval;
+        if (interval == null) return;
+        long now = System.nanoTime();
+        if (now - nextDiscovery < 0) return;
+        nextDiscovery = now + interval.toNanos();
+        registry.expire(Instant.now().minus(interval.multipliedBy(3)));
+        sendDiscoveryRequest();
+    }
+
     /**
      * Start the speedwire thread.<br>
-     * This will cause your device to open a socket, join the multicast group and listen for incoming data.<br>
-     * If for some reason, like network issues, the socket can't be opened the io exception will be logged.
+     * This will cause your device to open the transport, join the multicast group and listen for incoming data.<br>
+     * If for some reason, like network issues, the transport can't be opened the io exception is passed to the error
+     * handlers.
      */
     @Override
     public synchronized void start() {
+        if (closed) throw new IllegalStateException("speedwire was already closed");
+        if (hub != null) {
+            //views don't run a thread of their own, the shared receiver passes them its telegrams
+            if (started) throw new IllegalThreadStateException();
+            started = true;
+            try {
+                transport = hub.attach(this).transport;
+            } catch (IOException e) {
+                errorHandlers.forEach(h -> h.onError(e));
+            }
+            return;
+        }
         try {
-            socket = new MulticastSocket(port);
-            //noinspection deprecation
-            socket.setInterface(getLocalAddress());
-            socket.setReuseAddress(true);
-            //noinspection deprecation
-            socket.joinGroup(multicastGroup);
-            socket.setSoTimeout(TIMEOUT);
+            if (transport == null) transport = idleStrategy != null
+                    ? new ChannelTransport(port, hostAddress)
+                    : new MulticastTransport(port, hostAddress);
+            started = true;
+            transport.join(multicastGroup);
+            transport.setReceiveTimeout(TIMEOUT);
+            if (decodePartitions > 0) {
+                partitions = new DecodePartitions(decodePartitions, getName(), packet -> {
+                    process(packet);
+                    recycle(packet);
+                }, e -> errorHandlers.forEach(h -> h.onError(e)));
+                partitions.start();
+            }
             super.start();
         } catch (IOException e) {
-            System.err.println("Could not start Speedwire: " + e.getMessage());
-            e.printStackTrace();
-            if (socket != null) socket.close();
+            errorHandlers.forEach(h -> h.onError(e));
+            if (transport != null) transport.close();
         }
     }
 
@@ -233,37 +664,190 @@ public class Speedwire extends Thread {
      */
     @Override
     public void run() {
-        if (socket == null) {
-            throw new RuntimeException("Multicast socket isn't started");
+        if (transport == null) {
+            throw new RuntimeException("Speedwire transport isn't started");
         }
-
-        while (!interrupted()) {
+        if (affinityHook != null) {
             try {
-                //receive and decode incoming packets
-                DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
-                socket.receive(packet);
-                final Telegram telegram = Telegram.from(packet);
-
-                //Ignore own packets as multicast will also redirect them back to the sender
-                if (telegram.getOrigin().equals(hostAddress)) continue;
+                affinityHook.run();
+            } catch (Exception e) {
+                errorHandlers.forEach(h -> h.onError(e));
+            }
+        }
 
-                callbacks.forEach(h -> h.onDataReceived(telegram));
+        final IdleStrategy idle = idleStrategy;
+        long lastPacket = System.nanoTime();
+        long nextHousekeeping = lastPacket;
+        while (!closed && !interrupted()) {
+            try {
+                //receive incoming packets and decode them here or hand them to their decode partition
+                DatagramPacket packet = packets.poll();
+                if (packet == null) packet = new DatagramPacket(new byte[PACKET_SIZE], PACKET_SIZE);
+                boolean received = true;
+                try {
+                    if (idle == null) transport.receive(packet);
+                    else received = transport.poll(packet);
+                } catch (IOException e) {
+                    recycle(packet);
+                    throw e;
+                }
+                if (!received) {
+                    recycle(packet);
+                    long now = System.nanoTime();
+                    if (now - lastPacket >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT)) {
+                        lastPacket = now;
+                        throw new SocketTimeoutException("Receive timed out");
+                    }
+                    idle.idle();
+                    //polling must not be slowed down by the housekeeping, it is done at most once per millisecond
+                    if (now - nextHousekeeping < 0) continue;
+                    nextHousekeeping = now + 1_000_000;
+                } else {
+                    if (idle != null) {
+                        idle.reset();
+                        lastPacket = System.nanoTime();
+                    }
+                    //packets of quarantined origins are dropped without decoding them
+                    if (errorGuard.isQuarantined(packet.getAddress(), System.nanoTime())) {
+                        recycle(packet);
+                    } else if (partitions == null) {
+                        process(packet);
+                        recycle(packet);
+                    } else if (!partitions.submit(packet)) {
+                        recycle(packet);
+                    }
+                }
             } catch (SocketTimeoutException e) {
                 timeoutHandlers.forEach(Runnable::run);
             } catch (Exception e) {
+                //closing the transport unblocks the receive call
+                if (closed) break;
+                errorHandlers.forEach(h -> h.onError(e));
+            }
+            refreshRegistry();
+            for (AggregatedErrorException e : errorGuard.flush(System.nanoTime())) {
                 errorHandlers.forEach(h -> h.onError(e));
             }
         }
-        socket.close();
+        transport.close();
+        if (partitions != null) partitions.shutdown();
+    }
+
+    /**
+     * Decodes a received packet and passes the telegram to all callbacks
+     */
+    private void process(DatagramPacket packet) {
+        final Telegram telegram;
+        try {
+            TelegramPool pool = telegramPool;
+            telegram = pool != null
+                    ? pool.decode(packet, projection.get())
+                    : Telegram.from(packet, projection.get());
+        } catch (TelegramException e) {
+            Exception report = errorGuard.report(packet.getAddress(), e, System.nanoTime());
+            if (report != null) errorHandlers.forEach(h -> h.onError(report));
+            return;
+        }
+        try {
+            //Ignore own packets as multicast will also redirect them back to the sender, telegrams forwarded by a relay on
+            //this host are tagged with their original origin and loops are prevented by the relays themselves
+            if (telegram.getOrigin().equals(hostAddress) && telegram.findField(Telegram.TAG_RELAY) < 0) return;
+            deliver(telegram);
+        } finally {
+            telegram.release();
+        }
+    }
+
+    /**
+     * Passes a decoded telegram to all callbacks, called by the shared receiver for views of a {@link SpeedwireHub}
+     */
+    void deliver(Telegram telegram) {
+        try {
+            if (telegram instanceof DiscoveryResponse) registry.update(telegram.getOrigin(), Instant.now());
+
+            router.dispatch(telegram);
+        } catch (Exception e) {
+            errorHandlers.forEach(h -> h.onError(e));
+        }
+        if (hub != null) refreshRegistry();
+    }
+
+    /**
+     * Runs the timeout handlers of a {@link SpeedwireHub} view
+     */
+    void timeout() {
+        timeoutHandlers.forEach(Runnable::run);
+        refreshRegistry();
+    }
+
+    /**
+     * Passes an error of the shared receiver to the error handlers of a {@link SpeedwireHub} view
+     */
+    void error(Exception e) {
+        errorHandlers.forEach(h -> h.onError(e));
+    }
+
+    /**
+     * Replaces the projection telegrams are decoded with, used by the shared receiver of a {@link SpeedwireHub}
+     */
+    void setProjection(Supplier<ChannelProjection> projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Returns a decoded packet to the packet pool
+     */
+    private void recycle(DatagramPacket packet) {
+        //restore offset and length of the whole buffer
+        packet.setData(packet.getData());
+        packets.offer(packet);
     }
 
     /**
      * Call this method to gracefully shut down the speedwire thread to stop listening for incoming data
-     * and close the socket.<br>
-     * This method does not await the termination of the thread.
+     * and close the transport.<br>
+     * This method does not await the termination of the thread, use {@link #awaitTermination(Duration)} for this.
+     *
+     * @see #close()
      */
     public void shutdown() {
+        close();
+    }
+
+    /**
+     * Stops listening for incoming data and closes the transport.<br>
+     * The transport is closed right away, so a pending receive returns immediately. Telegrams that are currently
+     * dispatched are still delivered to the callbacks. A closed speedwire instance can't be started again.<br>
+     * This method does not await the termination of the thread, use {@link #awaitTermination(Duration)} for this.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (hub != null) {
+            //the transport belongs to the shared receiver
+            hub.detach(this);
+            return;
+        }
         interrupt();
+        synchronized (this) {
+            if (transport != null) transport.close();
+        }
+    }
+
+    /**
+     * Waits until the speedwire thread and its decode partitions terminated after {@link #close()} was called.
+     *
+     * @param timeout maximum time to wait
+     * @return {@code true} if the thread terminated, {@code false} if the timeout elapsed before
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public boolean awaitTermination(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (isAlive()) join(Math.max(1, millis));
+        if (isAlive()) return false;
+        DecodePartitions p = partitions;
+        return p == null || p.awaitTermination(deadline);
     }
 
     /**
@@ -286,24 +870,4 @@ public class Speedwire extends Thread {
     public int getPort() {
         return port;
     }
-
-    /**
-     * Provides a wrapper to listen only for telegrams of a specific type
-     */
-    private static class CallBackWrapper<T extends Telegram> implements SpeedwireCallback<Telegram> {
-        final Class<T> tClass;
-        final SpeedwireCallback<T> wrapped;
-
-        CallBackWrapper(Class<T> tClass, SpeedwireCallback<T> wrapped) {
-            this.tClass = tClass;
-            this.wrapped = wrapped;
-        }
-
-        @Override
-        public void onDataReceived(Telegram data) {
-            if (tClass.isInstance(data)) {
-                wrapped.onDataReceived(tClass.cast(data));
-            }
-        }
-    }
 }
@@ -12,6 +12,7 @@ import io.github.joblo2213.sma.speedwire.protocol.telegrams.*;
  * <ul>
  *     <li>{@link DiscoveryResponse}</li>
  *     <li>{@link EnergyMeterTelegram}</li>
+ *     <li>{@link InverterTelegram}</li>
  * </ul></p><p>
  * <b>Example:</b>
  * <pre>{@code
@@ -0,0 +1,225 @@
+package io.github.joblo2213.sma.speedwire;
+
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.ChannelProjection;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.Telegram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>
+ * Shares the network connection of multiple {@link Speedwire} instances within one JVM.
+ * </p><p>
+ * A standalone speedwire instance opens its own transport and decodes every received packet on its own, so if several
+ * independent modules of an application each use one, every packet is received and decoded once per module.
+ * The hub instead opens a single receiver per multicast group, port and host address and decodes each packet once.
+ * The decoded telegram is passed to all {@link #view(String, String, int) views} of the receiver. Received telegrams
+ * are shared between the views and must not be modified.
+ * </p><p>
+ * A view is a regular {@link Speedwire} instance with its own callbacks, error and timeout handlers, device registry
+ * and lifecycle. Starting a view attaches it to the receiver, which is opened by the first view. Closing a view
+ * detaches it, the receiver is closed together with the last view. Transport, decode partitions and telegram pooling
+ * belong to the receiver and can't be configured on a view. Energy meter telegrams are decoded with the union of the
+ * channels all views need.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * Speedwire sw = SpeedwireHub.getDefault().view();
+ * sw.onData(EnergyMeterTelegram.class, telegram -> ...);
+ * sw.start();
+ * }</pre>
+ */
+public final class SpeedwireHub {
+
+    private static final SpeedwireHub DEFAULT = new SpeedwireHub();
+
+    private final Map<Key, Channel> channels = new HashMap<>();
+
+    /**
+     * Returns the process-wide hub
+     */
+    public static SpeedwireHub getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a view of the receiver for the given host address, multicast group and port.
+     *
+     * @param hostAddress    the ip address of the host in your local network
+     * @param multicastGroup the ip address of the multicast group, by default this is {@code 239.12.255.254}
+     * @param port           the udp port, by default {@code 9522}
+     * @return a new speedwire view that isn't started yet
+     * @throws IOException if one of the given addresses isn't a valid inet address or the {@code multicastGroup}
+     *                     is not a multicast address.
+     */
+    public Speedwire view(String hostAddress, String multicastGroup, int port) throws IOException {
+        InetAddress host = InetAddress.getByName(hostAddress);
+        InetAddress group = InetAddress.getByName(multicastGroup);
+        if (!group.isMulticastAddress()) throw new IOException("multicastGroup is not a multicast address");
+        Key key = new Key(host, group, port);
+        synchronized (this) {
+            //the channel is only registered while views are attached to it
+            Channel channel = channels.get(key);
+            return new Speedwire(channel != null ? channel : new Channel(key));
+        }
+    }
+
+    /**
+     * Creates a view of the receiver for the default multicast group and port on your host address.
+     *
+     * @throws IOException if your host address couldn't be determined.
+     *                     Then use {@link #view(String, String, int)} instead.
+     * @see Speedwire#Speedwire()
+     */
+    public Speedwire view() throws IOException {
+        return view(Speedwire.getLocalAddress().getHostAddress(), Speedwire.DEFAULT_GROUP, Speedwire.DEFAULT_PORT);
+    }
+
+    /**
+     * Returns the number of currently opened receivers
+     */
+    public synchronized int getReceiverCount() {
+        return (int) channels.values().stream().filter(c -> c.receiver != null).count();
+    }
+
+    /**
+     * The views of one multicast group, port and host address sharing a receiver
+     */
+    final class Channel {
+        private final Key key;
+        private final CopyOnWriteArrayList<Speedwire> views = new CopyOnWriteArrayList<>();
+        //guarded by the hub
+        private Speedwire receiver;
+        //union of the projections of all views, recomputed when one of them changed
+        private ChannelProjection[] seen = new ChannelProjection[0];
+        private ChannelProjection projection = ChannelProjection.NONE;
+
+        private Channel(Key key) {
+            this.key = key;
+        }
+
+        InetAddress getHostAddress() {
+            return key.host;
+        }
+
+        InetAddress getMulticastGroup() {
+            return key.group;
+        }
+
+        int getPort() {
+            return key.port;
+        }
+
+        /**
+         * Attaches a started view, opening the receiver if it is the first one
+         *
+         * @return the receiver the view is attached to
+         */
+        Speedwire attach(Speedwire view) throws IOException {
+            synchronized (SpeedwireHub.this) {
+                //the channel of the view might have been removed after its last view detached
+                Channel live = channels.computeIfAbsent(key, k -> this);
+                if (live != this) return live.attach(view);
+                if (receiver == null) {
+                    Speedwire r = new Speedwire(key.host.getHostAddress(), key.group.getHostAddress(), key.port);
+                    r.setName("Speedwire-hub-" + key.group.getHostAddress() + ":" + key.port);
+                    r.setProjection(this::projection);
+                    r.onData(this::dispatch);
+                    r.onTimeout(() -> views.forEach(Speedwire::timeout));
+                    List<Exception> failures = new CopyOnWriteArrayList<>();
+                    r.onError(e -> {
+                        //errors while starting are thrown to the attaching view
+                        if (!r.isAlive()) failures.add(e);
+                        else views.forEach(v -> v.error(e));
+                    });
+                    r.start();
+                    if (!failures.isEmpty()) {
+                        r.close();
+                        channels.remove(key);
+                        throw failures.get(0) instanceof IOException
+                                ? (IOException) failures.get(0) : new IOException(failures.get(0));
+                    }
+                    receiver = r;
+                }
+                views.add(view);
+                return receiver;
+            }
+        }
+
+        /**
+         * Detaches a closed view, closing the receiver and removing the channel from the hub if it was the last one
+         */
+        void detach(Speedwire view) {
+            synchronized (SpeedwireHub.this) {
+                Channel live = channels.get(key);
+                if (live != null && live != this) {
+                    live.detach(view);
+                    return;
+                }
+                if (!views.remove(view) || !views.isEmpty()) return;
+                if (receiver != null) receiver.close();
+                receiver = null;
+                channels.remove(key);
+            }
+        }
+
+        private void dispatch(Telegram telegram) {
+            for (Speedwire view : views) view.deliver(telegram);
+        }
+
+        /**
+         * Returns the union of the channels all views need
+         */
+        private synchronized ChannelProjection projection() {
+            ChannelProjection[] last = seen;
+            int i = 0;
+            boolean changed = false;
+            for (Speedwire view : views) {
+                if (i >= last.length || last[i] != view.getChannelProjection()) changed = true;
+                i++;
+            }
+            if (!changed && i == last.length) return projection;
+            ChannelProjection[] current = new ChannelProjection[i];
+            ChannelProjection union = ChannelProjection.NONE;
+            i = 0;
+            for (Speedwire view : views) {
+                if (i == current.length) break;
+                current[i] = view.getChannelProjection();
+                union = union.union(current[i++]);
+            }
+            seen = current;
+            projection = union;
+            return union;
+        }
+    }
+
+    private static final class Key {
+        private final InetAddress host;
+        private final InetAddress group;
+        private final int port;
+
+        private Key(InetAddress host, InetAddress group, int port) {
+            this.host = host;
+            this.group = group;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return port == key.port && host.equals(key.host) && group.equals(key.group);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, group, port);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package io.github.joblo2213.sma.speedwire;
+
+/**
+ * Handle of a callback registered using one of the {@code onData()} methods of {@link Speedwire}
+ */
+public interface Subscription {
+
+    /**
+     * Unregisters the callback, it will not receive any further telegrams.<br>
+     * Cancelling a subscription more than once has no effect.
+     */
+    void cancel();
+}
@@ -0,0 +1,145 @@
+package io.github.joblo2213.sma.speedwire;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.ChannelProjection;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.Telegram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Routes telegrams to the callbacks that subscribed to them.
+ * </p><p>
+ * Subscriptions are indexed by the telegram type they subscribed to and optionally by the origin or the device address
+ * of the sending device. The index is an immutable snapshot that is rebuilt on every (un)registration, so dispatching
+ * a telegram needs no locking and only touches the subscribers interested in it: subscribers without device filter
+ * are resolved once per concrete telegram class, subscribers with a device filter are looked up by the origin and the
+ * device address of the telegram.
+ * </p><p>
+ * The routing tables also contain the union of the energy meter channels the subscribers need, so energy meter
+ * telegrams only have to decode these channels.
+ * </p>
+ */
+class SubscriptionRouter {
+
+    private static final Entry<?>[] NONE = new Entry<?>[0];
+
+    private final List<Entry<?>> entries = new ArrayList<>();
+    private volatile Routes routes = new Routes(List.of());
+
+    /**
+     * Registers a callback
+     *
+     * @param type     class of the telegrams the callback is interested in
+     * @param key      origin ({@link java.net.InetAddress}) or {@link DeviceAddress} of the sending device or
+     *                 {@code null} for telegrams of all devices
+     * @param callback the callback
+     */
+    synchronized <T extends Telegram> Subscription add(Class<T> type, Object key, SpeedwireCallback<? super T> callback) {
+        return add(type, key, ChannelProjection.ALL, callback);
+    }
+
+    /**
+     * Registers a callback that only needs the given channels of energy meter telegrams
+     */
+    synchronized <T extends Telegram> Subscription add(Class<T> type, Object key, ChannelProjection channels,
+                                                       SpeedwireCallback<? super T> callback) {
+        Entry<T> entry = new Entry<>(type, key, channels, callback);
+        entries.add(entry);
+        routes = new Routes(entries);
+        return entry;
+    }
+
+    private synchronized void remove(Entry<?> entry) {
+        if (entries.remove(entry)) routes = new Routes(entries);
+    }
+
+    /**
+     * Returns the union of the energy meter channels all subscribers need
+     */
+    ChannelProjection projection() {
+        return routes.projection;
+    }
+
+    /**
+     * Passes the telegram to all interested callbacks
+     */
+    void dispatch(Telegram telegram) {
+        Routes r = routes;
+        for (Entry<?> entry : r.forType(telegram.getClass())) entry.deliver(telegram);
+        if (r.byKey.isEmpty()) return;
+        for (Entry<?> entry : r.byKey.getOrDefault(telegram.getOrigin(), NONE)) {
+            if (entry.type.isInstance(telegram)) entry.deliver(telegram);
+        }
+        DeviceAddress device = telegram.getDeviceAddress();
+        if (device == null) return;
+        for (Entry<?> entry : r.byKey.getOrDefault(device, NONE)) {
+            if (entry.type.isInstance(telegram)) entry.deliver(telegram);
+        }
+    }
+
+    /**
+     * Immutable routing tables
+     */
+    private static class Routes {
+        final Entry<?>[] unkeyed;
+        final HashMap<Object, Entry<?>[]> byKey = new HashMap<>();
+        //subscribers without device filter resolved per concrete telegram class
+        final ConcurrentHashMap<Class<?>, Entry<?>[]> byType = new ConcurrentHashMap<>();
+        final ChannelProjection projection;
+
+        Routes(List<Entry<?>> entries) {
+            List<Entry<?>> unkeyed = new ArrayList<>();
+            HashMap<Object, List<Entry<?>>> keyed = new HashMap<>();
+            ChannelProjection projection = ChannelProjection.NONE;
+            for (Entry<?> entry : entries) {
+                if (entry.type.isAssignableFrom(EnergyMeterTelegram.class)) projection = projection.union(entry.channels);
+                if (entry.key == null) unkeyed.add(entry);
+                else keyed.computeIfAbsent(entry.key, k -> new ArrayList<>()).add(entry);
+            }
+            this.unkeyed = unkeyed.toArray(NONE);
+            keyed.forEach((key, list) -> byKey.put(key, list.toArray(NONE)));
+            this.projection = projection;
+        }
+
+        Entry<?>[] forType(Class<?> type) {
+            Entry<?>[] resolved = byType.get(type);
+            if (resolved == null) {
+                List<Entry<?>> list = new ArrayList<>();
+                for (Entry<?> entry : unkeyed) {
+                    if (entry.type.isAssignableFrom(type)) list.add(entry);
+                }
+                resolved = list.toArray(NONE);
+                byType.put(type, resolved);
+            }
+            return resolved;
+        }
+    }
+
+    private class Entry<T extends Telegram> implements Subscription {
+        final Class<T> type;
+        final Object key;
+        final ChannelProjection channels;
+        final SpeedwireCallback<? super T> callback;
+
+        Entry(Class<T> type, Object key, ChannelProjection channels, SpeedwireCallback<? super T> callback) {
+            this.type = type;
+            this.key = key;
+            this.channels = channels;
+            this.callback = callback;
+        }
+
+        void deliver(Telegram telegram) {
+            callback.onDataReceived(type.cast(telegram));
+        }
+
+        @Override
+        public void cancel() {
+            remove(this);
+        }
+    }
+}
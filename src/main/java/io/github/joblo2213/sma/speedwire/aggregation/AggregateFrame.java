@@ -0,0 +1,95 @@
+package io.github.joblo2213.sma.speedwire.aggregation;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * The aggregated data of all devices for one frame of the common timeline.
+ * </p><p>
+ * For each channel the frame contains the sum of the values of all devices that sent data within the frame, so the
+ * frame can be used like the telegram of a virtual meter measuring the total of all devices. If a device sent more
+ * than one telegram within a frame its latest values are used.
+ * </p>
+ */
+public class AggregateFrame {
+
+    private final long start;
+    private final long period;
+    private final List<MeasuringChannel<?>> channels;
+    private final long[] sums;
+    private final long present;
+    private final Set<DeviceAddress> devices;
+    private final boolean complete;
+
+    AggregateFrame(long start, long period, List<MeasuringChannel<?>> channels, long[] sums, long present,
+                   Set<DeviceAddress> devices, boolean complete) {
+        this.start = start;
+        this.period = period;
+        this.channels = channels;
+        this.sums = sums;
+        this.present = present;
+        this.devices = devices;
+        this.complete = complete;
+    }
+
+    /**
+     * Returns the start of the frame in ms since the unix epoch (inclusive)
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the end of the frame in ms since the unix epoch (exclusive)
+     */
+    public long getEnd() {
+        return start + period;
+    }
+
+    /**
+     * Returns the devices that contributed data to this frame
+     */
+    public Set<DeviceAddress> getDevices() {
+        return devices;
+    }
+
+    /**
+     * Returns {@code true} if all expected devices contributed to this frame, {@code false} if the frame was emitted
+     * because the allowed lateness expired before data of all devices was received
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns {@code true} if at least one device contributed data for the given channel
+     *
+     * @param channel channel to check
+     */
+    public boolean hasData(MeasuringChannel<?> channel) {
+        int index = channels.indexOf(channel);
+        return index >= 0 && (present & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the sum of the raw values of all contributing devices for the given channel, in the unit of the
+     * channel ({@link MeasuringChannel#getUnit()})
+     *
+     * @param channel channel of the data that should be retrieved
+     * @return the sum of the raw values of the given channel
+     * @throws IllegalArgumentException if no device contributed data for the given channel
+     */
+    public long getSum(MeasuringChannel<?> channel) throws IllegalArgumentException {
+        if (!hasData(channel)) throw new IllegalArgumentException("channel '" + channel + "' is not defined");
+        return sums[channels.indexOf(channel)];
+    }
+
+    @Override
+    public String toString() {
+        return "AggregateFrame[" + start + ", " + devices.size() + " devices" + (complete ? "" : ", incomplete") + "]";
+    }
+}
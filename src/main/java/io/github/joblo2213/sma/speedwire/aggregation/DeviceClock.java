@@ -0,0 +1,101 @@
+package io.github.joblo2213.sma.speedwire.aggregation;
+
+/**
+ * <p>
+ * Maps the free-running measuring time of a single device to the common timeline of the receiver.
+ * </p><p>
+ * The measuring time is a 4 byte ms counter that wraps around approximately every 50 days. It is unwrapped into a
+ * continuous counter and mapped to the receivers clock by an offset and a drift rate:
+ * </p><ul>
+ *     <li>The offset follows the lower envelope of {@code arrival - measuringTime}. Network and scheduling delays only
+ *     ever make telegrams arrive later, so a smaller difference is taken over immediately while larger differences
+ *     only pull the offset up slowly.</li>
+ *     <li>The drift rate is estimated from the change of the offset over windows of {@value #DRIFT_WINDOW} ms of
+ *     measuring time and is applied between telegrams, so the mapping doesn't run away between two telegrams.</li>
+ * </ul><p>
+ * If a telegram deviates from the prediction by more than {@value #RESYNC} ms (e.g. because the device restarted)
+ * the clock is resynchronized.
+ * </p><p>
+ * Not thread safe.
+ * </p>
+ */
+public class DeviceClock {
+
+    private static final long COUNTER_RANGE = 1L << 32;
+    private static final long DRIFT_WINDOW = 60_000;
+    private static final long RESYNC = 5_000;
+    //maximum drift of a quartz clock that is considered plausible
+    private static final double MAX_DRIFT = 500e-6;
+    //weight of delayed telegrams and of new drift measurements
+    private static final double OFFSET_GAIN = 0.01;
+    private static final double DRIFT_GAIN = 0.25;
+
+    private boolean synced;
+    private long lastRaw;
+    private long unwrapped;
+    private double offset;
+    private double drift;
+    private long anchorTime;
+    private double anchorOffset;
+
+    /**
+     * Maps the measuring time of a telegram to the receivers timeline.
+     *
+     * @param measuringTime measuring time of the telegram in ms (4 byte unsigned counter)
+     * @param arrival       arrival time of the telegram in ms since the unix epoch
+     * @return the measuring time on the receivers timeline in ms since the unix epoch
+     */
+    public long map(long measuringTime, long arrival) {
+        if (!synced) return sync(measuringTime, arrival);
+
+        //difference of the 4 byte counters, interpreted as signed value to handle wraparound and late telegrams
+        long delta = Math.floorMod(measuringTime - lastRaw, COUNTER_RANGE);
+        if (delta >= COUNTER_RANGE / 2) delta -= COUNTER_RANGE;
+        long time = unwrapped + delta;
+        double predicted = offset + drift * delta;
+        double observed = arrival - time;
+        if (Math.abs(observed - predicted) > RESYNC) return sync(measuringTime, arrival);
+
+        //reordered telegrams are mapped, but don't move the clock backwards
+        if (delta <= 0) return Math.round(time + predicted);
+
+        offset = observed < predicted ? observed : predicted + OFFSET_GAIN * (observed - predicted);
+        lastRaw = measuringTime;
+        unwrapped = time;
+
+        if (time - anchorTime >= DRIFT_WINDOW) {
+            double measured = (offset - anchorOffset) / (time - anchorTime);
+            drift += DRIFT_GAIN * (measured - drift);
+            drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, drift));
+            anchorTime = time;
+            anchorOffset = offset;
+        }
+        return Math.round(time + offset);
+    }
+
+    private long sync(long measuringTime, long arrival) {
+        synced = true;
+        lastRaw = measuringTime;
+        unwrapped = measuringTime;
+        offset = arrival - measuringTime;
+        drift = 0;
+        anchorTime = unwrapped;
+        anchorOffset = offset;
+        return arrival;
+    }
+
+    /**
+     * Returns the current offset between the unwrapped measuring time and the receivers timeline in ms
+     */
+    public double getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the estimated drift of the devices clock relative to the receivers clock (e.g. {@code 20e-6} if the
+     * device clock runs 20 ppm slow)
+     */
+    public double getDrift() {
+        return drift;
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.joblo2213.sma.speedwire.aggregation;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+
+import java.util.List;
+
+/**
+ * <p>
+ * The energy a single meter counted within one accounting interval.
+ * </p><p>
+ * The energy of each channel is the difference of the counter readings interpolated at the start and the end of the
+ * interval, so the energies of consecutive intervals add up exactly to the difference of the counter readings.
+ * </p>
+ */
+public class EnergyInterval {
+
+    private final DeviceAddress device;
+    private final long start;
+    private final long end;
+    private final List<MeasuringChannel<?>> channels;
+    private final long[] energy;
+    private final long present;
+    private final boolean estimated;
+    private final boolean counterReset;
+
+    EnergyInterval(DeviceAddress device, long start, long end, List<MeasuringChannel<?>> channels, long[] energy,
+                   long present, boolean estimated, boolean counterReset) {
+        this.device = device;
+        this.start = start;
+        this.end = end;
+        this.channels = channels;
+        this.energy = energy;
+        this.present = present;
+        this.estimated = estimated;
+        this.counterReset = counterReset;
+    }
+
+    /**
+     * Returns the address of the meter
+     */
+    public DeviceAddress getDevice() {
+        return device;
+    }
+
+    /**
+     * Returns the start of the interval in ms since the unix epoch (inclusive)
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the end of the interval in ms since the unix epoch (exclusive)
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns {@code true} if the energy of the given channel is known for this interval
+     *
+     * @param channel channel to check
+     */
+    public boolean hasData(MeasuringChannel<?> channel) {
+        int index = channels.indexOf(channel);
+        return index >= 0 && (present & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the energy counted within the interval, in the unit of the channel ({@link MeasuringChannel#getUnit()})
+     *
+     * @param channel counter channel of the energy that should be retrieved
+     * @return the counted energy in the raw unit of the channel
+     * @throws IllegalArgumentException if the energy of the channel is not known for this interval
+     */
+    public long getEnergy(MeasuringChannel<?> channel) throws IllegalArgumentException {
+        if (!hasData(channel)) throw new IllegalArgumentException("channel '" + channel + "' is not defined");
+        return energy[channels.indexOf(channel)];
+    }
+
+    /**
+     * Returns {@code true} if the meter didn't send data for longer than the maximum gap within or around this
+     * interval, so the counter readings at its boundaries are interpolated over the gap
+     */
+    public boolean isEstimated() {
+        return estimated;
+    }
+
+    /**
+     * Returns {@code true} if a counter of the meter was reset within or around this interval.<br>
+     * The counter is assumed to restart from zero, the energy counted before the reset within the same telegram
+     * period is lost.
+     */
+    public boolean hasCounterReset() {
+        return counterReset;
+    }
+
+    @Override
+    public String toString() {
+        return "EnergyInterval[" + device + ", " + start + " - " + end + (estimated ? ", estimated" : "")
+                + (counterReset ? ", counter reset" : "") + "]";
+    }
+}
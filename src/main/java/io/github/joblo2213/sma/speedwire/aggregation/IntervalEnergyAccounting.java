@@ -0,0 +1,223 @@
+package io.github.joblo2213.sma.speedwire.aggregation;
+
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.EnergyMeterChannels;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Accounts the energy of each meter per fixed interval (e.g. 15 minutes for billing) from its cumulative counters
+ * (the {@code *_SUM} channels).
+ * </p><p>
+ * Interval boundaries are aligned to multiples of the interval length since the unix epoch. The measuring time of each
+ * telegram is mapped to the common timeline of the receiver like in the {@link TimeAlignedMerger}, which also unwraps
+ * the measuring time when it wraps around. The counter readings at each boundary are interpolated linearly between
+ * the telegrams before and after it, so the energies of consecutive intervals add up exactly to the difference of the
+ * counter readings. An interval is emitted as soon as the first telegram after its end is received, the work per
+ * telegram doesn't depend on the number of telegrams or intervals accounted before.
+ * </p><p>
+ * The first, partial interval of each meter is not emitted. A counter that decreases is considered reset and is
+ * assumed to restart from zero, the intervals around the reset are flagged
+ * ({@link EnergyInterval#hasCounterReset()}). If a meter doesn't send data for longer than the
+ * {@link #setMaxGap(Duration) maximum gap}, the intervals around the gap are still emitted once it sends again, but
+ * flagged as {@link EnergyInterval#isEstimated() estimated}.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * IntervalEnergyAccounting accounting = new IntervalEnergyAccounting(Duration.ofMinutes(15));
+ * accounting.onInterval(interval -> store(interval.getDevice(), interval.getStart(),
+ *         interval.getEnergy(EnergyMeterChannels.TOTAL_P_IN_SUM)));
+ * speedwire.onData(accounting.getChannels(), accounting);
+ * }</pre>
+ */
+public class IntervalEnergyAccounting implements SpeedwireCallback<EnergyMeterTelegram> {
+
+    private final long interval;
+    private final List<MeasuringChannel<?>> channels;
+    private final Map<DeviceAddress, Meter> meters = new HashMap<>();
+    private final CopyOnWriteArraySet<Consumer<EnergyInterval>> intervalHandlers = new CopyOnWriteArraySet<>();
+    private long maxGap = 10_000;
+
+    /**
+     * Creates a new accounting.
+     *
+     * @param interval length of an interval
+     * @param channels counter channels that are accounted, at most 64
+     * @throws IllegalArgumentException if one of the channels isn't a cumulative counter
+     */
+    public IntervalEnergyAccounting(Duration interval, Collection<? extends MeasuringChannel<?>> channels) {
+        this.interval = interval.toMillis();
+        this.channels = List.copyOf(channels);
+        if (this.interval <= 0) throw new IllegalArgumentException("interval must be at least 1 ms");
+        if (this.channels.size() > 64) throw new IllegalArgumentException("at most 64 channels can be accounted");
+        for (MeasuringChannel<?> channel : this.channels) {
+            //cumulative counters are the only 8 byte values
+            if (channel.getDataLength() != 8)
+                throw new IllegalArgumentException("channel '" + channel + "' is not a cumulative counter");
+        }
+    }
+
+    /**
+     * Creates a new accounting of all cumulative counters of the energy meters.
+     *
+     * @param interval length of an interval
+     */
+    public IntervalEnergyAccounting(Duration interval) {
+        this(interval, EnergyMeterChannels.ALL.stream().filter(c -> c.getDataLength() == 8).collect(Collectors.toList()));
+    }
+
+    /**
+     * Register a callback that is run for each finished interval.<br>
+     * The callback will be run on the thread that delivered the telegram finishing the interval. The intervals of each
+     * meter are delivered in order.
+     *
+     * @param handler callback receiving the finished intervals
+     */
+    public void onInterval(Consumer<EnergyInterval> handler) {
+        intervalHandlers.add(handler);
+    }
+
+    /**
+     * Sets the time without data after which intervals are flagged as estimated, by default 10 seconds
+     */
+    public synchronized void setMaxGap(Duration maxGap) {
+        if (maxGap.isNegative() || maxGap.isZero()) throw new IllegalArgumentException("max gap must be positive");
+        this.maxGap = maxGap.toMillis();
+    }
+
+    /**
+     * Returns the accounted channels
+     */
+    public List<MeasuringChannel<?>> getChannels() {
+        return channels;
+    }
+
+    @Override
+    public void onDataReceived(EnergyMeterTelegram data) {
+        accept(data, System.currentTimeMillis());
+    }
+
+    /**
+     * Accounts a telegram that arrived at the given time, e.g. when replaying recorded telegrams.<br>
+     * The telegrams of each meter must be passed in order of their arrival.
+     *
+     * @param data    telegram to account
+     * @param arrival arrival time of the telegram in ms since the unix epoch
+     */
+    public synchronized void accept(EnergyMeterTelegram data, long arrival) {
+        meters.computeIfAbsent(data.getDeviceAddress(), Meter::new).update(data, arrival);
+    }
+
+    /**
+     * The accounting state of a single meter
+     */
+    private class Meter {
+        private final DeviceAddress device;
+        private final DeviceClock clock = new DeviceClock();
+        //latest raw and continuous reading, its time and the offset making the counter continuous across resets
+        private final long[] lastRaw = new long[channels.size()];
+        private final long[] lastValue = new long[channels.size()];
+        private final long[] lastTime = new long[channels.size()];
+        private final long[] base = new long[channels.size()];
+        private final long[] current = new long[channels.size()];
+        private long known;
+        //continuous counter readings at the start of the current interval
+        private long[] start = new long[channels.size()];
+        private long started;
+        private long end = Long.MIN_VALUE;
+        private long latest = Long.MIN_VALUE;
+        private boolean estimated;
+        private boolean reset;
+
+        Meter(DeviceAddress device) {
+            this.device = device;
+        }
+
+        void update(EnergyMeterTelegram data, long arrival) {
+            long time = clock.map(data.getMeasuringTimeMillis(), arrival);
+            //reordered or duplicated telegrams are ignored
+            if (time <= latest) return;
+            boolean gap = latest != Long.MIN_VALUE && time - latest > maxGap;
+            boolean segmentReset = false;
+            long present = 0;
+            for (int i = 0; i < channels.size(); i++) {
+                MeasuringChannel<?> channel = channels.get(i);
+                if (!data.hasData(channel)) continue;
+                long raw = data.getRawData(channel);
+                if ((known & (1L << i)) != 0 && Long.compareUnsigned(raw, lastRaw[i]) < 0) {
+                    //the counter restarted from zero, continue the continuous counter from the last reading
+                    base[i] += lastRaw[i];
+                    segmentReset = true;
+                }
+                current[i] = raw + base[i];
+                present |= 1L << i;
+            }
+
+            if (end == Long.MIN_VALUE) end = Math.floorDiv(time, interval) * interval + interval;
+            while (time >= end) {
+                long[] readings = new long[channels.size()];
+                long interpolated = 0;
+                for (int i = 0; i < channels.size(); i++) {
+                    long bit = 1L << i;
+                    if ((present & known & bit) == 0) continue;
+                    readings[i] = interpolate(lastValue[i], lastTime[i], current[i], time, end);
+                    interpolated |= bit;
+                }
+                if (started != 0 || interpolated != 0) emit(readings, interpolated, gap, segmentReset);
+                end += interval;
+            }
+            estimated |= gap;
+            reset |= segmentReset;
+
+            for (int i = 0; i < channels.size(); i++) {
+                if ((present & (1L << i)) == 0) continue;
+                lastRaw[i] = current[i] - base[i];
+                lastValue[i] = current[i];
+                lastTime[i] = time;
+            }
+            known |= present;
+            latest = time;
+        }
+
+        /**
+         * Finishes the current interval at the given readings
+         */
+        private void emit(long[] readings, long interpolated, boolean gap, boolean segmentReset) {
+            long valid = started & interpolated;
+            if (valid != 0) {
+                long[] energy = new long[channels.size()];
+                for (int i = 0; i < channels.size(); i++) {
+                    if ((valid & (1L << i)) != 0) energy[i] = readings[i] - start[i];
+                }
+                EnergyInterval finished = new EnergyInterval(device, end - interval, end, channels, energy, valid,
+                        estimated || gap, reset || segmentReset);
+                intervalHandlers.forEach(h -> h.accept(finished));
+            }
+            start = readings;
+            started = interpolated;
+            //the segment between the telegrams also touches the next interval
+            estimated = gap;
+            reset = segmentReset;
+        }
+    }
+
+    /**
+     * Interpolates a counter reading at the given time between two readings
+     */
+    private static long interpolate(long fromValue, long fromTime, long toValue, long toTime, long at) {
+        if (at <= fromTime) return fromValue;
+        if (at >= toTime) return toValue;
+        return fromValue + Math.round((toValue - fromValue) * ((double) (at - fromTime) / (toTime - fromTime)));
+    }
+}
@@ -0,0 +1,270 @@
+package io.github.joblo2213.sma.speedwire.aggregation;
+
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.EnergyMeterChannels;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Merges the telegrams of multiple energy meters into time-aligned frames, e.g. to sum many sub-meters into the
+ * totals of a virtual site meter.
+ * </p><p>
+ * Every meter sends its data with its own free-running measuring time at slightly different moments. The merger maps
+ * the measuring time of each device to the common timeline of the receiver, estimating the offset and drift of each
+ * device clock, and assigns each telegram to the frame of fixed length its mapped time falls into.
+ * </p><p>
+ * Each device has a watermark, the latest mapped time it sent data for. A frame is complete as soon as the watermarks
+ * of all expected devices passed its end and is emitted right away. If some devices don't send data in time, the frame
+ * is emitted incomplete once the allowed lateness after its end expired. Frames are always emitted in order, data
+ * arriving for a frame that was already emitted is dropped and counted (see {@link #getLateSamples()}). Frames no
+ * device sent data for are not emitted.
+ * </p><p>
+ * By default all devices that sent data recently are expected. If the set of devices is known, configuring it with
+ * {@link #setDevices(Collection)} makes frames wait for devices that haven't been seen yet as well.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * List<MeasuringChannel<?>> channels = List.of(EnergyMeterChannels.TOTAL_P_IN, EnergyMeterChannels.TOTAL_P_OUT);
+ * TimeAlignedMerger merger = new TimeAlignedMerger(Duration.ofSeconds(1), Duration.ofSeconds(3), channels);
+ * merger.onFrame(frame -> System.out.println(frame.getStart() + ": " + frame.getSum(EnergyMeterChannels.TOTAL_P_IN)));
+ * speedwire.onData(channels, merger);
+ * merger.start();
+ * }</pre>
+ */
+public class TimeAlignedMerger extends Thread implements SpeedwireCallback<EnergyMeterTelegram> {
+
+    private final long period;
+    private final long lateness;
+    private final List<MeasuringChannel<?>> channels;
+    private final Map<DeviceAddress, DeviceState> devices = new HashMap<>();
+    private final TreeMap<Long, Frame> pending = new TreeMap<>();
+    private final CopyOnWriteArraySet<Consumer<AggregateFrame>> frameHandlers = new CopyOnWriteArraySet<>();
+    private Set<DeviceAddress> members;
+    private long closedBefore = Long.MIN_VALUE;
+    private long lateSamples;
+
+    /**
+     * Creates a new merger.
+     *
+     * @param period          length of a frame
+     * @param allowedLateness time after the end of a frame the merger waits for missing devices
+     * @param channels        channels that are aggregated, at most 64
+     */
+    public TimeAlignedMerger(Duration period, Duration allowedLateness,
+                             Collection<? extends MeasuringChannel<?>> channels) {
+        super("Speedwire-merger");
+        setDaemon(true);
+        this.period = period.toMillis();
+        this.lateness = allowedLateness.toMillis();
+        this.channels = List.copyOf(channels);
+        if (this.period <= 0) throw new IllegalArgumentException("period must be at least 1 ms");
+        if (lateness < 0) throw new IllegalArgumentException("allowed lateness must not be negative");
+        if (this.channels.size() > 64) throw new IllegalArgumentException("at most 64 channels can be aggregated");
+    }
+
+    /**
+     * Creates a new merger that aggregates all energy meter channels.
+     *
+     * @param period          length of a frame
+     * @param allowedLateness time after the end of a frame the merger waits for missing devices
+     */
+    public TimeAlignedMerger(Duration period, Duration allowedLateness) {
+        this(period, allowedLateness, EnergyMeterChannels.ALL);
+    }
+
+    /**
+     * Register a callback that is run for each emitted frame.<br>
+     * The callback will be run on the thread that delivered the telegram completing the frame or on the merger thread.
+     * Frames are delivered in order, one at a time.
+     *
+     * @param handler callback receiving the aggregated frames
+     */
+    public void onFrame(Consumer<AggregateFrame> handler) {
+        frameHandlers.add(handler);
+    }
+
+    /**
+     * Configures the devices that are expected to contribute to each frame.<br>
+     * Telegrams of other devices are ignored.
+     *
+     * @param devices addresses of the expected devices, {@code null} to expect all devices that sent data recently
+     */
+    public synchronized void setDevices(Collection<DeviceAddress> devices) {
+        this.members = devices == null ? null : Set.copyOf(devices);
+    }
+
+    @Override
+    public void onDataReceived(EnergyMeterTelegram data) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (members != null && !members.contains(data.getDeviceAddress())) return;
+            DeviceState state = devices.computeIfAbsent(data.getDeviceAddress(), d -> new DeviceState());
+            long time = state.clock.map(data.getMeasuringTimeMillis(), now);
+            state.lastArrival = now;
+            state.watermark = Math.max(state.watermark, time);
+
+            long start = Math.floorDiv(time, period) * period;
+            if (start < closedBefore) {
+                lateSamples++;
+            } else {
+                long[] values = pending.computeIfAbsent(start, Frame::new).values(data.getDeviceAddress());
+                long present = 0;
+                for (int i = 0; i < channels.size(); i++) {
+                    MeasuringChannel<?> channel = channels.get(i);
+                    if (!data.hasData(channel)) continue;
+                    values[i] = data.getRawData(channel);
+                    present |= 1L << i;
+                }
+                values[channels.size()] = present;
+            }
+            advance(now);
+        }
+    }
+
+    /**
+     * Emits all frames that are complete or whose allowed lateness expired.<br>
+     * This is done by the merger thread and on each received telegram, calling it manually is only required if the
+     * thread isn't started.
+     *
+     * @param now current time in ms since the unix epoch
+     */
+    public synchronized void advance(long now) {
+        while (!pending.isEmpty()) {
+            Frame frame = pending.firstEntry().getValue();
+            long end = frame.start + period;
+            boolean complete = isComplete(end, now);
+            if (!complete && now < end + lateness) return;
+            pending.pollFirstEntry();
+            closedBefore = end;
+            AggregateFrame aggregate = frame.aggregate(complete);
+            frameHandlers.forEach(h -> h.accept(aggregate));
+        }
+    }
+
+    /**
+     * Checks whether the watermarks of all expected devices passed the given time
+     */
+    private boolean isComplete(long end, long now) {
+        if (members != null) {
+            for (DeviceAddress device : members) {
+                DeviceState state = devices.get(device);
+                if (state == null || state.watermark < end) return false;
+            }
+            return true;
+        }
+        for (DeviceState state : devices.values()) {
+            //devices that stopped sending are no longer waited for
+            if (now - state.lastArrival > lateness + period) continue;
+            if (state.watermark < end) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the aggregated channels
+     */
+    public List<MeasuringChannel<?>> getChannels() {
+        return channels;
+    }
+
+    /**
+     * Returns the number of telegrams that were dropped because their frame was already emitted
+     */
+    public synchronized long getLateSamples() {
+        return lateSamples;
+    }
+
+    /**
+     * Returns the current offset between the (unwrapped) measuring time of a device and the common timeline in ms,
+     * {@link Double#NaN} if no data of the device was received yet
+     */
+    public synchronized double getClockOffset(DeviceAddress device) {
+        DeviceState state = devices.get(device);
+        return state == null ? Double.NaN : state.clock.getOffset();
+    }
+
+    /**
+     * Returns the estimated drift of the clock of a device relative to the common timeline (e.g. {@code 20e-6} if the
+     * device clock runs 20 ppm slow), {@link Double#NaN} if no data of the device was received yet
+     */
+    public synchronized double getClockDrift(DeviceAddress device) {
+        DeviceState state = devices.get(device);
+        return state == null ? Double.NaN : state.clock.getDrift();
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        long tick = Math.max(1, Math.min(period, Math.max(lateness, 1)) / 4);
+        while (!interrupted()) {
+            try {
+                advance(System.currentTimeMillis());
+                //noinspection BusyWait
+                Thread.sleep(tick);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the merger thread, frames that are still pending are discarded.<br>
+     * This method does not await the termination of the thread.
+     */
+    public void shutdown() {
+        interrupt();
+    }
+
+    private static class DeviceState {
+        private final DeviceClock clock = new DeviceClock();
+        private long watermark = Long.MIN_VALUE;
+        private long lastArrival;
+    }
+
+    /**
+     * The values of all devices received for a frame that wasn't emitted yet
+     */
+    private class Frame {
+        private final long start;
+        //raw values of each device, the last element is the bit mask of the channels containing data
+        private final Map<DeviceAddress, long[]> values = new HashMap<>();
+
+        Frame(long start) {
+            this.start = start;
+        }
+
+        long[] values(DeviceAddress device) {
+            return values.computeIfAbsent(device, d -> new long[channels.size() + 1]);
+        }
+
+        AggregateFrame aggregate(boolean complete) {
+            long[] sums = new long[channels.size()];
+            long present = 0;
+            for (long[] device : values.values()) {
+                long mask = device[channels.size()];
+                present |= mask;
+                for (int i = 0; i < sums.length; i++) {
+                    if ((mask & (1L << i)) != 0) sums[i] += device[i];
+                }
+            }
+            Set<DeviceAddress> contributors = Collections.unmodifiableSet(new LinkedHashSet<>(values.keySet()));
+            return new AggregateFrame(start, period, channels, sums, present, contributors, complete);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.joblo2213.sma.speedwire.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer for rendering text based formats without allocating intermediate strings.<br>
+ * Numbers are written digit by digit, the backing array is reused after {@link #reset()}.
+ */
+class AsciiBuffer {
+
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int size;
+
+    AsciiBuffer(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    private void ensure(int additional) {
+        if (size + additional > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + additional));
+    }
+
+    AsciiBuffer append(byte b) {
+        ensure(1);
+        buf[size++] = b;
+        return this;
+    }
+
+    AsciiBuffer append(char c) {
+        return append((byte) c);
+    }
+
+    AsciiBuffer append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    AsciiBuffer append(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buf, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Appends a string that only consists of ascii characters
+     */
+    AsciiBuffer append(String ascii) {
+        int length = ascii.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) buf[size++] = (byte) ascii.charAt(i);
+        return this;
+    }
+
+    AsciiBuffer append(long value) {
+        if (value == Long.MIN_VALUE) return append(MIN_LONG);
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        ensure(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    /**
+     * Appends {@code value / 10^scale} as decimal number, e.g. value 12345 with scale 3 is written as {@code 12.345}
+     */
+    AsciiBuffer appendScaled(long value, int scale) {
+        if (scale <= 0) return append(value);
+        long divisor = 1;
+        for (int i = 0; i < scale; i++) divisor *= 10;
+        if (value < 0) append('-');
+        long abs = Math.abs(value);
+        append(abs / divisor).append('.');
+        long fraction = abs % divisor;
+        for (long d = divisor / 10; d > fraction && d > 1; d /= 10) append('0');
+        return append(fraction);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, size, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,228 @@
+package io.github.joblo2213.sma.speedwire.export;
+
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.SpeedwireErrorHandler;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Writes energy meter telegrams in the InfluxDB line protocol to an {@link InfluxSink}.
+ * </p><p>
+ * Telegrams are rendered into the current batch on the receiving thread without allocating. A batch is handed to the
+ * writer thread as soon as it exceeds the configured size or the maximum delay elapsed. The writer thread writes it
+ * to the sink and retries with exponential backoff if this fails.
+ * </p><p>
+ * The number of batches that can be pending is bounded. If the sink can't keep up and all batch buffers are in use,
+ * new telegrams are dropped instead of blocking the receiving thread or growing the memory usage,
+ * see {@link #getDropped()}.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * InfluxExporter influx = new InfluxExporter(InfluxSink.http(
+ *         URI.create("http://localhost:8086/api/v2/write?org=home&bucket=sma&precision=ms"), token));
+ * speedwire.onData(EnergyMeterTelegram.class, influx);
+ * influx.start();
+ * }</pre>
+ */
+public class InfluxExporter extends Thread implements SpeedwireCallback<EnergyMeterTelegram>, AutoCloseable {
+
+    private static final int BUFFERS = 32;
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+
+    private final InfluxSink sink;
+    private final InfluxLineEncoder encoder;
+    private final int batchSize;
+    private final long maxDelay;
+    private final int retries;
+    private final ArrayBlockingQueue<AsciiBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final ArrayBlockingQueue<AsciiBuffer> full = new ArrayBlockingQueue<>(BUFFERS);
+    private final CopyOnWriteArraySet<SpeedwireErrorHandler> errorHandlers = new CopyOnWriteArraySet<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private AsciiBuffer current;
+    private long batchStart;
+
+    /**
+     * Creates a new exporter.
+     *
+     * @param sink        destination of the rendered batches
+     * @param measurement name of the influx measurement
+     * @param batchSize   size in bytes after which a batch is written
+     * @param maxDelay    maximum time a line waits in a batch before it is written
+     * @param retries     number of times a failing batch is retried before it is discarded
+     */
+    public InfluxExporter(InfluxSink sink, String measurement, int batchSize, Duration maxDelay, int retries) {
+        super("Speedwire-influx");
+        setDaemon(true);
+        if (batchSize <= 0) throw new IllegalArgumentException("batch size must be positive");
+        this.sink = sink;
+        this.encoder = new InfluxLineEncoder(measurement);
+        this.batchSize = batchSize;
+        this.maxDelay = maxDelay.toNanos();
+        this.retries = retries;
+        for (int i = 0; i < BUFFERS; i++) free.add(new AsciiBuffer(batchSize + 4096));
+        current = free.poll();
+    }
+
+    /**
+     * Creates a new exporter writing to the measurement {@code sma_energy_meter} in batches of up to 64 KiB,
+     * at least once per second.
+     *
+     * @param sink destination of the rendered batches
+     */
+    public InfluxExporter(InfluxSink sink) {
+        this(sink, "sma_energy_meter", 64 * 1024, Duration.ofSeconds(1), 5);
+    }
+
+    /**
+     * Register a callback that is run whenever writing a batch fails.<br>
+     * The handler is run on the writer thread.
+     *
+     * @param errorHandler errorHandler that listens for all failed writes
+     */
+    public void onError(SpeedwireErrorHandler errorHandler) {
+        errorHandlers.add(errorHandler);
+    }
+
+    /**
+     * Returns the number of telegrams that were dropped because no batch buffer was available or their batch failed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of bytes successfully written to the sink
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    @Override
+    public void onDataReceived(EnergyMeterTelegram data) {
+        synchronized (this) {
+            if (current == null) {
+                current = free.poll();
+                if (current == null) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+            }
+            if (current.size() == 0) batchStart = System.nanoTime();
+            encoder.encode(data, System.currentTimeMillis(), current);
+            if (current.size() >= batchSize) handOver();
+        }
+    }
+
+    /**
+     * Passes the current batch to the writer thread. Must be called while holding the lock.
+     */
+    private void handOver() {
+        //can't fail, there are never more buffers than queue slots
+        full.add(current);
+        current = free.poll();
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        try {
+            while (!interrupted()) {
+                AsciiBuffer batch = full.poll(Math.max(1, maxDelay / 4), TimeUnit.NANOSECONDS);
+                if (batch == null) {
+                    //nothing full, flush the current batch if it waited too long
+                    synchronized (this) {
+                        if (current != null && current.size() > 0 && System.nanoTime() - batchStart >= maxDelay)
+                            handOver();
+                    }
+                    continue;
+                }
+                write(batch);
+            }
+        } catch (InterruptedException ignored) {
+        }
+        flush();
+    }
+
+    private void write(AsciiBuffer batch) throws InterruptedException {
+        long backoff = 100;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                sink.write(batch.array(), 0, batch.size());
+                written.addAndGet(batch.size());
+                break;
+            } catch (IOException e) {
+                errorHandlers.forEach(h -> h.onError(e));
+                if (attempt >= retries) {
+                    dropped.addAndGet(countLines(batch));
+                    break;
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    //keep the batch for the final flush
+                    full.add(batch);
+                    throw interrupted;
+                }
+                backoff = Math.min(MAX_BACKOFF, backoff * 2);
+            }
+        }
+        batch.reset();
+        free.add(batch);
+    }
+
+    private static long countLines(AsciiBuffer batch) {
+        long lines = 0;
+        byte[] data = batch.array();
+        for (int i = 0; i < batch.size(); i++) if (data[i] == '\n') lines++;
+        return lines;
+    }
+
+    /**
+     * Writes all pending batches once, without retrying
+     */
+    private void flush() {
+        synchronized (this) {
+            if (current != null && current.size() > 0) handOver();
+        }
+        AsciiBuffer batch;
+        while ((batch = full.poll()) != null) {
+            try {
+                sink.write(batch.array(), 0, batch.size());
+                written.addAndGet(batch.size());
+            } catch (IOException e) {
+                errorHandlers.forEach(h -> h.onError(e));
+            }
+        }
+    }
+
+    /**
+     * Stops the writer thread, writes all pending batches and closes the sink.<br>
+     * If the calling thread is interrupted while waiting for the writer thread, its interrupt flag is set again and
+     * batches the writer thread didn't write yet are discarded.
+     *
+     * @throws IOException if the sink can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        interrupt();
+        try {
+            if (isAlive()) join();
+            else flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sink.close();
+        }
+    }
+}
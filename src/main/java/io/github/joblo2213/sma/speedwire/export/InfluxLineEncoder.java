@@ -0,0 +1,72 @@
+package io.github.joblo2213.sma.speedwire.export;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.EnergyMeterChannels;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * <p>
+ * Renders energy meter telegrams into the InfluxDB line protocol.
+ * </p><p>
+ * Each telegram becomes one line of the form
+ * {@code measurement,susy_id=270,serial=3001234567 0:1.4.0=1234i,0:1.8.0=567890i,... 1650000000000},
+ * with the raw channel values as integer fields and the timestamp in ms.
+ * Measurement and tags are rendered once per device and field keys once per channel, numbers are written digit by
+ * digit, so encoding a telegram does not allocate.
+ * </p>
+ */
+class InfluxLineEncoder {
+
+    private static final List<MeasuringChannel<?>> CHANNELS = EnergyMeterChannels.ALL;
+    private static final byte[][] FIELD_KEYS = new byte[CHANNELS.size()][];
+
+    static {
+        for (int i = 0; i < CHANNELS.size(); i++) {
+            FIELD_KEYS[i] = (CHANNELS.get(i).getIdentifier() + "=").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final String measurement;
+    private final HashMap<DeviceAddress, byte[]> prefixes = new HashMap<>();
+
+    /**
+     * @param measurement name of the measurement, must not contain spaces or commas
+     */
+    InfluxLineEncoder(String measurement) {
+        if (measurement.indexOf(' ') >= 0 || measurement.indexOf(',') >= 0)
+            throw new IllegalArgumentException("measurement must not contain spaces or commas");
+        this.measurement = measurement;
+    }
+
+    /**
+     * Appends one line for the given telegram to the buffer
+     *
+     * @param data            telegram to encode
+     * @param timestampMillis timestamp of the line in ms since the unix epoch
+     * @param buffer          buffer the line is appended to
+     */
+    void encode(EnergyMeterTelegram data, long timestampMillis, AsciiBuffer buffer) {
+        byte[] prefix = prefixes.get(data.getDeviceAddress());
+        if (prefix == null) {
+            DeviceAddress address = data.getDeviceAddress();
+            prefix = (measurement + ",susy_id=" + address.getSUSyID() + ",serial=" + address.getSerNo() + " ")
+                    .getBytes(StandardCharsets.US_ASCII);
+            prefixes.put(address, prefix);
+        }
+        buffer.append(prefix);
+        boolean first = true;
+        for (int i = 0; i < CHANNELS.size(); i++) {
+            MeasuringChannel<?> channel = CHANNELS.get(i);
+            if (!data.hasData(channel)) continue;
+            if (!first) buffer.append(',');
+            first = false;
+            buffer.append(FIELD_KEYS[i]).append(data.getRawData(channel)).append('i');
+        }
+        buffer.append(' ').append(timestampMillis).append('\n');
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.joblo2213.sma.speedwire.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * Destination of batches rendered by the {@link InfluxExporter}.
+ * </p><p>
+ * Each batch consists of complete lines of the InfluxDB line protocol. If {@link #write(byte[], int, int)} throws an
+ * exception the batch is written again later, so implementations should not keep partial state between calls.
+ * Factory methods for the most common destinations are provided, custom sinks (e.g. for tests) can implement this
+ * interface directly.
+ * </p>
+ */
+public interface InfluxSink extends Closeable {
+
+    /**
+     * Writes a batch of lines
+     *
+     * @param data   buffer containing the lines
+     * @param offset offset of the first byte
+     * @param length number of bytes to write
+     * @throws IOException if the batch could not be written and should be retried
+     */
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Creates a sink that appends all lines to a file
+     *
+     * @param file file to write to, created if it does not exist
+     */
+    static InfluxSink file(Path file) {
+        return new InfluxSinks.FileSink(file);
+    }
+
+    /**
+     * Creates a sink that writes all lines to a tcp socket (e.g. telegraf socket listener).<br>
+     * The connection is established lazily and re-established after errors.
+     *
+     * @param address address of the receiving socket
+     */
+    static InfluxSink tcp(InetSocketAddress address) {
+        return new InfluxSinks.TcpSink(address);
+    }
+
+    /**
+     * Creates a sink that sends all lines as udp datagrams, a batch is split at line boundaries into datagrams of at
+     * most 1400 bytes.
+     *
+     * @param address address of the receiving socket
+     */
+    static InfluxSink udp(InetSocketAddress address) {
+        return new InfluxSinks.UdpSink(address);
+    }
+
+    /**
+     * Creates a sink that posts gzip compressed batches to the http write api of InfluxDB.
+     *
+     * @param writeUri uri of the write endpoint including all query parameters, e.g.
+     *                 {@code http://localhost:8086/api/v2/write?org=home&bucket=sma&precision=ms}
+     * @param token    api token that is sent as {@code Authorization: Token ...} header or {@code null}
+     */
+    static InfluxSink http(URI writeUri, String token) {
+        return new InfluxSinks.HttpSink(writeUri, token);
+    }
+}
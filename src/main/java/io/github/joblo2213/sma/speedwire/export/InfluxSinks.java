@@ -0,0 +1,162 @@
+package io.github.joblo2213.sma.speedwire.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Implementations of the {@link InfluxSink} factory methods
+ */
+class InfluxSinks {
+
+    private InfluxSinks() {
+    }
+
+    static class FileSink implements InfluxSink {
+        private final Path file;
+        private OutputStream out;
+
+        FileSink(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            try {
+                if (out == null) out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                out.write(data, offset, length);
+                out.flush();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                try {
+                    out.close();
+                } finally {
+                    out = null;
+                }
+            }
+        }
+    }
+
+    static class TcpSink implements InfluxSink {
+        private final InetSocketAddress address;
+        private Socket socket;
+
+        TcpSink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            try {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.connect(address, 5000);
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(data, offset, length);
+                out.flush();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } finally {
+                    socket = null;
+                }
+            }
+        }
+    }
+
+    static class UdpSink implements InfluxSink {
+        private static final int MAX_DATAGRAM = 1400;
+
+        private final InetSocketAddress address;
+        private DatagramSocket socket;
+
+        UdpSink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (socket == null) socket = new DatagramSocket();
+            int end = offset + length;
+            int start = offset;
+            while (start < end) {
+                //cut after the last complete line that fits into the datagram
+                int cut = Math.min(end, start + MAX_DATAGRAM);
+                if (cut < end) {
+                    int lineEnd = cut;
+                    while (lineEnd > start && data[lineEnd - 1] != '\n') lineEnd--;
+                    //a single line longer than a datagram is sent on its own
+                    if (lineEnd == start) {
+                        lineEnd = cut;
+                        while (lineEnd < end && data[lineEnd - 1] != '\n') lineEnd++;
+                    }
+                    cut = lineEnd;
+                }
+                socket.send(new DatagramPacket(data, start, cut - start, address));
+                start = cut;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (socket != null) socket.close();
+            socket = null;
+        }
+    }
+
+    static class HttpSink implements InfluxSink {
+        private final URI uri;
+        private final String token;
+
+        HttpSink(URI uri, String token) {
+            this.uri = uri;
+            this.token = token;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+            try {
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setConnectTimeout(5000);
+                connection.setReadTimeout(10000);
+                connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                if (token != null) connection.setRequestProperty("Authorization", "Token " + token);
+                try (OutputStream out = new GZIPOutputStream(connection.getOutputStream(), 8192)) {
+                    out.write(data, offset, length);
+                }
+                int status = connection.getResponseCode();
+                if (status / 100 != 2) throw new IOException("influx write failed with http status " + status);
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+}
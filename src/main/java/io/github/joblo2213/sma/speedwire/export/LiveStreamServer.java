@@ -0,0 +1,293 @@
+package io.github.joblo2213.sma.speedwire.export;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.EnergyMeterChannels;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Streams the latest values of all energy meters to browser clients using
+ * <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">Server-Sent Events</a>.
+ * </p><p>
+ * Clients connect to {@code /live}, e.g. using {@code new EventSource("/live")} in a browser. Each channel of each
+ * device whose value changed is sent as an event of the form
+ * {@code data: {"susy_id":270,"serial":3001234567,"obis":"0:1.4.0","value":1234,"time":123456789}}
+ * containing the raw value in the unit of the channel (see {@link EnergyMeterChannels}) and the measuring time of the
+ * telegram. New clients receive the latest value of each channel right away.
+ * </p><p>
+ * Each event is rendered once when a telegram is received and shared by all clients. Only the latest event of each
+ * device and channel is kept, together with a version number. Every client sends bursts at its own pace, containing
+ * the events of all channels that changed since its previous burst, at most one burst per
+ * {@link #setMinInterval(Duration) minimum interval}. A slow client therefore skips intermediate values instead of
+ * queuing them, so it neither causes memory growth nor delays the other clients, and the cost of receiving a telegram
+ * doesn't depend on the number of clients.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * LiveStreamServer server = new LiveStreamServer(new InetSocketAddress(8080));
+ * speedwire.onData(EnergyMeterTelegram.class, server);
+ * server.start();
+ * }</pre>
+ */
+public class LiveStreamServer implements SpeedwireCallback<EnergyMeterTelegram>, AutoCloseable {
+
+    private static final List<MeasuringChannel<?>> CHANNELS = EnergyMeterChannels.ALL;
+    private static final byte[] PREAMBLE = "retry: 1000\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEARTBEAT = ": keepalive\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final long HEARTBEAT_INTERVAL = 15_000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<DeviceAddress, DeviceSlots> devices = new ConcurrentHashMap<>();
+    //all slots in order of creation, replaced when a device is added
+    private volatile Slot[] allSlots = new Slot[0];
+    private final AtomicInteger clients = new AtomicInteger();
+    //version of the latest update, guarded by this
+    private long sequence;
+    private volatile long minInterval = 250;
+    private volatile int maxClients = 1000;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new server that streams the values on {@code /live}.
+     *
+     * @param address address and port the http server binds to
+     * @throws IOException if the http server can't be created
+     */
+    public LiveStreamServer(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/live", this::handle);
+        //every connected client occupies one thread that writes its bursts
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "Speedwire-live");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts the http server
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the address the http server is bound to
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Sets the minimum time between two bursts sent to a client, by default 250 ms
+     */
+    public void setMinInterval(Duration interval) {
+        if (interval.isNegative()) throw new IllegalArgumentException("interval must not be negative");
+        this.minInterval = interval.toMillis();
+    }
+
+    /**
+     * Sets the maximum number of connected clients, further clients are rejected with status 503. By default 1000.
+     */
+    public void setMaxClients(int maxClients) {
+        if (maxClients <= 0) throw new IllegalArgumentException("max clients must be positive");
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * Returns the number of connected clients
+     */
+    public int getClientCount() {
+        return clients.get();
+    }
+
+    @Override
+    public void onDataReceived(EnergyMeterTelegram data) {
+        DeviceAddress address = data.getDeviceAddress();
+        DeviceSlots device = devices.get(address);
+        if (device == null) device = register(address);
+        device.update(data);
+    }
+
+    private synchronized DeviceSlots register(DeviceAddress address) {
+        DeviceSlots device = devices.get(address);
+        if (device != null) return device;
+        device = new DeviceSlots(address);
+        Slot[] current = allSlots;
+        Slot[] extended = Arrays.copyOf(current, current.length + device.slots.length);
+        System.arraycopy(device.slots, 0, extended, current.length, device.slots.length);
+        allSlots = extended;
+        devices.put(address, device);
+        return device;
+    }
+
+    /**
+     * Stops the http server and disconnects all clients
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (clients.incrementAndGet() > maxClients) {
+                clients.decrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            try {
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(200, 0);
+                stream(exchange.getResponseBody());
+            } catch (IOException e) {
+                //the client disconnected
+            } finally {
+                clients.decrementAndGet();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends bursts to a client until it disconnects or the server is closed
+     */
+    private void stream(OutputStream out) throws IOException {
+        AsciiBuffer burst = new AsciiBuffer(4096);
+        long sent = 0;
+        long lastWrite = System.currentTimeMillis();
+        out.write(PREAMBLE);
+        out.flush();
+        while (!closed) {
+            long upTo;
+            synchronized (this) {
+                long deadline = lastWrite + HEARTBEAT_INTERVAL;
+                while (sequence == sent && !closed) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) break;
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                //all slots up to this version are completely written
+                upTo = sequence;
+            }
+            if (closed) return;
+
+            burst.reset();
+            if (upTo != sent) {
+                for (Slot slot : allSlots) {
+                    if (slot.version > sent) burst.append(slot.frame);
+                }
+                sent = upTo;
+            }
+            if (burst.size() == 0) burst.append(HEARTBEAT);
+            burst.writeTo(out);
+            out.flush();
+            lastWrite = System.currentTimeMillis();
+
+            long interval = minInterval;
+            if (interval > 0) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes the rendered events of a telegram and wakes up the waiting clients
+     */
+    private synchronized void publish(Slot[] slots, byte[][] frames) {
+        long version = ++sequence;
+        for (int i = 0; i < slots.length; i++) {
+            if (frames[i] == null) continue;
+            slots[i].frame = frames[i];
+            slots[i].version = version;
+        }
+        notifyAll();
+    }
+
+    /**
+     * The latest event of a channel of a device
+     */
+    private static class Slot {
+        private volatile byte[] frame;
+        private volatile long version;
+    }
+
+    /**
+     * The slots of all channels of a device.<br>
+     * Events are rendered using a prefix that is rendered once per device and channel.
+     */
+    private class DeviceSlots {
+        private final Slot[] slots = new Slot[CHANNELS.size()];
+        private final byte[][] prefixes = new byte[CHANNELS.size()][];
+        private final long[] values = new long[CHANNELS.size()];
+        private final AsciiBuffer buffer = new AsciiBuffer(256);
+        private final byte[][] frames = new byte[CHANNELS.size()][];
+        private long present;
+
+        DeviceSlots(DeviceAddress address) {
+            String device = "data: {\"susy_id\":" + address.getSUSyID() + ",\"serial\":" + address.getSerNo();
+            for (int i = 0; i < CHANNELS.size(); i++) {
+                slots[i] = new Slot();
+                prefixes[i] = (device + ",\"obis\":\"" + CHANNELS.get(i).getIdentifier() + "\",\"value\":")
+                        .getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        synchronized void update(EnergyMeterTelegram data) {
+            boolean changed = false;
+            for (int i = 0; i < CHANNELS.size(); i++) {
+                frames[i] = null;
+                MeasuringChannel<?> channel = CHANNELS.get(i);
+                if (!data.hasData(channel)) continue;
+                long value = data.getRawData(channel);
+                //unchanged values aren't sent again
+                if ((present & (1L << i)) != 0 && values[i] == value) continue;
+                values[i] = value;
+                present |= 1L << i;
+                buffer.reset();
+                buffer.append(prefixes[i]).append(value)
+                        .append(",\"time\":").append(data.getMeasuringTimeMillis()).append("}\n\n");
+                frames[i] = Arrays.copyOf(buffer.array(), buffer.size());
+                changed = true;
+            }
+            if (changed) publish(slots, frames);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package io.github.joblo2213.sma.speedwire.export;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.EnergyMeterChannels;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * <p>
+ * Serves the latest values of all energy meters in the
+ * <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text exposition format</a>.
+ * </p><p>
+ * Received telegrams only update primitive per-device state, nothing is rendered on the receiving thread.
+ * When Prometheus scrapes the endpoint, the exposition text is rendered from this state into a reused buffer using
+ * pre-rendered series names, so a scrape does not allocate per series and never blocks the receiving thread.
+ * </p><p>
+ * Each channel of each device is exported as one series labelled with {@code susy_id}, {@code serial} and
+ * {@code obis}. Instantaneous values are exported as gauge {@code sma_energy_meter_value}, cumulative energy readings
+ * as counter {@code sma_energy_meter_energy_total}. All values are raw values in the unit of their channel, see
+ * {@link EnergyMeterChannels}.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * PrometheusExporter exporter = new PrometheusExporter(new InetSocketAddress(9100));
+ * speedwire.onData(EnergyMeterTelegram.class, exporter);
+ * exporter.start();
+ * }</pre>
+ */
+public class PrometheusExporter implements SpeedwireCallback<EnergyMeterTelegram>, AutoCloseable {
+
+    private static final List<MeasuringChannel<?>> CHANNELS = EnergyMeterChannels.ALL;
+    private static final byte[] HEADER = ("# HELP sma_energy_meter_value Latest instantaneous value of an SMA energy meter channel in its raw unit\n"
+            + "# TYPE sma_energy_meter_value gauge\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COUNTER_HEADER = ("# HELP sma_energy_meter_energy_total Latest energy reading of an SMA energy meter channel in Ws\n"
+            + "# TYPE sma_energy_meter_energy_total counter\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME_HEADER = ("# HELP sma_energy_meter_measuring_time_ms Measuring time of the latest telegram\n"
+            + "# TYPE sma_energy_meter_measuring_time_ms gauge\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final HttpServer server;
+    private final ConcurrentHashMap<DeviceAddress, DeviceState> devices = new ConcurrentHashMap<>();
+    private final AsciiBuffer buffer = new AsciiBuffer(64 * 1024);
+    private final long[] scratch = new long[CHANNELS.size()];
+
+    /**
+     * Creates a new exporter that serves the metrics on {@code /metrics}.
+     *
+     * @param address address and port the http server binds to
+     * @throws IOException if the http server can't be created
+     */
+    public PrometheusExporter(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handle);
+        //a single thread renders all scrapes, so the render buffer can be reused
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Speedwire-prometheus");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    /**
+     * Starts the http server
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the address the http server is bound to
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void onDataReceived(EnergyMeterTelegram data) {
+        DeviceAddress address = data.getDeviceAddress();
+        DeviceState state = devices.get(address);
+        if (state == null) state = devices.computeIfAbsent(address, DeviceState::new);
+        state.update(data);
+    }
+
+    /**
+     * Stops the http server
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            render();
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, buffer.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                buffer.writeTo(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Renders the exposition text into the buffer
+     */
+    private void render() {
+        buffer.reset();
+        buffer.append(HEADER);
+        renderFamily(4);
+        buffer.append(COUNTER_HEADER);
+        renderFamily(8);
+        buffer.append(TIME_HEADER);
+        for (DeviceState state : devices.values()) {
+            if (state.snapshot(scratch) == 0) continue;
+            buffer.append(state.timeSeries).append(state.measuringTime).append('\n');
+        }
+    }
+
+    /**
+     * Renders all series of channels with the given data length
+     */
+    private void renderFamily(int dataLength) {
+        for (DeviceState state : devices.values()) {
+            long present = state.snapshot(scratch);
+            for (int i = 0; i < CHANNELS.size(); i++) {
+                if ((present & (1L << i)) == 0 || CHANNELS.get(i).getDataLength() != dataLength) continue;
+                buffer.append(state.series[i]).append(scratch[i]).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Latest values of a single device.<br>
+     * Updated by a single receiving thread and read by the scrape thread using optimistic reads, so the scrape never
+     * blocks the receiving thread.
+     */
+    private static class DeviceState {
+        private final byte[][] series = new byte[CHANNELS.size()][];
+        private final long[] values = new long[CHANNELS.size()];
+        private final byte[] timeSeries;
+        private final StampedLock lock = new StampedLock();
+        private long present;
+        private volatile long measuringTime;
+
+        DeviceState(DeviceAddress address) {
+            String labels = "{susy_id=\"" + address.getSUSyID() + "\",serial=\"" + address.getSerNo() + "\"";
+            timeSeries = ("sma_energy_meter_measuring_time_ms" + labels + "} ").getBytes(StandardCharsets.US_ASCII);
+            //series names are rendered once per device
+            for (int i = 0; i < CHANNELS.size(); i++) {
+                MeasuringChannel<?> channel = CHANNELS.get(i);
+                String name = channel.getDataLength() == 8 ? "sma_energy_meter_energy_total" : "sma_energy_meter_value";
+                series[i] = (name + labels + ",obis=\"" + channel.getIdentifier() + "\"} ")
+                        .getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        void update(EnergyMeterTelegram data) {
+            long stamp = lock.writeLock();
+            try {
+                for (int i = 0; i < CHANNELS.size(); i++) {
+                    MeasuringChannel<?> channel = CHANNELS.get(i);
+                    if (!data.hasData(channel)) continue;
+                    values[i] = data.getRawData(channel);
+                    present |= 1L << i;
+                }
+                measuringTime = data.getMeasuringTimeMillis();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Copies the latest values into the given array
+         *
+         * @return bit mask of the channels that contain data, {@code 0} if no data was received yet
+         */
+        long snapshot(long[] target) {
+            long stamp;
+            long mask;
+            do {
+                stamp = lock.tryOptimisticRead();
+                mask = present;
+                System.arraycopy(values, 0, target, 0, values.length);
+            } while (!lock.validate(stamp));
+            return mask;
+        }
+    }
+}
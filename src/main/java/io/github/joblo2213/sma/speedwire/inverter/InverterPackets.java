@@ -0,0 +1,88 @@
+package io.github.joblo2213.sma.speedwire.inverter;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+
+/**
+ * Encodes packets of the SMA Net 2 inverter protocol (protocol id 0x6065)
+ */
+class InverterPackets {
+
+    /**
+     * Size of the header up to (and including) the last requested item
+     */
+    static final int HEADER_SIZE = 54;
+
+    static final int CTRL_REQUEST = 0xA0;
+    static final int CTRL_RESPONSE = 0xE0;
+
+    /**
+     * Second control word of all requests except for login and logoff
+     */
+    static final int CTRL2_DEFAULT = 0x0000;
+    /**
+     * Second control word of login and logoff requests
+     */
+    static final int CTRL2_LOGIN = 0x0100;
+
+    private InverterPackets() {
+    }
+
+    /**
+     * Encodes a complete inverter packet
+     *
+     * @param ctrl2   second control word, {@link #CTRL2_LOGIN} for login and logoff, {@link #CTRL2_DEFAULT} otherwise
+     * @param payload records that are appended after the header, may be {@code null}
+     */
+    static byte[] encode(int ctrl, int ctrl2, DeviceAddress destination, DeviceAddress source, int errorCode,
+                         int fragmentId, int packetId, int command, int first, int last, byte[] payload) {
+        int payloadLength = payload == null ? 0 : payload.length;
+        byte[] buf = new byte[HEADER_SIZE + payloadLength + 4];
+        //speedwire header: "SMA\0", tag 0x02A0 (group 1), tag 0x0010 (SMA Net 2) with protocol id 0x6065
+        buf[0] = 'S';
+        buf[1] = 'M';
+        buf[2] = 'A';
+        buf[5] = 0x04;
+        buf[6] = 0x02;
+        buf[7] = (byte) 0xA0;
+        buf[11] = 0x01;
+        int length = buf.length - 4 - 16;
+        buf[12] = (byte) (length >>> 8);
+        buf[13] = (byte) length;
+        buf[15] = 0x10;
+        buf[16] = 0x60;
+        buf[17] = 0x65;
+        //inverter protocol header
+        buf[18] = (byte) ((length - 2) / 4);
+        buf[19] = (byte) ctrl;
+        putLE2(buf, 20, destination.getSUSyID());
+        putLE4(buf, 22, destination.getSerNo());
+        putLE2(buf, 26, ctrl2);
+        putLE2(buf, 28, source.getSUSyID());
+        putLE4(buf, 30, source.getSerNo());
+        putLE2(buf, 34, ctrl2);
+        putLE2(buf, 36, errorCode);
+        putLE2(buf, 38, fragmentId);
+        putLE2(buf, 40, packetId | 0x8000);
+        putLE4(buf, 42, command);
+        putLE4(buf, 46, first);
+        putLE4(buf, 50, last);
+        if (payload != null) System.arraycopy(payload, 0, buf, HEADER_SIZE, payloadLength);
+        //the trailing end tag (4 zero bytes) is already set
+        return buf;
+    }
+
+    static void putLE2(byte[] buf, int index, int value) {
+        buf[index] = (byte) value;
+        buf[index + 1] = (byte) (value >>> 8);
+    }
+
+    static void putLE4(byte[] buf, int index, long value) {
+        putLE2(buf, index, (int) value);
+        putLE2(buf, index + 2, (int) (value >>> 16));
+    }
+
+    static void putLE8(byte[] buf, int index, long value) {
+        putLE4(buf, index, value);
+        putLE4(buf, index + 4, value >>> 32);
+    }
+}
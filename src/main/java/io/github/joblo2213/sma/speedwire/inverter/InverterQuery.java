@@ -0,0 +1,128 @@
+package io.github.joblo2213.sma.speedwire.inverter;
+
+import java.util.Objects;
+
+/**
+ * <p>
+ * A data request of the SMA Net 2 inverter protocol.
+ * </p><p>
+ * Each query consists of a command and the range of logical record indices (LRI) that should be returned.
+ * This class provides constants for the most common queries, other queries can be created using the constructor.
+ * </p>
+ */
+public class InverterQuery {
+
+    /**
+     * Current total ac power in [W]
+     */
+    public static final InverterQuery SPOT_AC_TOTAL_POWER = new InverterQuery("spot ac total power", 0x51000200, 0x00263F00, 0x00263FFF);
+
+    /**
+     * Current ac power of each phase in [W]
+     */
+    public static final InverterQuery SPOT_AC_POWER = new InverterQuery("spot ac power", 0x51000200, 0x00464000, 0x004642FF);
+
+    /**
+     * Current ac voltage of each phase in [0.01 V]
+     */
+    public static final InverterQuery SPOT_AC_VOLTAGE = new InverterQuery("spot ac voltage", 0x51000200, 0x00464800, 0x004655FF);
+
+    /**
+     * Current grid frequency in [0.01 Hz]
+     */
+    public static final InverterQuery SPOT_GRID_FREQUENCY = new InverterQuery("spot grid frequency", 0x51000200, 0x00465700, 0x004657FF);
+
+    /**
+     * Current dc power of each string in [W]
+     */
+    public static final InverterQuery SPOT_DC_POWER = new InverterQuery("spot dc power", 0x53800200, 0x00251E00, 0x00251EFF);
+
+    /**
+     * Current dc voltage and current of each string in [0.01 V] and [mA]
+     */
+    public static final InverterQuery SPOT_DC_VOLTAGE = new InverterQuery("spot dc voltage", 0x53800200, 0x00451F00, 0x004521FF);
+
+    /**
+     * Total and daily yield in [Wh]
+     */
+    public static final InverterQuery ENERGY_PRODUCTION = new InverterQuery("energy production", 0x54000200, 0x00260100, 0x002622FF);
+
+    /**
+     * Operation and feed-in time in [s]
+     */
+    public static final InverterQuery OPERATION_TIME = new InverterQuery("operation time", 0x54000200, 0x00462E00, 0x00462FFF);
+
+    /**
+     * Device status
+     */
+    public static final InverterQuery DEVICE_STATUS = new InverterQuery("device status", 0x51800200, 0x00214800, 0x002148FF);
+
+    /**
+     * Inverter temperature in [0.01 °C]
+     */
+    public static final InverterQuery INVERTER_TEMPERATURE = new InverterQuery("inverter temperature", 0x52000200, 0x00237700, 0x002377FF);
+
+    private final String description;
+    private final int command;
+    private final int first;
+    private final int last;
+
+    public InverterQuery(String description, int command, int first, int last) {
+        this.description = description;
+        this.command = command;
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Returns a short description of this query
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the command that is sent to the inverter
+     */
+    public int getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the first logical record index of the requested range
+     */
+    public int getFirst() {
+        return first;
+    }
+
+    /**
+     * Returns the last logical record index of the requested range
+     */
+    public int getLast() {
+        return last;
+    }
+
+    /**
+     * Returns {@code true} if both queries use the same command and their ranges overlap
+     */
+    public boolean overlaps(InverterQuery other) {
+        return command == other.command && first <= other.last && other.first <= last;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (0x%08X, 0x%08X-0x%08X)", description, command, first, last);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        InverterQuery that = (InverterQuery) o;
+        return command == that.command && first == that.first && last == that.last;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(command, first, last);
+    }
+}
@@ -0,0 +1,416 @@
+package io.github.joblo2213.sma.speedwire.inverter;
+
+import io.github.joblo2213.sma.speedwire.Speedwire;
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.InverterTelegram;
+import io.github.joblo2213.sma.speedwire.util.TimerWheel;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>
+ * Sends requests of the SMA Net 2 inverter protocol to individual devices and matches their responses.
+ * </p><p>
+ * Each request is encoded with a unique 15 bit packet id and sent via unicast using {@link Speedwire#send(byte[],
+ * InetSocketAddress)}. Responses are received by the speedwire thread, decoded as {@link InverterTelegram} and
+ * correlated to their request by the packet id. Many requests can be in flight at the same time, both for a single
+ * device and across devices, limited by {@link #setMaxInFlightPerDevice(int)} and {@link #setMaxInFlight(int)}.
+ * Requests exceeding these limits are queued and sent as soon as earlier requests are answered.
+ * </p><p>
+ * Requests that aren't answered within the timeout are re-sent with the same packet id until the configured number
+ * of retries is exhausted, then their future completes exceptionally with a {@link TimeoutException}.
+ * Timeouts are managed by a {@link TimerWheel} advanced by the engine thread.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * Speedwire speedwire = new Speedwire();
+ * InverterRequestEngine engine = new InverterRequestEngine(speedwire);
+ * speedwire.start();
+ * engine.start();
+ * engine.request(InetAddress.getByName("192.168.1.20"), DeviceAddress.ANY, InverterQuery.SPOT_AC_TOTAL_POWER)
+ *         .thenAccept(response -> System.out.println(response.getRecord(0x263F00)));
+ * }</pre>
+ * <p>
+ * Most inverters only answer data requests after a login, which has to be sent as a custom request with the control
+ * word {@code 0x0100} before.
+ * </p>
+ */
+public class InverterRequestEngine extends Thread implements SpeedwireCallback<InverterTelegram> {
+
+    private static final int APP_SUSY_ID = 125;
+
+    private final Speedwire speedwire;
+    private final DeviceAddress appAddress;
+    private final TimerWheel wheel = new TimerWheel(5, TimeUnit.MILLISECONDS, System.nanoTime());
+
+    private final HashMap<Integer, Request> inFlight = new HashMap<>();
+    private final HashMap<InetSocketAddress, Target> targets = new HashMap<>();
+    private final ArrayDeque<Target> ready = new ArrayDeque<>();
+    private int nextPacketId = 1;
+
+    private volatile long timeout = TimeUnit.SECONDS.toNanos(1);
+    private volatile int retries = 2;
+    private volatile int maxInFlightPerDevice = 4;
+    private volatile int maxInFlight = 256;
+
+    /**
+     * Creates a new request engine and registers it as callback of the given speedwire instance.<br>
+     * The engine uses a random serial number as its own device address.
+     *
+     * @param speedwire speedwire instance that is used for sending requests and receiving responses
+     */
+    public InverterRequestEngine(Speedwire speedwire) {
+        this(speedwire, new DeviceAddress(APP_SUSY_ID, 900_000_000L + ThreadLocalRandom.current().nextInt(100_000_000)));
+    }
+
+    /**
+     * Creates a new request engine and registers it as callback of the given speedwire instance.
+     *
+     * @param speedwire  speedwire instance that is used for sending requests and receiving responses
+     * @param appAddress device address of this application that is used as source of all requests
+     */
+    public InverterRequestEngine(Speedwire speedwire, DeviceAddress appAddress) {
+        super("Speedwire-inverter-requests");
+        setDaemon(true);
+        this.speedwire = speedwire;
+        this.appAddress = appAddress;
+        speedwire.onData(InverterTelegram.class, this);
+    }
+
+    /**
+     * Configure the time after which unanswered requests are re-sent or fail (default 1 second)
+     */
+    public void setTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) throw new IllegalArgumentException("timeout must be positive");
+        this.timeout = timeout.toNanos();
+    }
+
+    /**
+     * Configure how often unanswered requests are re-sent before they fail (default 2)
+     */
+    public void setRetries(int retries) {
+        if (retries < 0) throw new IllegalArgumentException("retries must not be negative");
+        this.retries = retries;
+    }
+
+    /**
+     * Configure how many requests may be in flight for a single device at the same time (default 4)
+     */
+    public void setMaxInFlightPerDevice(int maxInFlightPerDevice) {
+        if (maxInFlightPerDevice < 1) throw new IllegalArgumentException("at least one request must be allowed");
+        this.maxInFlightPerDevice = maxInFlightPerDevice;
+    }
+
+    /**
+     * Configure how many requests may be in flight across all devices at the same time (default 256).<br>
+     * This can't exceed 32767, the number of distinct packet ids.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1 || maxInFlight > 0x7fff)
+            throw new IllegalArgumentException("max in flight must be between 1 and 32767");
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Returns the device address used as source of all requests
+     */
+    public DeviceAddress getAppAddress() {
+        return appAddress;
+    }
+
+    /**
+     * Returns the number of requests that were sent and are awaiting their response
+     */
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Returns the number of requests that are waiting to be sent because of the in flight limits
+     */
+    public synchronized int getQueued() {
+        int queued = 0;
+        for (Target target : targets.values()) queued += target.waiting.size();
+        return queued;
+    }
+
+    /**
+     * Sends a data request to a device on the default speedwire port.
+     *
+     * @param target ip address of the device
+     * @param device device address of the device, {@link DeviceAddress#ANY} if it is unknown
+     * @param query  data to request
+     * @return future that completes with the response of the device
+     */
+    public CompletableFuture<InverterTelegram> request(InetAddress target, DeviceAddress device, InverterQuery query) {
+        return request(new InetSocketAddress(target, speedwire.getPort()), device, query);
+    }
+
+    /**
+     * Sends a data request to a device.
+     *
+     * @param target ip address and port of the device
+     * @param device device address of the device, {@link DeviceAddress#ANY} if it is unknown
+     * @param query  data to request
+     * @return future that completes with the response of the device
+     */
+    public CompletableFuture<InverterTelegram> request(InetSocketAddress target, DeviceAddress device, InverterQuery query) {
+        return request(target, device, query.getCommand(), query.getFirst(), query.getLast(), null);
+    }
+
+    /**
+     * <p>
+     * Sends a custom request to a device.
+     * </p><p>
+     * The future completes with the first response telegram that carries the packet id of the request. If a response
+     * is split into multiple fragments, only the first one is returned.
+     * </p>
+     *
+     * @param target  ip address and port of the device
+     * @param device  device address of the device, {@link DeviceAddress#ANY} if it is unknown
+     * @param command command of the request
+     * @param first   first requested item
+     * @param last    last requested item
+     * @param payload additional data that is appended after the header, may be {@code null}
+     * @return future that completes with the response of the device
+     */
+    public CompletableFuture<InverterTelegram> request(InetSocketAddress target, DeviceAddress device,
+                                                       int command, int first, int last, byte[] payload) {
+        return request(target, device, InverterPackets.CTRL2_DEFAULT, command, first, last, payload);
+    }
+
+    /**
+     * <p>
+     * Sends a custom request with the given second control word to a device.
+     * </p><p>
+     * SMA Net 2 uses the control word {@code 0x0100} for login and logoff requests and {@code 0x0000} for all other
+     * requests, including data requests to {@link DeviceAddress#ANY}.
+     * </p>
+     *
+     * @param target  ip address and port of the device
+     * @param device  device address of the device, {@link DeviceAddress#ANY} if it is unknown
+     * @param ctrl2   second control word of the request
+     * @param command command of the request
+     * @param first   first requested item
+     * @param last    last requested item
+     * @param payload additional data that is appended after the header, may be {@code null}
+     * @return future that completes with the response of the device
+     * @see #request(InetSocketAddress, DeviceAddress, int, int, int, byte[])
+     */
+    public CompletableFuture<InverterTelegram> request(InetSocketAddress target, DeviceAddress device, int ctrl2,
+                                                       int command, int first, int last, byte[] payload) {
+        Request request = new Request(device, ctrl2, command, first, last, payload);
+        List<Request> send;
+        synchronized (this) {
+            Target t = targets.computeIfAbsent(target, Target::new);
+            request.target = t;
+            t.waiting.add(request);
+            if (!t.ready) {
+                t.ready = true;
+                ready.add(t);
+            }
+            send = pump();
+        }
+        send(send);
+        //cancelling the future frees the slot of the request
+        request.future.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) cancel(request);
+        });
+        return request.future;
+    }
+
+    @Override
+    public void onDataReceived(InverterTelegram data) {
+        Request request;
+        List<Request> send;
+        synchronized (this) {
+            request = inFlight.get(data.getPacketId());
+            if (request == null || !request.target.address.getAddress().equals(data.getOrigin())) return;
+            release(request);
+            send = pump();
+        }
+        send(send);
+        request.future.complete(data);
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        while (!interrupted()) {
+            try {
+                wheel.advance(System.nanoTime());
+                //noinspection BusyWait
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        failAll();
+    }
+
+    /**
+     * Stops the engine thread, all pending requests fail with a {@link CancellationException}.<br>
+     * This method does not await the termination of the thread.
+     */
+    public void shutdown() {
+        interrupt();
+    }
+
+    /**
+     * Assigns packet ids to waiting requests as long as the in flight limits allow it.
+     * Must be called while holding the lock.
+     *
+     * @return requests that should be sent
+     */
+    private List<Request> pump() {
+        List<Request> send = null;
+        while (inFlight.size() < maxInFlight && !ready.isEmpty()) {
+            Target t = ready.poll();
+            if (t.inFlight >= maxInFlightPerDevice || t.waiting.isEmpty()) {
+                //re-added to the ready queue once one of its requests completes
+                t.ready = false;
+                continue;
+            }
+            Request request = t.waiting.poll();
+            request.packetId = allocatePacketId();
+            inFlight.put(request.packetId, request);
+            t.inFlight++;
+            if (send == null) send = new ArrayList<>();
+            send.add(request);
+            if (t.waiting.isEmpty()) t.ready = false;
+            else ready.add(t);
+        }
+        return send;
+    }
+
+    private int allocatePacketId() {
+        while (true) {
+            int id = nextPacketId;
+            nextPacketId = nextPacketId == 0x7fff ? 1 : nextPacketId + 1;
+            if (!inFlight.containsKey(id)) return id;
+        }
+    }
+
+    /**
+     * Frees the slot of a request that was in flight. Must be called while holding the lock.
+     */
+    private void release(Request request) {
+        inFlight.remove(request.packetId);
+        if (request.timer != null) request.timer.cancel();
+        Target t = request.target;
+        t.inFlight--;
+        if (!t.waiting.isEmpty() && !t.ready) {
+            t.ready = true;
+            ready.add(t);
+        }
+        if (t.inFlight == 0 && t.waiting.isEmpty()) targets.remove(t.address);
+    }
+
+    private void send(List<Request> requests) {
+        if (requests == null) return;
+        for (Request request : requests) {
+            byte[] packet = InverterPackets.encode(InverterPackets.CTRL_REQUEST, request.ctrl2, request.device,
+                    appAddress, 0, 0, request.packetId, request.command, request.first, request.last, request.payload);
+            synchronized (this) {
+                if (inFlight.get(request.packetId) != request) continue;
+                request.attempts++;
+                request.timer = wheel.schedule(() -> expired(request), System.nanoTime() + timeout);
+            }
+            speedwire.send(packet, request.target.address);
+        }
+    }
+
+    private void expired(Request request) {
+        List<Request> send;
+        synchronized (this) {
+            if (inFlight.get(request.packetId) != request) return;
+            if (request.attempts <= retries) {
+                send = List.of(request);
+            } else {
+                release(request);
+                send = pump();
+                request.future.completeExceptionally(new TimeoutException(
+                        "no response from " + request.target.address + " after " + request.attempts + " attempts"));
+            }
+        }
+        send(send);
+    }
+
+    private void cancel(Request request) {
+        List<Request> send;
+        synchronized (this) {
+            if (inFlight.get(request.packetId) == request) {
+                release(request);
+            } else {
+                Target t = request.target;
+                t.waiting.remove(request);
+                if (t.inFlight == 0 && t.waiting.isEmpty()) targets.remove(t.address);
+            }
+            send = pump();
+        }
+        send(send);
+    }
+
+    private void failAll() {
+        List<Request> failed = new ArrayList<>();
+        synchronized (this) {
+            failed.addAll(inFlight.values());
+            for (Target t : targets.values()) failed.addAll(t.waiting);
+            inFlight.clear();
+            targets.clear();
+            ready.clear();
+        }
+        failed.forEach(r -> r.future.cancel(false));
+    }
+
+    /**
+     * A device to which requests are sent
+     */
+    private static class Target {
+        final InetSocketAddress address;
+        final ArrayDeque<Request> waiting = new ArrayDeque<>();
+        int inFlight;
+        boolean ready;
+
+        Target(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    private static class Request {
+        final CompletableFuture<InverterTelegram> future = new CompletableFuture<>();
+        final DeviceAddress device;
+        final int ctrl2;
+        final int command;
+        final int first;
+        final int last;
+        final byte[] payload;
+        Target target;
+        int packetId;
+        int attempts;
+        TimerWheel.Timeout timer;
+
+        Request(DeviceAddress device, int ctrl2, int command, int first, int last, byte[] payload) {
+            this.device = device;
+            this.ctrl2 = ctrl2;
+            this.command = command;
+            this.first = first;
+            this.last = last;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package io.github.joblo2213.sma.speedwire.inverter;
+
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.SpeedwireErrorHandler;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.InverterTelegram;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Periodically polls data from many inverters at a steady, bounded packet rate.
+ * </p><p>
+ * Polls are spread over time: the first execution of each poll is placed at a random point of its interval and every
+ * following execution is shifted by a small random jitter, so polls with the same interval don't synchronize into
+ * bursts. Requests are sent through an {@link InverterRequestEngine} and are subject to a global rate limit (token
+ * bucket) as well as a minimum spacing between two requests to the same device.
+ * </p><p>
+ * Polls of the same device with the same command whose ranges overlap and that are due at about the same time are
+ * coalesced into a single request; the response is delivered to all of them.
+ * </p><p>
+ * The scheduler adapts to each device: the minimum spacing grows with the measured response latency, and the poll
+ * interval of a device is stretched (up to eight times) while it answers slowly or not at all and recovers as soon
+ * as it answers quickly again.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * PollingScheduler scheduler = new PollingScheduler(engine, 200);
+ * for (InetSocketAddress inverter : inverters) {
+ *     scheduler.schedule(inverter, DeviceAddress.ANY, InverterQuery.SPOT_AC_TOTAL_POWER, Duration.ofSeconds(10),
+ *             response -> store(response));
+ * }
+ * scheduler.start();
+ * }</pre>
+ */
+public class PollingScheduler extends Thread {
+
+    private static final double JITTER = 0.1;
+    private static final double MAX_STRETCH = 8;
+    private static final double COALESCE_WINDOW = 0.2;
+
+    private final InverterRequestEngine engine;
+    private final PriorityQueue<Poll> queue = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+    private final HashMap<InetSocketAddress, Device> devices = new HashMap<>();
+    private final CopyOnWriteArraySet<SpeedwireErrorHandler> errorHandlers = new CopyOnWriteArraySet<>();
+
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private volatile long minDeviceSpacing = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * Creates a new polling scheduler.
+     *
+     * @param engine engine that is used for sending the requests
+     * @param rate   maximum number of requests per second across all devices
+     */
+    public PollingScheduler(InverterRequestEngine engine, double rate) {
+        super("Speedwire-polling");
+        setDaemon(true);
+        if (rate <= 0) throw new IllegalArgumentException("rate must be positive");
+        this.engine = engine;
+        this.rate = rate;
+        this.burst = Math.max(1, rate / 10);
+        this.tokens = burst;
+    }
+
+    /**
+     * Configure the minimum time between two requests to the same device (default 50 ms).<br>
+     * For slow devices the scheduler uses twice their average response latency instead if it is larger.
+     */
+    public void setMinDeviceSpacing(Duration spacing) {
+        if (spacing.isNegative()) throw new IllegalArgumentException("spacing must not be negative");
+        this.minDeviceSpacing = spacing.toNanos();
+    }
+
+    /**
+     * Register a callback that is run whenever a poll fails (e.g. because the device did not answer).<br>
+     * The handler is run on the thread that completed the request.
+     *
+     * @param errorHandler errorHandler that listens for all failed polls
+     */
+    public void onError(SpeedwireErrorHandler errorHandler) {
+        errorHandlers.add(errorHandler);
+    }
+
+    /**
+     * Schedules a periodic poll.
+     *
+     * @param target   ip address and port of the device
+     * @param device   device address of the device, {@link DeviceAddress#ANY} if it is unknown
+     * @param query    data to request
+     * @param interval interval between two polls
+     * @param callback callback receiving the responses, it is run on the speedwire thread
+     * @return handle that can be used to cancel the poll
+     */
+    public Poll schedule(InetSocketAddress target, DeviceAddress device, InverterQuery query, Duration interval,
+                         SpeedwireCallback<InverterTelegram> callback) {
+        if (interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("interval must be positive");
+        Poll poll = new Poll(target, device, query, interval.toNanos(), callback);
+        synchronized (this) {
+            poll.device = devices.computeIfAbsent(target, t -> new Device());
+            poll.device.polls++;
+            poll.due = System.nanoTime() + (long) (ThreadLocalRandom.current().nextDouble() * poll.interval);
+            queue.add(poll);
+            notifyAll();
+        }
+        return poll;
+    }
+
+    /**
+     * Returns the number of scheduled polls
+     */
+    public synchronized int getScheduled() {
+        return queue.size();
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        try {
+            while (!interrupted()) {
+                Batch batch = nextBatch();
+                if (batch != null) execute(batch);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Stops the scheduler thread.<br>
+     * This method does not await the termination of the thread.
+     */
+    public void shutdown() {
+        interrupt();
+    }
+
+    /**
+     * Waits until the next poll is due and allowed by the rate limits and returns it together with all polls it can
+     * be coalesced with.
+     */
+    private synchronized Batch nextBatch() throws InterruptedException {
+        Poll poll = queue.peek();
+        long now = System.nanoTime();
+        if (poll == null) {
+            wait();
+            return null;
+        }
+        if (poll.due - now > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, poll.due - now);
+            return null;
+        }
+        //per device spacing: postpone the poll until the device may be queried again
+        if (poll.device.nextAllowed - now > 0) {
+            queue.poll();
+            poll.due = poll.device.nextAllowed;
+            queue.add(poll);
+            return null;
+        }
+        //global rate limit
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+        if (tokens < 1) {
+            long wait = (long) ((1 - tokens) / rate * 1e9);
+            wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            return null;
+        }
+        tokens--;
+        queue.poll();
+
+        List<Poll> batch = new ArrayList<>();
+        batch.add(poll);
+        int first = poll.query.getFirst();
+        int last = poll.query.getLast();
+        //coalesce overlapping polls of the same device that are due soon anyway
+        long horizon = now + (long) (poll.interval * COALESCE_WINDOW);
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (Iterator<Poll> it = queue.iterator(); it.hasNext(); ) {
+                Poll other = it.next();
+                if (other.device == poll.device && other.due - horizon <= 0
+                        && other.deviceAddress.equals(poll.deviceAddress)
+                        && other.query.getCommand() == poll.query.getCommand()
+                        && other.query.getFirst() <= last && first <= other.query.getLast()) {
+                    it.remove();
+                    batch.add(other);
+                    first = Math.min(first, other.query.getFirst());
+                    last = Math.max(last, other.query.getLast());
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        poll.device.nextAllowed = now + Math.max(minDeviceSpacing, (long) (2 * poll.device.latency));
+        return new Batch(batch, first, last);
+    }
+
+    private void execute(Batch b) {
+        List<Poll> batch = b.polls;
+        Poll poll = batch.get(0);
+        long start = System.nanoTime();
+        engine.request(poll.target, poll.deviceAddress, poll.query.getCommand(), b.first, b.last, null)
+                .whenComplete((response, error) -> {
+                    long latency = System.nanoTime() - start;
+                    synchronized (this) {
+                        poll.device.update(error == null, latency, poll.interval);
+                        for (Poll p : batch) {
+                            if (p.cancelled) continue;
+                            long stretched = (long) (p.interval * p.device.stretch);
+                            double jitter = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * JITTER;
+                            p.due = start + stretched + (long) (jitter * p.interval);
+                            queue.add(p);
+                        }
+                        notifyAll();
+                    }
+                    for (Poll p : batch) {
+                        if (p.cancelled) continue;
+                        if (error == null) {
+                            p.callback.onDataReceived(response);
+                        } else {
+                            Exception e = error instanceof CompletionException && error.getCause() instanceof Exception
+                                    ? (Exception) error.getCause()
+                                    : error instanceof Exception ? (Exception) error : new Exception(error);
+                            errorHandlers.forEach(h -> h.onError(e));
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Polls that are sent as a single request
+     */
+    private static class Batch {
+        final List<Poll> polls;
+        final int first;
+        final int last;
+
+        Batch(List<Poll> polls, int first, int last) {
+            this.polls = polls;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Adaptive state of a polled device
+     */
+    private static class Device {
+        int polls;
+        long nextAllowed = System.nanoTime();
+        double latency;
+        double stretch = 1;
+
+        void update(boolean success, long latency, long interval) {
+            if (!success) {
+                stretch = Math.min(MAX_STRETCH, stretch * 2);
+                return;
+            }
+            this.latency = this.latency == 0 ? latency : 0.8 * this.latency + 0.2 * latency;
+            if (this.latency * 4 > interval) stretch = Math.min(MAX_STRETCH, stretch * 1.25);
+            else stretch = Math.max(1, stretch * 0.9);
+        }
+    }
+
+    /**
+     * Handle of a scheduled poll
+     */
+    public class Poll {
+        private final InetSocketAddress target;
+        private final DeviceAddress deviceAddress;
+        private final InverterQuery query;
+        private final long interval;
+        private final SpeedwireCallback<InverterTelegram> callback;
+        private Device device;
+        private long due;
+        private volatile boolean cancelled;
+
+        private Poll(InetSocketAddress target, DeviceAddress deviceAddress, InverterQuery query, long interval,
+                     SpeedwireCallback<InverterTelegram> callback) {
+            this.target = target;
+            this.deviceAddress = deviceAddress;
+            this.query = query;
+            this.interval = interval;
+            this.callback = callback;
+        }
+
+        /**
+         * Returns the polled query
+         */
+        public InverterQuery getQuery() {
+            return query;
+        }
+
+        /**
+         * Returns the current poll interval of the device including the adaptive stretch
+         */
+        public Duration getEffectiveInterval() {
+            synchronized (PollingScheduler.this) {
+                return Duration.ofNanos((long) (interval * device.stretch));
+            }
+        }
+
+        /**
+         * Cancels the poll, a request that is already in flight will complete without calling the callback
+         */
+        public void cancel() {
+            synchronized (PollingScheduler.this) {
+                if (cancelled) return;
+                cancelled = true;
+                queue.remove(this);
+                if (--device.polls == 0) devices.remove(target);
+            }
+        }
+    }
+}
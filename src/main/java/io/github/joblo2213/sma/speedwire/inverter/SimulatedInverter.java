@@ -0,0 +1,192 @@
+package io.github.joblo2213.sma.speedwire.inverter;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A minimal inverter that answers data requests of the SMA Net 2 inverter protocol.
+ * </p><p>
+ * The simulator listens on a local udp socket and answers each request with all of its records whose logical record
+ * index lies in the requested range. It is intended for testing and benchmarking request engines without real
+ * hardware. Values can be changed at any time using {@link #setValue(int, long)}, and responses can be delayed or
+ * dropped to simulate slow or unreliable devices.
+ * </p>
+ */
+public class SimulatedInverter extends Thread implements AutoCloseable {
+
+    private static final int SPOT_RECORD_SIZE = 28;
+    private static final int COUNTER_RECORD_SIZE = 16;
+
+    private final DatagramSocket socket;
+    private final DeviceAddress address;
+    private final TreeMap<Integer, long[]> records = new TreeMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile int dropEvery = 0;
+    private volatile long delayMillis = 0;
+
+    /**
+     * Creates a new simulated inverter.
+     *
+     * @param bindAddress local address and port the inverter listens on, use port {@code 0} for any free port
+     * @param address     device address of the simulated inverter
+     * @throws IOException if the socket could not be opened
+     */
+    public SimulatedInverter(InetSocketAddress bindAddress, DeviceAddress address) throws IOException {
+        super("Speedwire-simulated-inverter-" + address);
+        setDaemon(true);
+        this.socket = new DatagramSocket(bindAddress);
+        this.address = address;
+        //some plausible default values: {record size, value}
+        records.put(0x263F00, new long[]{SPOT_RECORD_SIZE, 4250});
+        records.put(0x260100, new long[]{COUNTER_RECORD_SIZE, 12_345_678});
+        records.put(0x262200, new long[]{COUNTER_RECORD_SIZE, 18_300});
+        records.put(0x464000, new long[]{SPOT_RECORD_SIZE, 1420});
+        records.put(0x464100, new long[]{SPOT_RECORD_SIZE, 1415});
+        records.put(0x464200, new long[]{SPOT_RECORD_SIZE, 1415});
+        records.put(0x465700, new long[]{SPOT_RECORD_SIZE, 5000});
+        records.put(0x214800, new long[]{SPOT_RECORD_SIZE, 307});
+        records.put(0x237700, new long[]{SPOT_RECORD_SIZE, 4210});
+    }
+
+    /**
+     * Returns the address and port the simulated inverter listens on
+     */
+    public InetSocketAddress getSocketAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /**
+     * Returns the device address of the simulated inverter
+     */
+    public DeviceAddress getDeviceAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the number of requests received so far
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Sets the value of a record. Records that don't exist yet are created as 28 byte spot value records.
+     *
+     * @param lri   logical record index (e.g. {@code 0x263F00} for the total ac power)
+     * @param value new value of the record
+     */
+    public synchronized void setValue(int lri, long value) {
+        long[] record = records.get(lri);
+        if (record == null) records.put(lri, new long[]{SPOT_RECORD_SIZE, value});
+        else record[1] = value;
+    }
+
+    /**
+     * Configure the simulator to silently drop every n-th request, {@code 0} to answer all requests
+     */
+    public void setDropEvery(int n) {
+        this.dropEvery = n;
+    }
+
+    /**
+     * Configure a delay before each response is sent
+     */
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        byte[] buf = new byte[2048];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                socket.receive(packet);
+                long n = requests.incrementAndGet();
+                int drop = dropEvery;
+                if (drop > 0 && n % drop == 0) continue;
+                byte[] response = answer(packet.getData(), packet.getLength());
+                if (response == null) continue;
+                long delay = delayMillis;
+                if (delay > 0) Thread.sleep(delay);
+                send(response, packet.getSocketAddress());
+            } catch (IOException | InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void send(byte[] response, SocketAddress target) throws IOException {
+        socket.send(new DatagramPacket(response, response.length, target));
+    }
+
+    /**
+     * Builds the response to a request or returns {@code null} if the packet isn't a valid request
+     */
+    private synchronized byte[] answer(byte[] req, int length) {
+        if (length < InverterPackets.HEADER_SIZE + 4 || req[0] != 'S' || req[1] != 'M' || req[2] != 'A'
+                || req[16] != 0x60 || req[17] != 0x65 || (req[19] & 0xff) != InverterPackets.CTRL_REQUEST)
+            return null;
+        DeviceAddress source = new DeviceAddress(le2(req, 28), le4(req, 30));
+        int packetId = le2(req, 40) & 0x7fff;
+        int command = (int) le4(req, 42);
+        int first = (int) le4(req, 46) & 0x00ffff00;
+        int last = (int) le4(req, 50) & 0x00ffff00;
+
+        List<Map.Entry<Integer, long[]>> matching = new ArrayList<>(records.subMap(first, true, last, true).entrySet());
+        if (matching.isEmpty()) {
+            //error code 0x0015: no data for the requested range
+            return InverterPackets.encode(InverterPackets.CTRL_RESPONSE, InverterPackets.CTRL2_DEFAULT, source, address,
+                    0x15, 0, packetId, command + 1, 0, 0, null);
+        }
+        //all records of a response share the same size
+        int recordSize = (int) matching.get(0).getValue()[0];
+        matching.removeIf(e -> e.getValue()[0] != recordSize);
+        byte[] payload = new byte[recordSize * matching.size()];
+        long now = System.currentTimeMillis() / 1000;
+        int offset = 0;
+        for (Map.Entry<Integer, long[]> record : matching) {
+            InverterPackets.putLE4(payload, offset, record.getKey() | 0x01 | (recordSize == COUNTER_RECORD_SIZE ? 0 : 0x40000000));
+            InverterPackets.putLE4(payload, offset + 4, now);
+            if (recordSize == COUNTER_RECORD_SIZE) {
+                InverterPackets.putLE8(payload, offset + 8, record.getValue()[1]);
+            } else {
+                for (int i = 8; i < recordSize - 4; i += 4) InverterPackets.putLE4(payload, offset + i, record.getValue()[1]);
+                InverterPackets.putLE4(payload, offset + recordSize - 4, 1);
+            }
+            offset += recordSize;
+        }
+        return InverterPackets.encode(InverterPackets.CTRL_RESPONSE, InverterPackets.CTRL2_DEFAULT, source, address,
+                0, 0, packetId, command + 1, 0, matching.size() - 1, payload);
+    }
+
+    private static int le2(byte[] buf, int index) {
+        return (buf[index] & 0xff) | ((buf[index + 1] & 0xff) << 8);
+    }
+
+    private static long le4(byte[] buf, int index) {
+        return le2(buf, index) | ((long) le2(buf, index + 2) << 16);
+    }
+
+    /**
+     * Stops the simulator and closes its socket
+     */
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
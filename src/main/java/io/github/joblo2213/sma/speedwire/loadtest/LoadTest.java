@@ -0,0 +1,481 @@
+package io.github.joblo2213.sma.speedwire.loadtest;
+
+import io.github.joblo2213.sma.speedwire.IdleStrategy;
+import io.github.joblo2213.sma.speedwire.Speedwire;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.DiscoveryResponse;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+import io.github.joblo2213.sma.speedwire.transport.ChannelTransport;
+import io.github.joblo2213.sma.speedwire.transport.LoopbackNetwork;
+import io.github.joblo2213.sma.speedwire.transport.LoopbackTransport;
+import io.github.joblo2213.sma.speedwire.transport.MulticastTransport;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Measures how many telegrams a single {@link Speedwire} instance handles before it drops packets.
+ * </p><p>
+ * The load test simulates many energy meters and a share of discovery responses and sends their packets at
+ * increasing rates. Each rate is held for a fixed duration (a step). For every step the sustained rate of telegrams
+ * reaching the callbacks, the number of dropped packets, the latency from sending a packet until its callback runs and
+ * the allocation rate and garbage collections of the whole JVM are recorded. The test stops as soon as the drop ratio
+ * of a step exceeds the configured limit, the highest rate received without exceeding it is reported as capacity.
+ * </p><p>
+ * Packets are exchanged using a {@link LoopbackNetwork} by default, which measures decoding and dispatching without
+ * the network stack. Alternatively they are sent via multicast on the interface of the host address with a TTL of
+ * {@code 0}, so they are looped back by the operating system but never leave the host.
+ * </p><p>
+ * The result is returned as JSON. The {@code LoadTestSample} in the samples runs it from the command line.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * LoadTest test = new LoadTest();
+ * test.setRates(1000, 2, 1_000_000);
+ * test.setProgress(System.err);
+ * String report = test.run();
+ * }</pre>
+ */
+public class LoadTest {
+
+    private static final String GROUP = "239.12.255.254";
+    private static final int PORT = 9522;
+    private static final InetAddress RECEIVER = ipv4(10, 255, 255, 254);
+    private static final long DRAIN_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final SyntheticTraffic traffic = new SyntheticTraffic();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder received = new LongAdder();
+    private final List<Step> steps = new ArrayList<>();
+
+    private boolean multicast;
+    private int devices = 100;
+    private double startRate = 1000;
+    private double rateFactor = 2;
+    private double maxRate = 1_000_000;
+    private Duration stepDuration = Duration.ofSeconds(5);
+    private double discoveryShare = 0.01;
+    private int partitions;
+    private boolean pooling;
+    private String idle = "blocking";
+    private double maxDropRatio = 0.001;
+    private PrintStream progress;
+
+    /**
+     * Use multicast on the interface of the host address instead of a loopback network
+     */
+    public void setMulticast(boolean multicast) {
+        this.multicast = multicast;
+    }
+
+    /**
+     * Sets the number of simulated energy meters, the traffic is spread evenly across them
+     */
+    public void setDevices(int devices) {
+        if (devices < 1 || devices > 0xffff) throw new IllegalArgumentException("devices must be between 1 and 65535");
+        this.devices = devices;
+    }
+
+    /**
+     * Sets the rates of the steps
+     *
+     * @param startRate  packets per second of the first step
+     * @param rateFactor factor the rate is increased by after each step
+     * @param maxRate    maximum packets per second, the test stops after the first step exceeding it
+     */
+    public void setRates(double startRate, double rateFactor, double maxRate) {
+        if (startRate <= 0 || rateFactor <= 1 || maxRate < startRate)
+            throw new IllegalArgumentException("rates must be positive and increasing");
+        this.startRate = startRate;
+        this.rateFactor = rateFactor;
+        this.maxRate = maxRate;
+    }
+
+    /**
+     * Sets how long each rate is held
+     */
+    public void setStepDuration(Duration stepDuration) {
+        this.stepDuration = stepDuration;
+    }
+
+    /**
+     * Sets the share of packets that are discovery responses instead of energy meter telegrams
+     */
+    public void setDiscoveryShare(double discoveryShare) {
+        if (discoveryShare < 0 || discoveryShare > 1) throw new IllegalArgumentException("share must be between 0 and 1");
+        this.discoveryShare = discoveryShare;
+    }
+
+    /**
+     * Sets the decode partitions of the tested instance, see {@link Speedwire#setDecodePartitions(int)}
+     */
+    public void setDecodePartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * Enables telegram pooling of the tested instance, see {@link Speedwire#setTelegramPooling(boolean)}
+     */
+    public void setTelegramPooling(boolean pooling) {
+        this.pooling = pooling;
+    }
+
+    /**
+     * Sets how the tested instance waits for packets, see {@link Speedwire#setIdleStrategy(IdleStrategy)}:
+     * {@code blocking} (default), {@code busy-spin}, {@code yield} or {@code backoff}
+     */
+    public void setIdleMode(String mode) {
+        idleStrategy(mode);
+        this.idle = mode;
+    }
+
+    private static IdleStrategy idleStrategy(String mode) {
+        switch (mode) {
+            case "blocking":
+                return null;
+            case "busy-spin":
+                return IdleStrategy.busySpin();
+            case "yield":
+                return IdleStrategy.spinThenYield(1000);
+            case "backoff":
+                return IdleStrategy.backoff(1000, 100, Duration.ofNanos(1000), Duration.ofMillis(1));
+            default:
+                throw new IllegalArgumentException("idle mode must be blocking, busy-spin, yield or backoff");
+        }
+    }
+
+    /**
+     * Sets the share of dropped packets above which the test stops
+     */
+    public void setMaxDropRatio(double maxDropRatio) {
+        this.maxDropRatio = maxDropRatio;
+    }
+
+    /**
+     * Sets the stream progress is printed to, {@code null} for no progress output
+     */
+    public void setProgress(PrintStream progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Runs the load test
+     *
+     * @return the report in JSON format
+     * @throws IOException          if the transport can't be opened
+     * @throws InterruptedException if the current thread was interrupted while waiting for the speedwire thread
+     */
+    public String run() throws IOException, InterruptedException {
+        steps.clear();
+        InetAddress group = InetAddress.getByName(GROUP);
+        Sender sender;
+        LoopbackTransport receiver = null;
+        Speedwire speedwire;
+        if (multicast) {
+            InetAddress host = Speedwire.getLocalAddress();
+            //the host address is left unspecified, otherwise the own packets of the generator would be ignored
+            speedwire = new Speedwire("0.0.0.0", GROUP, PORT);
+            speedwire.setTransport(idle.equals("blocking")
+                    ? new MulticastTransport(PORT, host)
+                    : new ChannelTransport(PORT, host));
+            sender = new MulticastSender(NetworkInterface.getByInetAddress(host), group);
+        } else {
+            LoopbackNetwork network = new LoopbackNetwork();
+            speedwire = new Speedwire(RECEIVER.getHostAddress(), GROUP, PORT);
+            receiver = network.open(RECEIVER, PORT, 16384);
+            speedwire.setTransport(receiver);
+            sender = new LoopbackSender(network, group, devices);
+        }
+        speedwire.setDecodePartitions(partitions);
+        speedwire.setTelegramPooling(pooling);
+        speedwire.setIdleStrategy(idleStrategy(idle));
+        speedwire.onData(EnergyMeterTelegram.class, telegram -> {
+            latency.record(System.nanoTime() - telegram.getRawData(SyntheticTraffic.LATENCY_CHANNEL));
+            received.increment();
+        });
+        speedwire.onData(DiscoveryResponse.class, telegram -> received.increment());
+        speedwire.onError(e -> {
+            if (progress != null) progress.println("speedwire error: " + e);
+        });
+        speedwire.start();
+
+        try {
+            for (double rate = startRate; rate <= maxRate * 1.000001; rate *= rateFactor) {
+                Step step = runStep(sender, rate, receiver, speedwire);
+                steps.add(step);
+                if (progress != null) progress.println(step.toJson());
+                if (step.dropRatio() > maxDropRatio) break;
+                //the generator can't keep up with the rate, higher rates can't be measured
+                if (step.offeredRate() < rate * 0.9) break;
+            }
+        } finally {
+            speedwire.close();
+            speedwire.awaitTermination(Duration.ofSeconds(5));
+            sender.close();
+        }
+        return report();
+    }
+
+    private Step runStep(Sender sender, double rate, LoopbackTransport receiver, Speedwire speedwire)
+            throws IOException, InterruptedException {
+        Step step = new Step(rate);
+        long receivedBefore = received.sum();
+        long transportDropsBefore = receiver == null ? 0 : receiver.getDroppedPackets();
+        long partitionDropsBefore = speedwire.getDroppedPackets();
+        long allocatedBefore = allocatedBytes();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        latency.reset();
+
+        long discoveryEvery = discoveryShare > 0 ? Math.max(1, Math.round(1 / discoveryShare)) : Long.MAX_VALUE;
+        long duration = stepDuration.toNanos();
+        long start = System.nanoTime();
+        long sent = 0;
+        long now;
+        while ((now = System.nanoTime()) - start < duration) {
+            long due = (long) ((now - start) * rate / 1e9);
+            if (sent >= due) {
+                LockSupport.parkNanos(20_000);
+                continue;
+            }
+            //send in small bursts, so the check of the clock doesn't dominate high rates
+            for (int burst = 0; sent < due && burst < 64; burst++, sent++) {
+                int device = (int) (sent % devices);
+                if (sent % discoveryEvery == discoveryEvery - 1) {
+                    sender.send(device, traffic.discovery(sender.address(device)));
+                } else {
+                    long measuringTime = TimeUnit.NANOSECONDS.toMillis(now);
+                    sender.send(device, traffic.energyMeter(device, measuringTime, System.nanoTime()));
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        //wait until all queued packets are processed
+        long last = -1;
+        long drainStart = System.nanoTime();
+        while (received.sum() - receivedBefore < sent && System.nanoTime() - drainStart < DRAIN_NANOS * 10) {
+            long current = received.sum();
+            if (current == last && System.nanoTime() - drainStart > DRAIN_NANOS) break;
+            last = current;
+            Thread.sleep(50);
+        }
+
+        step.sent = sent;
+        step.seconds = elapsed / 1e9;
+        step.received = received.sum() - receivedBefore;
+        step.transportDrops = receiver == null ? 0 : receiver.getDroppedPackets() - transportDropsBefore;
+        step.partitionDrops = speedwire.getDroppedPackets() - partitionDropsBefore;
+        step.allocated = allocatedBytes() - allocatedBefore;
+        step.gcCount = gcCount() - gcCountBefore;
+        step.gcMillis = gcTime() - gcTimeBefore;
+        step.p50 = latency.quantile(0.5);
+        step.p90 = latency.quantile(0.9);
+        step.p99 = latency.quantile(0.99);
+        step.p999 = latency.quantile(0.999);
+        step.max = latency.max();
+        return step;
+    }
+
+    private String report() {
+        double capacity = 0;
+        for (Step step : steps) {
+            if (step.dropRatio() <= maxDropRatio) capacity = Math.max(capacity, step.receivedRate());
+        }
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"transport\": \"").append(multicast ? "multicast" : "loopback").append("\",\n");
+        json.append("  \"devices\": ").append(devices).append(",\n");
+        json.append("  \"decodePartitions\": ").append(partitions).append(",\n");
+        json.append("  \"telegramPooling\": ").append(pooling).append(",\n");
+        json.append("  \"idle\": \"").append(idle).append("\",\n");
+        json.append("  \"discoveryShare\": ").append(format(discoveryShare)).append(",\n");
+        json.append("  \"stepSeconds\": ").append(format(stepDuration.toMillis() / 1e3)).append(",\n");
+        json.append("  \"maxDropRatio\": ").append(format(maxDropRatio)).append(",\n");
+        json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"availableProcessors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"capacityTelegramsPerSecond\": ").append(format(capacity)).append(",\n");
+        json.append("  \"steps\": [");
+        for (int i = 0; i < steps.size(); i++) {
+            json.append(i == 0 ? "\n    " : ",\n    ").append(steps.get(i).toJson());
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    /**
+     * Returns the bytes allocated by all live threads so far
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        long total = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (allocated > 0) total += allocated;
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, bean.getCollectionCount());
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) time += Math.max(0, bean.getCollectionTime());
+        return time;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static InetAddress ipv4(int a, int b, int c, int d) {
+        try {
+            return InetAddress.getByAddress(new byte[]{(byte) a, (byte) b, (byte) c, (byte) d});
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Results of a single rate step
+     */
+    private static class Step {
+        private final double rate;
+        private double seconds;
+        private long sent;
+        private long received;
+        private long transportDrops;
+        private long partitionDrops;
+        private long allocated;
+        private long gcCount;
+        private long gcMillis;
+        private long p50, p90, p99, p999, max;
+
+        Step(double rate) {
+            this.rate = rate;
+        }
+
+        double offeredRate() {
+            return sent / seconds;
+        }
+
+        double receivedRate() {
+            return received / seconds;
+        }
+
+        double dropRatio() {
+            return sent == 0 ? 0 : Math.max(0, sent - received) / (double) sent;
+        }
+
+        String toJson() {
+            return "{\"targetRate\": " + format(rate)
+                    + ", \"offeredRate\": " + format(offeredRate())
+                    + ", \"receivedRate\": " + format(receivedRate())
+                    + ", \"sent\": " + sent
+                    + ", \"received\": " + received
+                    + ", \"dropped\": " + Math.max(0, sent - received)
+                    + ", \"dropRatio\": " + String.format(Locale.ROOT, "%.6f", dropRatio())
+                    + ", \"transportDrops\": " + transportDrops
+                    + ", \"partitionDrops\": " + partitionDrops
+                    + ", \"latencyMicros\": {\"p50\": " + format(p50 / 1e3) + ", \"p90\": " + format(p90 / 1e3)
+                    + ", \"p99\": " + format(p99 / 1e3) + ", \"p999\": " + format(p999 / 1e3)
+                    + ", \"max\": " + format(max / 1e3) + "}"
+                    + ", \"allocationMegabytesPerSecond\": " + format(allocated / 1e6 / seconds)
+                    + ", \"allocatedBytesPerTelegram\": " + format(received == 0 ? 0 : allocated / (double) received)
+                    + ", \"gcCount\": " + gcCount
+                    + ", \"gcMillis\": " + gcMillis + "}";
+        }
+    }
+
+    /**
+     * Sends the packets of the simulated devices
+     */
+    private interface Sender {
+
+        void send(int device, byte[] packet) throws IOException;
+
+        InetAddress address(int device);
+
+        void close();
+    }
+
+    /**
+     * Sends the packets of each device from its own loopback transport, so each device has its own origin
+     */
+    private static class LoopbackSender implements Sender {
+        private final LoopbackTransport[] transports;
+        private final DatagramPacket packet;
+
+        LoopbackSender(LoopbackNetwork network, InetAddress group, int devices) throws IOException {
+            transports = new LoopbackTransport[devices];
+            for (int i = 0; i < devices; i++) {
+                transports[i] = network.open(ipv4(10, 0, (i + 1) >>> 8, (i + 1) & 0xff), PORT, 1);
+            }
+            packet = new DatagramPacket(new byte[0], 0, group, PORT);
+        }
+
+        @Override
+        public void send(int device, byte[] data) throws IOException {
+            packet.setData(data);
+            transports[device].send(packet);
+        }
+
+        @Override
+        public InetAddress address(int device) {
+            return transports[device].getEndpoint().getAddress();
+        }
+
+        @Override
+        public void close() {
+            for (LoopbackTransport transport : transports) transport.close();
+        }
+    }
+
+    /**
+     * Sends the packets of all devices from a single multicast socket that doesn't leave the host
+     */
+    private static class MulticastSender implements Sender {
+        private final MulticastSocket socket;
+        private final InetAddress address;
+        private final DatagramPacket packet;
+
+        MulticastSender(NetworkInterface networkInterface, InetAddress group) throws IOException {
+            socket = new MulticastSocket();
+            socket.setNetworkInterface(networkInterface);
+            socket.setTimeToLive(0);
+            address = networkInterface.getInetAddresses().nextElement();
+            packet = new DatagramPacket(new byte[0], 0, group, PORT);
+        }
+
+        @Override
+        public void send(int device, byte[] data) throws IOException {
+            packet.setData(data);
+            socket.send(packet);
+        }
+
+        @Override
+        public InetAddress address(int device) {
+            return address;
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+}
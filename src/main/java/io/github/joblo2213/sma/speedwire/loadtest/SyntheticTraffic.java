@@ -0,0 +1,100 @@
+package io.github.joblo2213.sma.speedwire.loadtest;
+
+import io.github.joblo2213.sma.speedwire.protocol.OBISIdentifier;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.EnergyMeterChannels;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Builds the packets of simulated devices.
+ * </p><p>
+ * Energy meter telegrams contain all channels of {@link EnergyMeterChannels#ALL} like a real meter. The buffer is
+ * patched in place for each packet, so generating traffic does not allocate. The value of
+ * {@link #LATENCY_CHANNEL} carries the {@link System#nanoTime()} of sending the packet, which allows measuring the
+ * latency up to the callback if sender and receiver run in the same JVM.
+ * </p>
+ */
+class SyntheticTraffic {
+
+    /**
+     * Channel carrying the send time of a synthetic telegram
+     */
+    static final MeasuringChannel<?> LATENCY_CHANNEL = EnergyMeterChannels.TOTAL_P_IN_SUM;
+
+    private static final int SUSY_ID = 349;
+    private static final int SERIAL_OFFSET = 20;
+    private static final int TIME_OFFSET = 24;
+    //payload of the 0x0030 field of the discovery response, behind its length and tag
+    private static final int ADDRESS_OFFSET = 38;
+
+    private final byte[] energyMeter;
+    private final int latencyOffset;
+    private final byte[] discovery;
+
+    SyntheticTraffic() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put(new byte[]{'S', 'M', 'A', 0, 0, 4, 0x02, (byte) 0xA0, 0, 0, 0, 1, 0, 0, 0, 0x10, 0x60, 0x69});
+        buffer.putShort((short) SUSY_ID).putInt(0).putInt(0);
+        int latency = -1;
+        int i = 0;
+        for (MeasuringChannel<?> channel : EnergyMeterChannels.ALL) {
+            OBISIdentifier id = channel.getIdentifier();
+            buffer.put((byte) id.getChannel()).put((byte) id.getIndex()).put((byte) id.getType()).put((byte) id.getTariff());
+            if (channel == LATENCY_CHANNEL) latency = buffer.position();
+            if (id.getType() == 8) buffer.putLong(1_000_000L * ++i);
+            else buffer.putInt(100 * ++i);
+        }
+        //software version 2.0.4.R
+        buffer.put(new byte[]{(byte) 144, 0, 0, 0, 2, 0, 4, 'R'});
+        //length of the SMA Net 2 field, followed by the end field
+        buffer.putShort(12, (short) (buffer.position() - 16));
+        buffer.putInt(0);
+        energyMeter = new byte[buffer.position()];
+        buffer.flip().get(energyMeter);
+        latencyOffset = latency;
+
+        discovery = new byte[]{
+                'S', 'M', 'A', 0, 0, 4, 0x02, (byte) 0xA0, 0, 0, 0, 1, 0, 2, 0, 0, 0, 1,
+                0, 4, 0, 0x10, 0, 1, 0, 3,
+                0, 4, 0, 0x20, 0, 0, 0, 1,
+                0, 4, 0, 0x30, 0, 0, 0, 0,
+                0, 2, 0, 0x70, (byte) 0xEF, 0x0C,
+                0, 0, 0, 0
+        };
+    }
+
+    /**
+     * Patches the energy meter telegram of a device and returns its buffer.
+     *
+     * @param device        index of the simulated device, used as serial number
+     * @param measuringTime measuring time in ms
+     * @param sendNanos     send time stored in the {@link #LATENCY_CHANNEL}
+     */
+    byte[] energyMeter(int device, long measuringTime, long sendNanos) {
+        putInt(energyMeter, SERIAL_OFFSET, 1_000_000_000 + device);
+        putInt(energyMeter, TIME_OFFSET, (int) measuringTime);
+        putInt(energyMeter, latencyOffset, (int) (sendNanos >>> 32));
+        putInt(energyMeter, latencyOffset + 4, (int) sendNanos);
+        return energyMeter;
+    }
+
+    /**
+     * Patches the discovery response and returns its buffer.
+     *
+     * @param address ip address reported by the simulated device
+     */
+    byte[] discovery(InetAddress address) {
+        System.arraycopy(address.getAddress(), 0, discovery, ADDRESS_OFFSET, 4);
+        return discovery;
+    }
+
+    private static void putInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,223 @@
+package io.github.joblo2213.sma.speedwire.monitoring;
+
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+import io.github.joblo2213.sma.speedwire.util.TimerWheel;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Tracks the liveness of each individual device.
+ * </p><p>
+ * A device is considered down if no telegram was received from it for longer than its timeout.
+ * The timeout defaults to three times the expected send interval and can be configured per device.
+ * Registered callbacks are notified whenever a device goes down or comes back up.
+ * </p><p>
+ * All timeouts are managed by a single {@link TimerWheel} that is advanced by the tracker thread, so thousands of
+ * devices can be tracked without a scheduled task for each of them. Receiving a telegram only updates a timestamp,
+ * the timeout is re-armed lazily when it expires.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * LivenessTracker liveness = new LivenessTracker(Duration.ofSeconds(1));
+ * liveness.onDeviceDown(device -> System.err.println(device + " is down"));
+ * liveness.onDeviceUp(device -> System.out.println(device + " is up"));
+ * speedwire.onData(EnergyMeterTelegram.class, liveness);
+ * liveness.start();
+ * }</pre>
+ */
+public class LivenessTracker extends Thread implements SpeedwireCallback<EnergyMeterTelegram> {
+
+    private static final int DEFAULT_MISSED_INTERVALS = 3;
+
+    private final TimerWheel wheel;
+    private final long defaultTimeout;
+    private final ConcurrentHashMap<DeviceAddress, DeviceState> devices = new ConcurrentHashMap<>();
+    private final CopyOnWriteArraySet<Consumer<DeviceAddress>> downHandlers = new CopyOnWriteArraySet<>();
+    private final CopyOnWriteArraySet<Consumer<DeviceAddress>> upHandlers = new CopyOnWriteArraySet<>();
+    private final long tickMillis;
+
+    /**
+     * Creates a new liveness tracker.
+     *
+     * @param expectedInterval interval in which devices are expected to send telegrams by default.
+     *                         Devices are considered down after three missed intervals.
+     */
+    public LivenessTracker(Duration expectedInterval) {
+        super("Speedwire-liveness");
+        setDaemon(true);
+        this.defaultTimeout = expectedInterval.toNanos() * DEFAULT_MISSED_INTERVALS;
+        if (defaultTimeout <= 0) throw new IllegalArgumentException("expected interval must be positive");
+        //resolution of 1% of the timeout is sufficient, but don't spin faster than every ms
+        this.tickMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(defaultTimeout) / 100);
+        this.wheel = new TimerWheel(tickMillis, TimeUnit.MILLISECONDS, System.nanoTime());
+    }
+
+    /**
+     * Creates a new liveness tracker for devices that send data every second, which is the default of all SMA Energy
+     * Meters and Sunny Home Managers.
+     */
+    public LivenessTracker() {
+        this(Duration.ofSeconds(1));
+    }
+
+    /**
+     * Register a callback that is run when a device stops sending telegrams.<br>
+     * The callback will be run on the tracker thread.
+     *
+     * @param handler callback receiving the address of the device that went down
+     */
+    public void onDeviceDown(Consumer<DeviceAddress> handler) {
+        downHandlers.add(handler);
+    }
+
+    /**
+     * Register a callback that is run when a device is seen for the first time or sends telegrams again after it was
+     * down.<br>
+     * The callback will be run on the thread that received the telegram (usually the speedwire thread).
+     *
+     * @param handler callback receiving the address of the device that came up
+     */
+    public void onDeviceUp(Consumer<DeviceAddress> handler) {
+        upHandlers.add(handler);
+    }
+
+    /**
+     * Configure the expected send interval of a single device.<br>
+     * The device is considered down after three missed intervals.
+     *
+     * @param device           address of the device
+     * @param expectedInterval interval in which the device is expected to send telegrams
+     */
+    public void setExpectedInterval(DeviceAddress device, Duration expectedInterval) {
+        long timeout = expectedInterval.toNanos() * DEFAULT_MISSED_INTERVALS;
+        if (timeout <= 0) throw new IllegalArgumentException("expected interval must be positive");
+        devices.computeIfAbsent(device, d -> new DeviceState(d, timeout)).timeout = timeout;
+    }
+
+    @Override
+    public void onDataReceived(EnergyMeterTelegram data) {
+        seen(data.getDeviceAddress());
+    }
+
+    /**
+     * Marks a device as alive.<br>
+     * Usually this is called through {@link #onDataReceived(EnergyMeterTelegram)}, but it can be used for any other
+     * sign of life, too.
+     *
+     * @param device address of the device
+     */
+    public void seen(DeviceAddress device) {
+        DeviceState state = devices.get(device);
+        if (state == null) state = devices.computeIfAbsent(device, d -> new DeviceState(d, defaultTimeout));
+        state.seen(System.nanoTime());
+    }
+
+    /**
+     * Stops tracking a device. No further callbacks will be run for it until it is seen again.
+     *
+     * @param device address of the device
+     */
+    public void forget(DeviceAddress device) {
+        DeviceState state = devices.remove(device);
+        if (state != null) state.cancel();
+    }
+
+    /**
+     * Returns {@code true} if the given device is known and currently considered alive
+     */
+    public boolean isAlive(DeviceAddress device) {
+        DeviceState state = devices.get(device);
+        return state != null && state.alive;
+    }
+
+    /**
+     * Returns the addresses of all devices that are currently considered down
+     */
+    public Set<DeviceAddress> getDownDevices() {
+        return Collections.unmodifiableSet(devices.values().stream()
+                .filter(s -> !s.alive && s.lastSeen != 0)
+                .map(s -> s.device)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        while (!interrupted()) {
+            try {
+                wheel.advance(System.nanoTime());
+                //noinspection BusyWait
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the tracker thread.<br>
+     * This method does not await the termination of the thread.
+     */
+    public void shutdown() {
+        interrupt();
+    }
+
+    private class DeviceState implements Runnable {
+        private final DeviceAddress device;
+        private volatile long timeout;
+        private volatile long lastSeen;
+        private volatile boolean alive;
+        private TimerWheel.Timeout timer;
+
+        DeviceState(DeviceAddress device, long timeout) {
+            this.device = device;
+            this.timeout = timeout;
+        }
+
+        void seen(long now) {
+            lastSeen = now;
+            if (alive) return;
+            synchronized (this) {
+                if (alive) return;
+                alive = true;
+                timer = wheel.schedule(this, now + timeout);
+            }
+            upHandlers.forEach(h -> h.accept(device));
+        }
+
+        synchronized void cancel() {
+            alive = false;
+            if (timer != null) timer.cancel();
+        }
+
+        /**
+         * Run by the wheel when the timeout expired
+         */
+        @Override
+        public void run() {
+            long deadline = lastSeen + timeout;
+            synchronized (this) {
+                if (!alive) return;
+                if (deadline - System.nanoTime() > 0) {
+                    //telegrams were received in the meantime, re-arm for the remaining time
+                    timer = wheel.schedule(this, deadline);
+                    return;
+                }
+                alive = false;
+            }
+            downHandlers.forEach(h -> h.accept(device));
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package io.github.joblo2213.sma.speedwire.monitoring;
+
+import io.github.joblo2213.sma.speedwire.Speedwire;
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Detects lost, duplicated and reordered energy meter telegrams.
+ * </p><p>
+ * Energy meters send their data periodically (by default every second) and include a free-running measuring time
+ * in each telegram ({@link EnergyMeterTelegram#getMeasuringTimeMillis()}). By comparing the measuring times of
+ * successive telegrams of a device with the expected period, missing telegrams can be detected on the receiving side.
+ * The measuring time is a 4 byte counter that wraps around approximately every 50 days, which is handled transparently.
+ * </p><p>
+ * Only telegrams within a window of {@value #REORDER_WINDOW} periods before the latest telegram are counted as
+ * reordered, and only if their period was still missing. Late telegrams of a period that was already received are
+ * counted as duplicates. A larger jump of the measuring time is counted as lost telegrams if the time between the arrivals matches
+ * it (the device was unreachable for a while), otherwise as a resynchronization (e.g. because the device restarted and
+ * its measuring time started again from zero) and the tracking continues from the new measuring time.
+ * </p><p>
+ * In addition, the deviation between the arrival interval and the measuring interval (the inter-arrival jitter) is
+ * recorded in a histogram. High jitter combined with losses usually indicates that the receiving host can't keep up
+ * (kernel receive buffer overflow), while losses without jitter point to the network.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * PacketLossTracker tracker = new PacketLossTracker();
+ * speedwire.onData(EnergyMeterTelegram.class, tracker);
+ * // ...
+ * tracker.getStatistics().forEach((device, stats) ->
+ *     System.out.printf("%s lost %.2f%%%n", device, stats.getLossRate() * 100));
+ * }</pre>
+ */
+public class PacketLossTracker implements SpeedwireCallback<EnergyMeterTelegram> {
+
+    private static final long[] JITTER_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    private static final long COUNTER_RANGE = 1L << 32;
+    //maximum distance of reordered telegrams in periods
+    private static final long REORDER_WINDOW = 8;
+    //maximum deviation between arrival interval and measuring interval of a plausible gap in ms
+    private static final long RESYNC = 5_000;
+
+    private final long expectedPeriod;
+    private final ConcurrentHashMap<DeviceAddress, DeviceStatistics> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new tracker for devices that send data every {@code expectedPeriod} ms.
+     *
+     * @param expectedPeriod interval in which devices are expected to send telegrams in ms
+     */
+    public PacketLossTracker(long expectedPeriod) {
+        if (expectedPeriod <= 0) throw new IllegalArgumentException("expected period must be positive");
+        this.expectedPeriod = expectedPeriod;
+    }
+
+    /**
+     * Creates a new tracker for devices that send data every second, which is the default of all SMA Energy Meters
+     * and Sunny Home Managers.
+     */
+    public PacketLossTracker() {
+        this(1000);
+    }
+
+    @Override
+    public void onDataReceived(EnergyMeterTelegram data) {
+        record(data.getDeviceAddress(), data.getMeasuringTimeMillis(), System.nanoTime());
+    }
+
+    /**
+     * Records a received telegram.<br>
+     * Usually this is called through {@link #onDataReceived(EnergyMeterTelegram)}, but it can be used directly to
+     * analyze recorded data.
+     *
+     * @param device        address of the device that sent the telegram
+     * @param measuringTime measuring time of the telegram in ms (4 byte unsigned counter)
+     * @param arrivalNanos  arrival time of the telegram as returned by {@link System#nanoTime()}
+     */
+    public void record(DeviceAddress device, long measuringTime, long arrivalNanos) {
+        devices.computeIfAbsent(device, d -> new DeviceStatistics()).record(measuringTime, arrivalNanos);
+    }
+
+    /**
+     * Returns the statistics of a device or {@code null} if no telegram of this device was received yet
+     */
+    public DeviceStatistics getStatistics(DeviceAddress device) {
+        return devices.get(device);
+    }
+
+    /**
+     * Returns an unmodifiable live view of the statistics of all known devices
+     */
+    public Map<DeviceAddress, DeviceStatistics> getStatistics() {
+        return Collections.unmodifiableMap(devices);
+    }
+
+    /**
+     * Forgets all devices and their statistics
+     */
+    public void reset() {
+        devices.clear();
+    }
+
+    /**
+     * Returns the upper bounds (exclusive) of the jitter histogram buckets in ms.<br>
+     * The histogram contains one additional bucket that collects all values above the last bound.
+     */
+    public static long[] getJitterBuckets() {
+        return JITTER_BUCKETS.clone();
+    }
+
+    /**
+     * Returns the interval in which devices are expected to send telegrams in ms
+     */
+    public long getExpectedPeriod() {
+        return expectedPeriod;
+    }
+
+    /**
+     * <p>
+     * Loss, reordering and jitter statistics of a single device.
+     * </p><p>
+     * Note that telegrams lost on the receiving host (see {@link Speedwire#getDroppedPackets()}) are counted as losses
+     * here as well, comparing both values helps locating the cause.
+     * </p>
+     */
+    public class DeviceStatistics {
+
+        private final long[] jitterHistogram = new long[JITTER_BUCKETS.length + 1];
+        private long lastMeasuringTime = -1;
+        private long lastArrival;
+        //bit i is set if the period i + 1 periods before the latest telegram is missing
+        private long missingPeriods;
+        private long received;
+        private long lost;
+        private long gaps;
+        private long reordered;
+        private long duplicates;
+        private long resyncs;
+        private long maxGap;
+        private double jitter;
+
+        private DeviceStatistics() {
+        }
+
+        private synchronized void record(long measuringTime, long arrivalNanos) {
+            received++;
+            if (lastMeasuringTime < 0) {
+                lastMeasuringTime = measuringTime;
+                lastArrival = arrivalNanos;
+                return;
+            }
+
+            //difference of the 4 byte counters, interpreted as signed value to handle wraparound and late telegrams
+            long delta = Math.floorMod(measuringTime - lastMeasuringTime, COUNTER_RANGE);
+            if (delta >= COUNTER_RANGE / 2) delta -= COUNTER_RANGE;
+
+            if (delta == 0) {
+                duplicates++;
+                return;
+            }
+            long window = REORDER_WINDOW * expectedPeriod;
+            if (delta < 0 && -delta <= window) {
+                long period = Math.round((double) -delta / expectedPeriod);
+                long bit = period > 0 ? 1L << (period - 1) : 0;
+                if ((missingPeriods & bit) == 0) {
+                    //the period of the telegram was already received
+                    duplicates++;
+                    return;
+                }
+                //a telegram that was already counted as lost arrived late
+                missingPeriods &= ~bit;
+                reordered++;
+                lost--;
+                return;
+            }
+            long elapsed = (arrivalNanos - lastArrival) / 1_000_000;
+            if (delta < 0 || (delta > window && Math.abs(elapsed - delta) > RESYNC)) {
+                //the measuring time jumped, e.g. because the device restarted
+                resyncs++;
+                missingPeriods = 0;
+                lastMeasuringTime = measuringTime;
+                lastArrival = arrivalNanos;
+                return;
+            }
+
+            long missing = Math.round((double) delta / expectedPeriod) - 1;
+            if (missing > 0) {
+                lost += missing;
+                gaps++;
+                maxGap = Math.max(maxGap, missing);
+            }
+            //only periods within the reorder window are remembered
+            long periods = missing + 1;
+            missingPeriods = periods >= REORDER_WINDOW ? 0 : missingPeriods << periods;
+            missingPeriods |= (1L << Math.min(Math.max(missing, 0), REORDER_WINDOW)) - 1;
+            missingPeriods &= (1L << REORDER_WINDOW) - 1;
+
+            //deviation between arrival interval and measuring interval
+            long deviation = Math.abs(elapsed - delta);
+            int bucket = 0;
+            while (bucket < JITTER_BUCKETS.length && deviation >= JITTER_BUCKETS[bucket]) bucket++;
+            jitterHistogram[bucket]++;
+            //smoothed jitter estimation as described in RFC 3550
+            jitter += (deviation - jitter) / 16;
+
+            lastMeasuringTime = measuringTime;
+            lastArrival = arrivalNanos;
+        }
+
+        /**
+         * Returns the number of received telegrams, including duplicates and reordered ones
+         */
+        public synchronized long getReceived() {
+            return received;
+        }
+
+        /**
+         * Returns the number of telegrams that are missing
+         */
+        public synchronized long getLost() {
+            return lost;
+        }
+
+        /**
+         * Returns the number of gaps, a gap is a sequence of one or more consecutive missing telegrams
+         */
+        public synchronized long getGaps() {
+            return gaps;
+        }
+
+        /**
+         * Returns the number of telegrams in the largest gap
+         */
+        public synchronized long getMaxGap() {
+            return maxGap;
+        }
+
+        /**
+         * Returns the number of telegrams that were missing when a telegram with a later measuring time arrived, but
+         * arrived late
+         */
+        public synchronized long getReordered() {
+            return reordered;
+        }
+
+        /**
+         * Returns the number of telegrams that were received multiple times, including late copies of telegrams that
+         * were already received
+         */
+        public synchronized long getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Returns the number of jumps of the measuring time that couldn't be explained by lost or reordered telegrams,
+         * e.g. because the device restarted
+         */
+        public synchronized long getResyncs() {
+            return resyncs;
+        }
+
+        /**
+         * Returns the ratio of lost telegrams to all expected telegrams (between 0 and 1)
+         */
+        public synchronized double getLossRate() {
+            long expected = received - duplicates + lost;
+            return expected == 0 ? 0 : (double) lost / expected;
+        }
+
+        /**
+         * Returns the smoothed inter-arrival jitter in ms
+         */
+        public synchronized double getJitter() {
+            return jitter;
+        }
+
+        /**
+         * Returns a copy of the inter-arrival jitter histogram.<br>
+         * Bucket {@code i} counts deviations below {@link #getJitterBuckets()}{@code [i]} ms, the last bucket counts
+         * all larger deviations.
+         */
+        public synchronized long[] getJitterHistogram() {
+            return jitterHistogram.clone();
+        }
+
+        /**
+         * Returns the measuring time of the latest telegram in ms
+         */
+        public synchronized long getLastMeasuringTime() {
+            return lastMeasuringTime;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.joblo2213.sma.speedwire.protocol;
+
+/**
+ * <p>
+ * The SMA device address uniquely identifies an SMA device.
+ * </p><p>
+ * It consists of the SUSy ID, a 2 byte unsigned identifier of the SMA hardware, followed by the devices serial number,
+ * a 4 byte unsigned integer.
+ * </p>
+ */
+public class DeviceAddress {
+
+    /**
+     * Broadcast address that is accepted by all devices (SUSy ID {@code 0xFFFF}, serial number {@code 0xFFFFFFFF})
+     */
+    public static final DeviceAddress ANY = new DeviceAddress(0xffff, 0xffffffffL);
+
+    private final int SUSyID;
+    private final long serNo;
+
+    public DeviceAddress(int SUSyID, long serNo) {
+        if (SUSyID < 0 || SUSyID > 0xffff)
+            throw new IllegalArgumentException("SUSy ID must be an unsigned 2 byte value");
+        if (serNo < 0 || serNo > 0xffffffffL)
+            throw new IllegalArgumentException("serial number must be an unsigned 4 byte value");
+        this.SUSyID = SUSyID;
+        this.serNo = serNo;
+    }
+
+    /**
+     * Returns the devices SUSy ID (2 byte unsigned integer)
+     */
+    public int getSUSyID() {
+        return SUSyID;
+    }
+
+    /**
+     * Returns the devices serial number (4 byte unsigned integer)
+     */
+    public long getSerNo() {
+        return serNo;
+    }
+
+    /**
+     * Returns the device address as String with the syntax SUSyID:SerNo
+     */
+    @Override
+    public String toString() {
+        return SUSyID + ":" + serNo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        DeviceAddress that = (DeviceAddress) o;
+        return SUSyID == that.SUSyID && serNo == that.serNo;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * SUSyID + Long.hashCode(serNo);
+    }
+}
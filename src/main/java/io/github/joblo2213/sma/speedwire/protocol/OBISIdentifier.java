@@ -1,7 +1,5 @@
 package io.github.joblo2213.sma.speedwire.protocol;
 
-import java.util.Objects;
-
 /**
  * <p>
  * OBIS identifiers are used to identify measurement values in a telegram.<br>
@@ -117,6 +115,6 @@ public class OBISIdentifier {
 
     @Override
     public int hashCode() {
-        return Objects.hash(channel, index, type, tariff);
+        return (channel << 24) | (index << 16) | (type << 8) | tariff;
     }
 }
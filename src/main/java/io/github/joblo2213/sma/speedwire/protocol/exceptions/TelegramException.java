@@ -23,6 +23,25 @@ public abstract class TelegramException extends Exception {
         this.telegram = telegram;
     }
 
+    /**
+     * Creates an exception without stack trace.<br>
+     * Telegrams are rejected for every malformed packet, so filling in the stack trace would make each rejection
+     * expensive while the trace would only point to the parser.
+     */
+    protected TelegramException(Telegram telegram, String message, boolean writableStackTrace) {
+        this(telegram, message, null, writableStackTrace);
+    }
+
+    /**
+     * Creates an exception with a cause, optionally without stack trace
+     *
+     * @see #TelegramException(Telegram, String, boolean)
+     */
+    protected TelegramException(Telegram telegram, String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, false, writableStackTrace);
+        this.telegram = telegram;
+    }
+
     /**
      * <p>
      * Returns the telegram that caused this exception.
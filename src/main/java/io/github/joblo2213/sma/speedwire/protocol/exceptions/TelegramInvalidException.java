@@ -8,12 +8,18 @@ import io.github.joblo2213.sma.speedwire.protocol.telegrams.Telegram;
  */
 public class TelegramInvalidException extends TelegramException {
 
+    /**
+     * Creates an exception without stack trace, as it is thrown for every malformed packet
+     */
     public TelegramInvalidException(Telegram telegram, String message) {
-        super(telegram, message);
+        super(telegram, message, false);
     }
 
+    /**
+     * Creates an exception without stack trace, e.g. for wrapping the index error caused by a truncated record
+     */
     public TelegramInvalidException(Telegram telegram, String message, Throwable cause) {
-        super(telegram, message, cause);
+        super(telegram, message, cause, false);
     }
 
     public TelegramInvalidException(Telegram telegram, Throwable cause) {
@@ -8,8 +8,11 @@ import io.github.joblo2213.sma.speedwire.protocol.telegrams.Telegram;
  */
 public class TelegramMismatchException extends TelegramException {
 
+    /**
+     * Creates an exception without stack trace, as it is thrown for every non matching packet
+     */
     public TelegramMismatchException(Telegram telegram, String message) {
-        super(telegram, message);
+        super(telegram, message, false);
     }
 
     public TelegramMismatchException(Telegram telegram, String message, Throwable cause) {
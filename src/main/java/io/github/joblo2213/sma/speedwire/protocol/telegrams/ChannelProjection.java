@@ -0,0 +1,120 @@
+package io.github.joblo2213.sma.speedwire.protocol.telegrams;
+
+import io.github.joblo2213.sma.speedwire.protocol.OBISIdentifier;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * <p>
+ * The set of energy meter channels that should be decoded.
+ * </p><p>
+ * When an {@link EnergyMeterTelegram} is decoded with a projection, all records of channels that are not part of the
+ * projection are skipped without decoding them. {@link EnergyMeterTelegram#hasData(MeasuringChannel)} returns
+ * {@code false} for these channels.
+ * </p>
+ */
+public final class ChannelProjection {
+
+    /**
+     * Projection containing all channels
+     */
+    public static final ChannelProjection ALL = new ChannelProjection(null);
+
+    /**
+     * Projection containing no channels, only the header of the telegrams is decoded
+     */
+    public static final ChannelProjection NONE = new ChannelProjection(new int[0]);
+
+    //sorted obis codes, null for all channels
+    private final int[] codes;
+
+    private ChannelProjection(int[] codes) {
+        this.codes = codes;
+    }
+
+    /**
+     * Creates a projection containing the given channels
+     */
+    public static ChannelProjection of(Collection<? extends MeasuringChannel<?>> channels) {
+        return new ChannelProjection(channels.stream().mapToInt(c -> code(c.getIdentifier())).sorted().distinct().toArray());
+    }
+
+    /**
+     * Creates a projection containing the given channels
+     */
+    public static ChannelProjection of(MeasuringChannel<?>... channels) {
+        return of(Arrays.asList(channels));
+    }
+
+    /**
+     * Returns a projection containing the channels of this and the other projection
+     */
+    public ChannelProjection union(ChannelProjection other) {
+        if (codes == null || other.codes == null) return ALL;
+        int[] merged = Arrays.copyOf(codes, codes.length + other.codes.length);
+        System.arraycopy(other.codes, 0, merged, codes.length, other.codes.length);
+        return new ChannelProjection(Arrays.stream(merged).sorted().distinct().toArray());
+    }
+
+    /**
+     * Returns {@code true} if the projection contains the given channel
+     */
+    public boolean contains(MeasuringChannel<?> channel) {
+        return contains(code(channel.getIdentifier()));
+    }
+
+    /**
+     * Returns {@code true} if this projection contains all channels
+     */
+    public boolean isAll() {
+        return codes == null;
+    }
+
+    /**
+     * Returns {@code true} if the projection contains the channel with the given obis code
+     */
+    boolean contains(int code) {
+        return codes == null || Arrays.binarySearch(codes, code) >= 0;
+    }
+
+    /**
+     * Returns the number of channels of the projection, {@code -1} if it contains all channels
+     */
+    int size() {
+        return codes == null ? -1 : codes.length;
+    }
+
+    /**
+     * Returns the obis identifier packed into an int, the same way it is encoded in a telegram
+     */
+    static int code(OBISIdentifier identifier) {
+        return (identifier.getChannel() << 24) | (identifier.getIndex() << 16)
+                | (identifier.getType() << 8) | identifier.getTariff();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChannelProjection)) return false;
+        return Arrays.equals(codes, ((ChannelProjection) o).codes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(codes);
+    }
+
+    @Override
+    public String toString() {
+        if (codes == null) return "ChannelProjection[all]";
+        StringBuilder builder = new StringBuilder("ChannelProjection[");
+        for (int i = 0; i < codes.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(codes[i] >>> 24).append(':').append((codes[i] >>> 16) & 0xff).append('.')
+                    .append((codes[i] >>> 8) & 0xff).append('.').append(codes[i] & 0xff);
+        }
+        return builder.append(']').toString();
+    }
+}
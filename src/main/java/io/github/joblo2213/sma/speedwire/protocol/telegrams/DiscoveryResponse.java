@@ -4,8 +4,6 @@ import io.github.joblo2213.sma.speedwire.Speedwire;
 import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramInvalidException;
 import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramMismatchException;
 
-import java.net.InetAddress;
-import java.util.Arrays;
 
 /**
  * This telegram is send by all SMA devices that support the speedwire protocol if they receive a discovery request.<br>
@@ -21,15 +19,26 @@ public class DiscoveryResponse extends Telegram {
             (byte) 0x00, (byte) 0x01
     };
 
-    DiscoveryResponse(InetAddress origin, byte[] data) throws TelegramInvalidException, TelegramMismatchException {
-        super(origin, data);
+    DiscoveryResponse(Telegram telegram) throws TelegramInvalidException, TelegramMismatchException {
+        super(telegram);
     }
 
     @Override
     protected void validate() throws TelegramInvalidException, TelegramMismatchException {
         super.validate();
-        if (!Arrays.equals(getBytes(0, 18), SUBARRAY))
+        if (!matches(this))
             throw new TelegramMismatchException(this, "Not a discovery response");
 
     }
+
+    /**
+     * Returns {@code true} if the header of the given telegram is the one of a discovery response
+     */
+    static boolean matches(Telegram telegram) {
+        if (telegram.length() < SUBARRAY.length) return false;
+        for (int i = 0; i < SUBARRAY.length; i++) {
+            if (telegram.getByte(i) != SUBARRAY[i]) return false;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,310 @@
+package io.github.joblo2213.sma.speedwire.protocol.telegrams;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramInvalidException;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.EnergyMeterChannels;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+
+import javax.measure.Quantity;
+import javax.measure.Unit;
+import javax.measure.UnitConverter;
+import java.net.DatagramPacket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>
+ * A block of energy meter telegrams decoded into one primitive column per channel, e.g. for bulk replay or
+ * reprocessing of recorded data.
+ * </p><p>
+ * Each added telegram is a row of the batch. The raw values of each channel are kept in a {@code long[]} column, in the
+ * unit of the channel ({@link MeasuringChannel#getUnit()}). {@link #getScaledColumn(MeasuringChannel)} converts a whole
+ * column to the corresponding SI unit at once (e.g. [0.1 W] to [W], [mV] to [V] or [Ws] to [J]), which is a lot faster
+ * than converting the values one by one using {@link javax.measure.Quantity#to(javax.measure.Unit)}. Values that are
+ * missing in a telegram are {@link Double#NaN} in the scaled column.
+ * </p><p>
+ * The batch is reused by {@link #clear() clearing} it, so converting a stream of telegrams does not allocate in steady
+ * state. The batch is not thread safe.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * EnergyMeterBatch batch = new EnergyMeterBatch(EnergyMeterChannels.ALL, 4096);
+ * for (EnergyMeterTelegram telegram : telegrams) {
+ *     if (!batch.add(telegram)) {
+ *         double[] power = batch.getScaledColumn(EnergyMeterChannels.TOTAL_P_IN);
+ *         ...
+ *         batch.clear();
+ *         batch.add(telegram);
+ *     }
+ * }
+ * }</pre>
+ */
+public final class EnergyMeterBatch {
+
+    private final List<MeasuringChannel<?>> channels;
+    private final ChannelProjection projection;
+    private final int capacity;
+    //obis codes of the columns in ascending order and the index of their channel
+    private final int[] sortedCodes;
+    private final int[] sortedColumns;
+    private final double[] factors;
+
+    private final long[] measuringTimes;
+    private final DeviceAddress[] devices;
+    private final long[][] raw;
+    private final double[][] scaled;
+    //bit set of the rows containing a value, one per column
+    private final long[][] present;
+    private final int[] filled;
+    private final TelegramPool pool = new TelegramPool(1);
+    private int size;
+
+    /**
+     * Creates a new batch.
+     *
+     * @param channels channels that are decoded into columns
+     * @param capacity maximum number of telegrams of the batch
+     * @throws IllegalArgumentException if a channel is contained twice or its unit can't be converted to its SI unit by
+     *                                  a factor
+     */
+    public EnergyMeterBatch(Collection<? extends MeasuringChannel<?>> channels, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.channels = List.copyOf(channels);
+        this.projection = ChannelProjection.of(this.channels);
+        this.capacity = capacity;
+        int n = this.channels.size();
+
+        int[] codes = new int[n];
+        factors = new double[n];
+        for (int i = 0; i < n; i++) {
+            codes[i] = ChannelProjection.code(this.channels.get(i).getIdentifier());
+            factors[i] = getScaleFactor(this.channels.get(i));
+        }
+        sortedCodes = codes.clone();
+        Arrays.sort(sortedCodes);
+        sortedColumns = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int column = 0; column < n; column++) {
+                if (codes[column] == sortedCodes[i]) sortedColumns[i] = column;
+            }
+            if (i > 0 && sortedCodes[i] == sortedCodes[i - 1])
+                throw new IllegalArgumentException("channel '" + this.channels.get(sortedColumns[i]) + "' is contained twice");
+        }
+
+        measuringTimes = new long[capacity];
+        devices = new DeviceAddress[capacity];
+        raw = new long[n][capacity];
+        scaled = new double[n][];
+        present = new long[n][(capacity + 63) >>> 6];
+        filled = new int[n];
+    }
+
+    /**
+     * Creates a new batch containing all energy meter channels.
+     *
+     * @param capacity maximum number of telegrams of the batch
+     */
+    public EnergyMeterBatch(int capacity) {
+        this(EnergyMeterChannels.ALL, capacity);
+    }
+
+    /**
+     * Returns the factor converting raw values of a channel to the SI unit of its quantity, e.g. {@code 0.1} for
+     * power values in [0.1 W].
+     *
+     * @throws IllegalArgumentException if the unit of the channel can't be converted by a factor
+     */
+    public static double getScaleFactor(MeasuringChannel<?> channel) {
+        return scaleFactor(channel);
+    }
+
+    private static <Q extends Quantity<Q>> double scaleFactor(MeasuringChannel<Q> channel) {
+        Unit<Q> unit = channel.getUnit();
+        UnitConverter converter = unit.getConverterTo(unit.getSystemUnit());
+        if (!converter.isLinear())
+            throw new IllegalArgumentException("unit of channel '" + channel + "' can't be converted by a factor");
+        return converter.convert(1.0);
+    }
+
+    /**
+     * Appends a telegram as new row.<br>
+     * Channels the telegram doesn't contain data for are marked as missing in this row.
+     *
+     * @param telegram telegram to append
+     * @return {@code false} if the batch is full and the telegram wasn't appended
+     */
+    public boolean add(EnergyMeterTelegram telegram) {
+        if (size == capacity) return false;
+        int row = size++;
+        measuringTimes[row] = telegram.getMeasuringTimeMillis();
+        devices[row] = telegram.getDeviceAddress();
+        long bit = 1L << row;
+        int word = row >>> 6;
+        for (int i = 0, count = telegram.recordCount(); i < count; i++) {
+            int column = column(telegram.recordCode(i));
+            if (column < 0 || (present[column][word] & bit) != 0) continue;
+            raw[column][row] = telegram.recordValue(i);
+            present[column][word] |= bit;
+            filled[column]++;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a received or recorded packet and appends it as new row.<br>
+     * Only the channels of the batch are decoded, the telegram is recycled right away.
+     *
+     * @param packet packet containing an energy meter telegram
+     * @return {@code false} if the batch is full or the packet doesn't contain an energy meter telegram
+     * @throws TelegramInvalidException if the packet can't be decoded
+     */
+    public boolean add(DatagramPacket packet) throws TelegramInvalidException {
+        if (size == capacity) return false;
+        Telegram telegram = pool.decode(packet, projection);
+        try {
+            return telegram instanceof EnergyMeterTelegram && add((EnergyMeterTelegram) telegram);
+        } finally {
+            telegram.release();
+        }
+    }
+
+    /**
+     * Returns the column of the channel with the given obis code or {@code -1}
+     */
+    private int column(int code) {
+        int index = Arrays.binarySearch(sortedCodes, code);
+        return index < 0 ? -1 : sortedColumns[index];
+    }
+
+    /**
+     * Removes all rows, the columns are kept and reused
+     */
+    public void clear() {
+        for (long[] bits : present) Arrays.fill(bits, 0, (size + 63) >>> 6, 0L);
+        Arrays.fill(devices, 0, size, null);
+        Arrays.fill(filled, 0);
+        size = 0;
+    }
+
+    /**
+     * Returns the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of rows
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns {@code true} if no more telegrams can be appended
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Returns the channels of the batch
+     */
+    public List<MeasuringChannel<?>> getChannels() {
+        return channels;
+    }
+
+    /**
+     * Returns the measuring times of all rows in ms, see {@link EnergyMeterTelegram#getMeasuringTimeMillis()}.<br>
+     * The returned array is backed by the batch and only the first {@link #size()} elements are valid.
+     */
+    public long[] getMeasuringTimes() {
+        return measuringTimes;
+    }
+
+    /**
+     * Returns the device addresses of all rows.<br>
+     * The returned array is backed by the batch and only the first {@link #size()} elements are valid.
+     */
+    public DeviceAddress[] getDevices() {
+        return devices;
+    }
+
+    /**
+     * Returns {@code true} if the telegram of a row contains data for the given channel
+     */
+    public boolean hasData(MeasuringChannel<?> channel, int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        return (present[indexOf(channel)][row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Returns the raw values of a channel, in the unit of the channel ({@link MeasuringChannel#getUnit()}).<br>
+     * The returned array is backed by the batch and only the first {@link #size()} elements are valid.
+     * Missing values are undefined, use {@link #hasData(MeasuringChannel, int)} to check for them.
+     *
+     * @throws IllegalArgumentException if the channel isn't part of the batch
+     */
+    public long[] getRawColumn(MeasuringChannel<?> channel) {
+        return raw[indexOf(channel)];
+    }
+
+    /**
+     * Returns the values of a channel converted to the SI unit of its quantity, missing values are
+     * {@link Double#NaN}.<br>
+     * The column is converted on each call into an array that is backed by the batch and reused, only the first
+     * {@link #size()} elements are valid.
+     *
+     * @throws IllegalArgumentException if the channel isn't part of the batch
+     */
+    public double[] getScaledColumn(MeasuringChannel<?> channel) {
+        int column = indexOf(channel);
+        if (scaled[column] == null) scaled[column] = new double[capacity];
+        scale(column, scaled[column], 0);
+        return scaled[column];
+    }
+
+    /**
+     * Converts the values of a channel to the SI unit of its quantity and writes them to the given array, missing values
+     * are {@link Double#NaN}.
+     *
+     * @param channel channel to convert
+     * @param out     destination array
+     * @param offset  index in the destination array the value of the first row is written to
+     * @throws IllegalArgumentException  if the channel isn't part of the batch
+     * @throws IndexOutOfBoundsException if the destination array is too small
+     */
+    public void getScaledColumn(MeasuringChannel<?> channel, double[] out, int offset) {
+        if (offset < 0 || offset + size > out.length)
+            throw new IndexOutOfBoundsException("destination array is too small for " + size + " values");
+        scale(indexOf(channel), out, offset);
+    }
+
+    private void scale(int column, double[] out, int offset) {
+        long[] values = raw[column];
+        double factor = factors[column];
+        int n = size;
+        //a plain counted loop over primitive arrays, which is unrolled and vectorized by the jit where supported
+        for (int i = 0; i < n; i++) {
+            out[offset + i] = values[i] * factor;
+        }
+        if (filled[column] == n) return;
+        long[] bits = present[column];
+        for (int word = 0; word << 6 < n; word++) {
+            long missing = ~bits[word];
+            while (missing != 0) {
+                int row = (word << 6) + Long.numberOfTrailingZeros(missing);
+                if (row >= n) break;
+                out[offset + row] = Double.NaN;
+                missing &= missing - 1;
+            }
+        }
+    }
+
+    private int indexOf(MeasuringChannel<?> channel) {
+        int column = column(ChannelProjection.code(channel.getIdentifier()));
+        if (column < 0) throw new IllegalArgumentException("channel '" + channel + "' is not part of the batch");
+        return column;
+    }
+}
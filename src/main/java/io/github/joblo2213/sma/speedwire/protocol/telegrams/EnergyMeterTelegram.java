@@ -1,5 +1,6 @@
 package io.github.joblo2213.sma.speedwire.protocol.telegrams;
 
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
 import io.github.joblo2213.sma.speedwire.protocol.OBISIdentifier;
 import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramInvalidException;
 import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramMismatchException;
@@ -10,31 +11,62 @@ import tech.units.indriya.quantity.Quantities;
 import javax.measure.Quantity;
 import javax.measure.quantity.Time;
 import java.math.BigInteger;
-import java.net.InetAddress;
-import java.util.HashMap;
 
 /**
  * A telegram from an SMA Energy Meter or an SMA Sunny Home Manager (2.0)
  */
 public class EnergyMeterTelegram extends Telegram {
 
-    private final int SUSyID;
-    private final BigInteger serNo;
-    private final Quantity<Time> measuringTime;
-    private final HashMap<OBISIdentifier, BigInteger> measuredData;
-    private String softwareVersion = "unknown";
+    /**
+     * Protocol id of the energy meter protocol
+     */
+    static final int PROTOCOL_ID = 0x6069;
+
+    //obis identifier 144.0.0.0 of the software version record
+    private static final int SOFTWARE_VERSION = 0x90000000;
+
+    private int SUSyID;
+    private long serNo;
+    private long measuringTime;
+    private DeviceAddress deviceAddress;
+    //decoded records: obis codes and raw values
+    private int[] codes;
+    private long[] values;
+    private int count;
+    private int hint;
+    //raw software version record, -1 if unknown
+    private long softwareVersion;
+
+    EnergyMeterTelegram(Telegram telegram, ChannelProjection projection)
+            throws TelegramInvalidException, TelegramMismatchException {
+        super(telegram);
+        decode(projection);
+    }
+
+    /**
+     * Creates an empty telegram owned by the given pool
+     */
+    EnergyMeterTelegram(TelegramPool pool) {
+        super(pool, 1024);
+        codes = new int[0];
+        values = new long[0];
+    }
 
-    EnergyMeterTelegram(InetAddress origin, byte[] data) throws TelegramInvalidException, TelegramMismatchException {
-        super(origin, data);
+    @Override
+    void decode(ChannelProjection projection) throws TelegramInvalidException {
         try {
-            SUSyID = get2ByteUnsignedInt(18);
-            serNo = get4ByteUnsignedInt(20);
-            measuringTime = Quantities.getQuantity(get4ByteUnsignedInt(24), EnergyMeterChannels.UNIT_TIME);
+            //validation guarantees the SMA Net 2 field exists
+            int field = findField(TAG_SMA_NET_2);
+            int offset = getFieldOffset(field);
+            SUSyID = get2ByteUnsignedInt(offset + 2);
+            serNo = getInt(offset + 4) & 0xffffffffL;
+            measuringTime = getInt(offset + 8) & 0xffffffffL;
+            TelegramPool pool = getPool();
+            deviceAddress = pool != null ? pool.intern(SUSyID, serNo) : new DeviceAddress(SUSyID, serNo);
 
-            measuredData = new HashMap<>();
-            loadMeasurements(28, length() - 4);
+            loadMeasurements(offset + 12, offset + getFieldLength(field), projection);
         } catch (ArrayIndexOutOfBoundsException e) {
-            throw new TelegramInvalidException(this, e);
+            throw new TelegramInvalidException(this, "telegram is truncated", e);
         }
     }
 
@@ -44,54 +76,95 @@ public class EnergyMeterTelegram extends Telegram {
         try {
 
             //Tag: "SMA Net 2", version 0 (0x0010) is set
-            if (get2ByteUnsignedInt(14) != 0x0010)
+            int field = findField(TAG_SMA_NET_2);
+            if (field < 0 || getFieldLength(field) < 12)
                 throw new TelegramMismatchException(this, "telegram doesn't contain SMA Net 2 protocol data");
 
             //ProtocolID 0x6069 (energy meter protocol) is set
-            if (get2ByteUnsignedInt(16) != 0x6069)
+            if (get2ByteUnsignedInt(getFieldOffset(field)) != PROTOCOL_ID)
                 throw new TelegramMismatchException(this, "protocol id isn't 0x6069");
 
         } catch (ArrayIndexOutOfBoundsException e) {
-            throw new TelegramInvalidException(this, e);
+            throw new TelegramInvalidException(this, "telegram is truncated", e);
         }
     }
 
-    @SuppressWarnings("SameParameterValue")
-    private void loadMeasurements(int from, int to) throws TelegramInvalidException {
+    /**
+     * Decodes all records of the channels of the projection, all other records are skipped
+     */
+    private void loadMeasurements(int from, int to, ChannelProjection projection) throws TelegramInvalidException {
+        int capacity = (to - from) / 8;
+        if (projection.size() >= 0) capacity = Math.min(capacity, projection.size());
+        //pooled telegrams keep their arrays
+        if (codes == null || codes.length < capacity) {
+            codes = new int[capacity];
+            values = new long[capacity];
+        }
+        count = 0;
+        hint = 0;
+        softwareVersion = -1;
         for (int offset = from; offset < to; ) {
-            OBISIdentifier identifier = new OBISIdentifier(getBytes(offset, 4));
-
-            if (identifier.equals(new OBISIdentifier(144, 0, 0, 0))) {
-                int major = getUnsigned(offset + 4);
-                int minor = getUnsigned(offset + 5);
-                int patch = getUnsigned(offset + 6);
-                char revision = (char) getByte(offset + 7);
-                softwareVersion = major + "." + minor + "." + patch + "." + revision;
+            int code = getInt(offset);
+
+            if (code == SOFTWARE_VERSION) {
+                softwareVersion = getInt(offset + 4) & 0xffffffffL;
                 offset += 8;
                 continue;
             }
 
-            BigInteger value;
-            switch (identifier.getDataLength()) {
-                case 4:
-                    value = get4ByteUnsignedInt(offset + 4);
-                    break;
-                case 8:
-                    value = get8ByteUnsignedInt(offset + 4);
-                    break;
-                default:
-                    throw new TelegramInvalidException(this, "invalid identifier (unknown type): " + identifier);
+            //obis group D (type) is the data length
+            int length = (code >>> 8) & 0xff;
+            if (length != 4 && length != 8)
+                throw new TelegramInvalidException(this, "invalid identifier (unknown type): " + identifier(code));
+            if (offset + 4 + length > to)
+                throw new TelegramInvalidException(this, "record " + identifier(code) + " exceeds the telegram");
+            if (projection.contains(code) && count < codes.length) {
+                codes[count] = code;
+                values[count] = length == 4 ? getInt(offset + 4) & 0xffffffffL : getLong(offset + 4);
+                count++;
             }
-            measuredData.put(identifier, value);
-            offset += 4 + identifier.getDataLength();
+            offset += 4 + length;
         }
+    }
 
-        for (MeasuringChannel<?> channel : EnergyMeterChannels.ALL) {
-            if (!measuredData.containsKey(channel.getIdentifier())) {
-                //log all missing channels
-                System.err.println("telegram missing channel: " + channel.getIdentifier());
-            }
+    /**
+     * Returns the number of decoded records
+     */
+    int recordCount() {
+        return count;
+    }
+
+    /**
+     * Returns the obis code of a decoded record
+     */
+    int recordCode(int index) {
+        return codes[index];
+    }
+
+    /**
+     * Returns the raw value of a decoded record
+     */
+    long recordValue(int index) {
+        return values[index];
+    }
+
+    private static OBISIdentifier identifier(int code) {
+        return new OBISIdentifier(code >>> 24, (code >>> 16) & 0xff, (code >>> 8) & 0xff, code & 0xff);
+    }
+
+    /**
+     * Returns the index of the record with the given code or {@code -1}.<br>
+     * Channels are usually queried in the order they appear in the telegram, so the search starts after the last hit.
+     */
+    private int indexOf(int code) {
+        int start = hint;
+        for (int i = start; i < count; i++) {
+            if (codes[i] == code) return hint = i;
+        }
+        for (int i = 0; i < start && i < count; i++) {
+            if (codes[i] == code) return hint = i;
         }
+        return -1;
     }
 
     /**
@@ -110,7 +183,7 @@ public class EnergyMeterTelegram extends Telegram {
      * Returns the devices serial number (4 byte unsigned integer)
      */
     public BigInteger getSerNo() {
-        return serNo;
+        return BigInteger.valueOf(serNo);
     }
 
     /**
@@ -118,9 +191,25 @@ public class EnergyMeterTelegram extends Telegram {
      * This 4 byte unsigned integer with ms precision will overflow approximately every 50 days and start again at 0.
      */
     public Quantity<Time> getMeasuringTime() {
+        return Quantities.getQuantity(measuringTime, EnergyMeterChannels.UNIT_TIME);
+    }
+
+    /**
+     * Returns the measuring time of the data provided by the telegram in ms.<br>
+     * This 4 byte unsigned integer will overflow approximately every 50 days and start again at 0.
+     */
+    public long getMeasuringTimeMillis() {
         return measuringTime;
     }
 
+    /**
+     * Returns the SMA device address (SUSy ID and serial number) of the device that sent this telegram
+     */
+    @Override
+    public DeviceAddress getDeviceAddress() {
+        return deviceAddress;
+    }
+
     /**
      * <p>
      * Returns the software version string of the smart meter
@@ -130,7 +219,12 @@ public class EnergyMeterTelegram extends Telegram {
      * </p>
      */
     public String getSoftwareVersion() {
-        return softwareVersion;
+        if (softwareVersion < 0) return "unknown";
+        int major = (int) (softwareVersion >>> 24);
+        int minor = (int) (softwareVersion >>> 16) & 0xff;
+        int patch = (int) (softwareVersion >>> 8) & 0xff;
+        char revision = (char) (byte) softwareVersion;
+        return major + "." + minor + "." + patch + "." + revision;
     }
 
     /**
@@ -142,9 +236,33 @@ public class EnergyMeterTelegram extends Telegram {
      * @throws IllegalArgumentException if the telegram does not contain valid data for the given channel
      */
     public <Q extends Quantity<Q>> Quantity<Q> getData(MeasuringChannel<Q> channel) throws IllegalArgumentException {
-        BigInteger value = measuredData.get(channel.getIdentifier());
-        if (value == null) throw new IllegalArgumentException("channel '" + channel + "' is not defined");
-        return Quantities.getQuantity(value, channel.getUnit());
+        long value = getRawData(channel);
+        BigInteger unsigned = value >= 0 ? BigInteger.valueOf(value) : new BigInteger(Long.toUnsignedString(value));
+        return Quantities.getQuantity(unsigned, channel.getUnit());
+    }
+
+    /**
+     * Returns {@code true} if the telegram contains data for the given channel.<br>
+     * Channels that are not part of the {@link ChannelProjection} the telegram was decoded with are not contained.
+     *
+     * @param channel channel to check
+     */
+    public boolean hasData(MeasuringChannel<?> channel) {
+        return indexOf(ChannelProjection.code(channel.getIdentifier())) >= 0;
+    }
+
+    /**
+     * Retrieves the raw measured value of a given channel, in the unit of the channel ({@link MeasuringChannel#getUnit()})
+     * without converting it to a quantity.
+     *
+     * @param channel channel of the data that should be retrieved
+     * @return the raw measured value of the given channel
+     * @throws IllegalArgumentException if the telegram does not contain valid data for the given channel
+     */
+    public long getRawData(MeasuringChannel<?> channel) throws IllegalArgumentException {
+        int index = indexOf(ChannelProjection.code(channel.getIdentifier()));
+        if (index < 0) throw new IllegalArgumentException("channel '" + channel + "' is not defined");
+        return values[index];
     }
 
 
@@ -0,0 +1,110 @@
+package io.github.joblo2213.sma.speedwire.protocol.telegrams;
+
+/**
+ * <p>
+ * A single record of an {@link InverterTelegram} response.
+ * </p><p>
+ * Each record starts with a 4 byte code consisting of the data type (highest byte), the logical record index
+ * (LRI, middle two bytes) and the class (lowest byte), followed by a 4 byte timestamp and one or more values.
+ * Counters (e.g. total yield) are transferred in 16 byte records containing a single 8 byte value, instantaneous
+ * values (e.g. ac power) in 28 byte records containing 4 byte values.
+ * </p>
+ */
+public class InverterRecord {
+
+    /**
+     * Value used by inverters for signed 4 byte values that are not available
+     */
+    public static final long NAN_S32 = 0x80000000L;
+
+    /**
+     * Value used by inverters for unsigned 4 byte values that are not available
+     */
+    public static final long NAN_U32 = 0xffffffffL;
+
+    private final InverterTelegram telegram;
+    private final int offset;
+    private final int size;
+
+    InverterRecord(InverterTelegram telegram, int offset, int size) {
+        this.telegram = telegram;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    /**
+     * Returns the logical record index (e.g. {@code 0x263F00} for the total ac power)
+     */
+    public int getLRI() {
+        return (int) telegram.getLE4(offset) & 0x00ffff00;
+    }
+
+    /**
+     * Returns the class of the record (lowest byte of the record code)
+     */
+    public int getRecordClass() {
+        return telegram.getUnsigned(offset);
+    }
+
+    /**
+     * Returns the data type of the record (highest byte of the record code)
+     */
+    public int getDataType() {
+        return telegram.getUnsigned(offset + 3);
+    }
+
+    /**
+     * Returns the time the value was recorded in seconds since the unix epoch
+     */
+    public long getTimestamp() {
+        return telegram.getLE4(offset + 4);
+    }
+
+    /**
+     * Returns the size of this record in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the offset of this record inside its telegram
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the value of the record.<br>
+     * For 16 byte records this is the 8 byte counter value, otherwise the first 4 byte value of the record,
+     * sign extended for negative values. Use {@link #isAvailable()} to check whether the device provided a value.
+     */
+    public long getValue() {
+        if (size == 16) return telegram.getLE8(offset + 8);
+        return (int) telegram.getLE4(offset + 8);
+    }
+
+    /**
+     * Returns the {@code index}-th 4 byte value of the record, interpreted as unsigned integer
+     *
+     * @param index index of the value, starting at 0
+     */
+    public long getUnsignedValue(int index) {
+        if (8 + 4 * (index + 1) > size) throw new IndexOutOfBoundsException("record contains no value " + index);
+        return telegram.getLE4(offset + 8 + 4 * index);
+    }
+
+    /**
+     * Returns {@code false} if the record contains one of the values the inverter uses to mark missing data
+     */
+    public boolean isAvailable() {
+        if (size == 16) return telegram.getLE8(offset + 8) != -1L;
+        long raw = telegram.getLE4(offset + 8);
+        return raw != NAN_S32 && raw != NAN_U32;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%06X.%02X = %d", getLRI(), getRecordClass(), getValue());
+    }
+}
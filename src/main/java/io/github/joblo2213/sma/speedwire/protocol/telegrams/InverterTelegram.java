@@ -0,0 +1,217 @@
+package io.github.joblo2213.sma.speedwire.protocol.telegrams;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramInvalidException;
+import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramMismatchException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * A telegram of the SMA Net 2 inverter protocol (protocol id 0x6065).
+ * </p><p>
+ * Inverters don't send data on their own, they answer requests that are sent to them via unicast.
+ * Requests and responses share the same header which contains the addresses of destination and source, an error code,
+ * the packet id used for matching responses to requests and the command.
+ * Responses to data requests contain a list of {@link InverterRecord records}.
+ * </p><p>
+ * Unlike the rest of the speedwire header, all fields of the inverter protocol are encoded in little endian.
+ * </p>
+ */
+public class InverterTelegram extends Telegram {
+
+    /**
+     * Offset of the first record of a response
+     */
+    public static final int RECORDS_OFFSET = 54;
+
+    /**
+     * Protocol id of the inverter protocol
+     */
+    static final int PROTOCOL_ID = 0x6065;
+
+    private static final int SMA_NET_2_OFFSET = 16;
+    private static final int CONTROL_REQUEST = 0xA0;
+
+    private final int control;
+    private final DeviceAddress destination;
+    private final DeviceAddress source;
+    private final int errorCode;
+    private final int fragmentId;
+    private final int packetId;
+    private final int command;
+    private final int first;
+    private final int last;
+    private final List<InverterRecord> records;
+
+    InverterTelegram(Telegram telegram) throws TelegramInvalidException, TelegramMismatchException {
+        super(telegram);
+        try {
+            control = getByte(19) & 0xff;
+            destination = new DeviceAddress(getLE2(20), getLE4(22));
+            source = new DeviceAddress(getLE2(28), getLE4(30));
+            errorCode = getLE2(36);
+            fragmentId = getLE2(38);
+            packetId = getLE2(40) & 0x7fff;
+            command = (int) getLE4(42);
+            first = (int) getLE4(46);
+            last = (int) getLE4(50);
+            records = loadRecords();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new TelegramInvalidException(this, "telegram is truncated", e);
+        }
+    }
+
+    @Override
+    protected void validate() throws TelegramInvalidException, TelegramMismatchException {
+        super.validate();
+        try {
+
+            //Tag: "SMA Net 2", version 0 (0x0010) is set
+            int field = findField(TAG_SMA_NET_2);
+            if (field < 0 || getFieldLength(field) < 2)
+                throw new TelegramMismatchException(this, "telegram doesn't contain SMA Net 2 protocol data");
+
+            //ProtocolID 0x6065 (inverter protocol) is set
+            if (get2ByteUnsignedInt(getFieldOffset(field)) != PROTOCOL_ID)
+                throw new TelegramMismatchException(this, "protocol id isn't 0x6065");
+
+            //all offsets of the inverter protocol are relative to the start of the telegram
+            if (getFieldOffset(field) != SMA_NET_2_OFFSET || getFieldOffset(field) + getFieldLength(field) < RECORDS_OFFSET)
+                throw new TelegramInvalidException(this, "inverter telegram is too short: " + length() + " bytes");
+
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new TelegramInvalidException(this, "telegram is truncated", e);
+        }
+    }
+
+    private List<InverterRecord> loadRecords() throws TelegramInvalidException {
+        int field = findField(TAG_SMA_NET_2);
+        int payload = getFieldOffset(field) + getFieldLength(field) - RECORDS_OFFSET;
+        int count = last - first + 1;
+        //the fields of a request behind the command aren't record indices (e.g. user group and timeout of a login)
+        if (isRequest() || payload == 0 || errorCode != 0 || count <= 0) return Collections.emptyList();
+        if (payload % count != 0 || payload / count < 8)
+            throw new TelegramInvalidException(this, "invalid record size (" + payload + " bytes, " + count + " records)");
+        int recordSize = payload / count;
+        List<InverterRecord> list = new ArrayList<>(count);
+        for (int offset = RECORDS_OFFSET; offset < RECORDS_OFFSET + payload; offset += recordSize) {
+            list.add(new InverterRecord(this, offset, recordSize));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns a two byte sized, unsigned little endian integer from a specified position of the telegrams data
+     */
+    int getLE2(int index) {
+        return (getByte(index) & 0xff) | ((getByte(index + 1) & 0xff) << 8);
+    }
+
+    /**
+     * Returns a four byte sized, unsigned little endian integer from a specified position of the telegrams data
+     */
+    long getLE4(int index) {
+        return (getLE2(index) | ((long) getLE2(index + 2) << 16));
+    }
+
+    /**
+     * Returns an eight byte sized, little endian integer from a specified position of the telegrams data
+     */
+    long getLE8(int index) {
+        return getLE4(index) | (getLE4(index + 4) << 32);
+    }
+
+    /**
+     * Returns the address of the device this telegram was sent to
+     */
+    public DeviceAddress getDestination() {
+        return destination;
+    }
+
+    /**
+     * Returns the address of the device that sent this telegram
+     */
+    public DeviceAddress getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the address of the device that sent this telegram, same as {@link #getSource()}
+     */
+    @Override
+    public DeviceAddress getDeviceAddress() {
+        return source;
+    }
+
+    /**
+     * Returns {@code true} if this telegram is a request (control byte 0xA0), {@code false} for responses
+     */
+    public boolean isRequest() {
+        return control == CONTROL_REQUEST;
+    }
+
+    /**
+     * Returns the error code of a response, {@code 0} if the request was successful
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Returns the fragment id.<br>
+     * Responses split into multiple telegrams count this id down to 0.
+     */
+    public int getFragmentId() {
+        return fragmentId;
+    }
+
+    /**
+     * Returns the 15 bit packet id that is used for matching responses to their request
+     */
+    public int getPacketId() {
+        return packetId;
+    }
+
+    /**
+     * Returns the command of the telegram
+     */
+    public int getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the first requested item (for requests) or the index of the first record (for responses)
+     */
+    public int getFirst() {
+        return first;
+    }
+
+    /**
+     * Returns the last requested item (for requests) or the index of the last record (for responses)
+     */
+    public int getLast() {
+        return last;
+    }
+
+    /**
+     * Returns the records of a response, the list is empty for requests and unsuccessful responses
+     */
+    public List<InverterRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * Returns the first record with the given logical record index or {@code null} if the telegram does not contain it
+     *
+     * @param lri logical record index (e.g. {@code 0x263F00} for the total ac power)
+     */
+    public InverterRecord getRecord(int lri) {
+        for (InverterRecord record : records) {
+            if (record.getLRI() == lri) return record;
+        }
+        return null;
+    }
+}
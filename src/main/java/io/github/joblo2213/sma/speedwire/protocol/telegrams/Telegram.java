@@ -1,5 +1,6 @@
 package io.github.joblo2213.sma.speedwire.protocol.telegrams;
 
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
 import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramException;
 import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramInvalidException;
 import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramMismatchException;
@@ -8,6 +9,7 @@ import java.math.BigInteger;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 /**
@@ -17,15 +19,140 @@ import java.util.stream.IntStream;
  */
 public class Telegram {
 
-    private final InetAddress origin;
-    private final byte[] data;
+    /**
+     * Tag of the field that marks the end of a telegram
+     */
+    public static final int TAG_END = 0x0000;
+
+    /**
+     * Tag of the field containing the group the sending device belongs to
+     */
+    public static final int TAG_GROUP = 0x02A0;
+
+    /**
+     * Tag of the "SMA Net 2" field containing the protocol id and the protocol data
+     */
+    public static final int TAG_SMA_NET_2 = 0x0010;
+
+    /**
+     * Tag of the field that is appended to forwarded telegrams by a relay, containing the original origin and the
+     * relays the telegram passed (not used by SMA devices)
+     *
+     * @see io.github.joblo2213.sma.speedwire.relay.SpeedwireRelay
+     */
+    public static final int TAG_RELAY = 0x0FF0;
+
+    private final TelegramPool pool;
+    private final AtomicInteger references;
+    private InetAddress origin;
+    private byte[] data;
+    private int length;
+    //field index: tag (16 bit), payload offset (24 bit), payload length (24 bit) packed into a long per field
+    private long[] fields = new long[8];
+    private int fieldCount;
+    private boolean indexed;
 
     Telegram(InetAddress origin, byte[] data) throws TelegramInvalidException, TelegramMismatchException {
+        this.pool = null;
+        this.references = null;
         this.origin = origin;
         this.data = data;
+        this.length = data.length;
+        validate();
+    }
+
+    /**
+     * Creates a telegram from an already validated telegram, taking over its data and its field index.<br>
+     * Only the checks of the subclass are run, the fields are not walked again.
+     */
+    Telegram(Telegram telegram) throws TelegramInvalidException, TelegramMismatchException {
+        this.pool = null;
+        this.references = null;
+        this.origin = telegram.origin;
+        this.data = telegram.data;
+        this.length = telegram.length;
+        this.fields = telegram.fields;
+        this.fieldCount = telegram.fieldCount;
+        this.indexed = telegram.indexed;
         validate();
     }
 
+    /**
+     * Creates an empty telegram that is owned by a pool and filled using {@link #reset(InetAddress, byte[], int, int, ChannelProjection)}
+     */
+    Telegram(TelegramPool pool, int capacity) {
+        this.pool = pool;
+        this.references = new AtomicInteger();
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Reinitializes a pooled telegram with the data of a received packet, validates and decodes it
+     */
+    void reset(InetAddress origin, byte[] buf, int offset, int length, ChannelProjection projection)
+            throws TelegramInvalidException, TelegramMismatchException {
+        if (data.length < length) data = new byte[length];
+        System.arraycopy(buf, offset, data, 0, length);
+        this.origin = origin;
+        this.length = length;
+        this.fieldCount = 0;
+        this.indexed = false;
+        references.set(1);
+        validate();
+        decode(projection);
+    }
+
+    /**
+     * Decodes the payload of a validated telegram, subclasses decode their data here
+     *
+     * @param projection channels of energy meter telegrams that should be decoded
+     * @throws TelegramInvalidException if the payload is malformed
+     */
+    void decode(ChannelProjection projection) throws TelegramInvalidException {
+    }
+
+    /**
+     * <p>
+     * Marks the telegram as used by one more consumer.
+     * </p><p>
+     * Pooled telegrams (see {@link TelegramPool}) are recycled as soon as all callbacks returned. Callbacks that
+     * need a pooled telegram after returning (e.g. to process it asynchronously) have to retain it and call
+     * {@link #release()} once they are done. For telegrams that are not pooled both methods have no effect.
+     * </p>
+     *
+     * @return this telegram
+     */
+    public Telegram retain() {
+        if (references != null && references.getAndIncrement() <= 0) {
+            references.decrementAndGet();
+            throw new IllegalStateException("telegram was already released");
+        }
+        return this;
+    }
+
+    /**
+     * Releases a reference to the telegram, a pooled telegram is recycled once all references were released.
+     *
+     * @see #retain()
+     */
+    public void release() {
+        if (references == null) return;
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) pool.recycle(this);
+        else if (remaining < 0) throw new IllegalStateException("telegram was released more often than retained");
+    }
+
+    TelegramPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns {@code true} if this telegram is owned by a {@link TelegramPool} and will be recycled
+     */
+    public boolean isPooled() {
+        return pool != null;
+    }
+
     /**
      * <p>
      * Parses the given datagram packet into a telegram<br>
@@ -33,7 +160,7 @@ public class Telegram {
      * requirements.
      * </p><p>
      * Currently implemented subclasses:<br>
-     * {@link DiscoveryResponse}, {@link EnergyMeterTelegram}
+     * {@link DiscoveryResponse}, {@link EnergyMeterTelegram}, {@link InverterTelegram}
      * </p>
      *
      * @param packet packet that should be parsed as speedwire telegram
@@ -41,23 +168,45 @@ public class Telegram {
      * @throws TelegramInvalidException if the packet is not a valid telegram
      */
     public static Telegram from(DatagramPacket packet) throws TelegramInvalidException {
+        return from(packet, ChannelProjection.ALL);
+    }
+
+    /**
+     * Parses the given datagram packet into a telegram, energy meter telegrams only contain the channels of the
+     * given projection.
+     *
+     * @param packet     packet that should be parsed as speedwire telegram
+     * @param projection channels of energy meter telegrams that should be decoded
+     * @return parsed telegram
+     * @throws TelegramInvalidException if the packet is not a valid telegram
+     * @see #from(DatagramPacket)
+     */
+    public static Telegram from(DatagramPacket packet, ChannelProjection projection) throws TelegramInvalidException {
         byte[] data = Arrays.copyOfRange(
                 packet.getData(),
                 packet.getOffset(),
                 packet.getOffset() + packet.getLength()
         );
+        Telegram telegram;
         try {
-            return new DiscoveryResponse(packet.getAddress(), data);
-        } catch (TelegramMismatchException ignored) {
-        }
-        try {
-            return new EnergyMeterTelegram(packet.getAddress(), data);
-        } catch (TelegramMismatchException ignored) {
+            telegram = new Telegram(packet.getAddress(), data);
+        } catch (TelegramMismatchException e) {
+            throw new RuntimeException("telegram doesn't match default telegram", e); //this should never occur
         }
+        //the fields are indexed once, only the subclass matching the header and the protocol id is constructed
         try {
-            return new Telegram(packet.getAddress(), data);
+            if (DiscoveryResponse.matches(telegram)) return new DiscoveryResponse(telegram);
+            switch (telegram.getProtocolId()) {
+                case EnergyMeterTelegram.PROTOCOL_ID:
+                    return new EnergyMeterTelegram(telegram, projection);
+                case InverterTelegram.PROTOCOL_ID:
+                    return new InverterTelegram(telegram);
+                default:
+                    return telegram;
+            }
         } catch (TelegramMismatchException e) {
-            throw new RuntimeException("telegram doesn't match default telegram", e); //this should never occur
+            //the SMA Net 2 field is too short for its protocol
+            return telegram;
         }
     }
 
@@ -67,30 +216,116 @@ public class Telegram {
      * @throws TelegramInvalidException if the telegram data does violate the required data format
      */
     protected void validate() throws TelegramInvalidException, TelegramMismatchException {
+        //telegrams created from an already validated telegram share its field index
+        if (indexed) return;
         try {
             //check identification string
-            if (!new String(getUnsigned(0, 3), 0, 3).equals("SMA") || getUnsigned(3) != 0)
+            if (getByte(0) != 'S' || getByte(1) != 'M' || getByte(2) != 'A' || getByte(3) != 0)
                 throw new TelegramInvalidException(this, "telegram doesn't start with id String \"S\", \"M\", \"A\", 0");
 
-            //check end
-            if (get2ByteUnsignedInt(length() - 4) != 0 || get2ByteUnsignedInt(length() - 2) != 0)
+            indexFields();
+            indexed = true;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new TelegramInvalidException(this, "telegram is truncated", e);
+        }
+    }
+
+    /**
+     * <p>
+     * Walks all fields of the telegram in a single pass and builds the field index.
+     * </p><p>
+     * All telegrams consist of multiple fields following the id string.
+     * Each field starts with a 2 Byte unsigned int that specifies the length of the payload followed by a 2 Byte tag.
+     * Known tags are {@link #TAG_GROUP}, {@link #TAG_SMA_NET_2} which indicates a data packet and {@link #TAG_END}
+     * (with length 0) which indicates the end of the telegram.
+     * The tag is followed by the payload with the given length.
+     * </p><p>
+     * More incomplete information can be found under:
+     * https://www.sma.de/fileadmin/content/global/Partner/Documents/SMA_Labs/EMETER-Protokoll-TI-en-10.pdf
+     * </p>
+     *
+     * @throws TelegramInvalidException if a field exceeds the telegram or the end field is missing
+     */
+    private void indexFields() throws TelegramInvalidException {
+        int offset = 4;
+        while (true) {
+            if (offset + 4 > length())
                 throw new TelegramInvalidException(this, "telegram seems to be incomplete (must end with 0x00, 0x00, 0x00, 0x00)");
+            int payloadLength = get2ByteUnsignedInt(offset);
+            int tag = get2ByteUnsignedInt(offset + 2);
+            if (tag == TAG_END && payloadLength == 0) {
+                if (offset + 4 != length())
+                    throw new TelegramInvalidException(this, "telegram contains " + (length() - offset - 4) + " bytes after the end field");
+                return;
+            }
+            //each field must leave room for the end field
+            if (offset + 4 + payloadLength > length() - 4)
+                throw new TelegramInvalidException(this, String.format(
+                        "field 0x%04x at offset %d exceeds the telegram (length %d)", tag, offset, payloadLength));
+            if (fieldCount == fields.length) fields = Arrays.copyOf(fields, fieldCount * 2);
+            fields[fieldCount++] = ((long) tag << 48) | ((long) (offset + 4) << 24) | payloadLength;
+            offset += 4 + payloadLength;
+        }
+    }
 
-        /* TODO
-            Check the integrity of the given fields:
+    /**
+     * Returns the number of fields of this telegram (excluding the end field)
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
 
-           All telegrams seem to consist of multiple fields.
-           Each field starts with a 2 Byte unsigned int that specifies the length of the payload followed by a 2 Byte tag.
-           The tags and their functions remain unclear, known are "SMA Net 2" (0x0010) which indicates a data packet and
-           "end" (0x0000) which indicates the end of the telegram.
-           The tag is followed by the payload with the given length.
+    /**
+     * Returns the tag of a field
+     *
+     * @param field index of the field, starting at 0
+     */
+    public int getFieldTag(int field) {
+        return (int) (field(field) >>> 48);
+    }
 
-           More incomplete information can be found under:
-           https://www.sma.de/fileadmin/content/global/Partner/Documents/SMA_Labs/EMETER-Protokoll-TI-en-10.pdf
-         */
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new TelegramInvalidException(this, e);
+    /**
+     * Returns the offset of the payload of a field inside the telegram
+     *
+     * @param field index of the field, starting at 0
+     */
+    public int getFieldOffset(int field) {
+        return (int) (field(field) >>> 24) & 0xffffff;
+    }
+
+    /**
+     * Returns the payload length of a field in bytes
+     *
+     * @param field index of the field, starting at 0
+     */
+    public int getFieldLength(int field) {
+        return (int) field(field) & 0xffffff;
+    }
+
+    /**
+     * Returns the index of the first field with the given tag or {@code -1} if the telegram doesn't contain it
+     *
+     * @param tag tag of the field, e.g. {@link #TAG_SMA_NET_2}
+     */
+    public int findField(int tag) {
+        for (int i = 0; i < fieldCount; i++) {
+            if ((fields[i] >>> 48) == tag) return i;
         }
+        return -1;
+    }
+
+    /**
+     * Returns the protocol id of the SMA Net 2 field or {@code -1} if the telegram doesn't contain it
+     */
+    int getProtocolId() {
+        int field = findField(TAG_SMA_NET_2);
+        if (field < 0 || getFieldLength(field) < 2) return -1;
+        return get2ByteUnsignedInt(getFieldOffset(field));
+    }
+
+    private long field(int field) {
+        if (field < 0 || field >= fieldCount) throw new IndexOutOfBoundsException("telegram has no field " + field);
+        return fields[field];
     }
 
     /**
@@ -100,11 +335,19 @@ public class Telegram {
         return origin;
     }
 
+    /**
+     * Returns the SMA device address (SUSy ID and serial number) of the device that sent this telegram or
+     * {@code null} if the telegram doesn't contain it
+     */
+    public DeviceAddress getDeviceAddress() {
+        return null;
+    }
+
     /**
      * Returns the total length of this telegram in bytes
      */
     public int length() {
-        return data.length;
+        return length;
     }
 
     /**
@@ -119,6 +362,7 @@ public class Telegram {
      * @return the value at the given position as signed byte
      */
     public byte getByte(int index) {
+        if (index >= length) throw new ArrayIndexOutOfBoundsException(index);
         return data[index];
     }
 
@@ -145,6 +389,7 @@ public class Telegram {
      * @return an array containing a copy of the telegram data with the given range as signed bytes
      */
     public byte[] getBytes(int index, int length) {
+        if (index + length > this.length) throw new ArrayIndexOutOfBoundsException(index + length);
         return Arrays.copyOfRange(data, index, index + length);
     }
 
@@ -192,6 +437,20 @@ public class Telegram {
         return ((getByte(index) << 8) & 0x0000ff00) | (getByte(index + 1) & 0x000000ff);
     }
 
+    /**
+     * Returns a four byte sized integer from a specified position of the telegrams data without allocating
+     */
+    int getInt(int index) {
+        return (get2ByteUnsignedInt(index) << 16) | get2ByteUnsignedInt(index + 2);
+    }
+
+    /**
+     * Returns an eight byte sized integer from a specified position of the telegrams data without allocating
+     */
+    long getLong(int index) {
+        return ((long) getInt(index) << 32) | (getInt(index + 4) & 0xffffffffL);
+    }
+
     /**
      * Returns a four byte sized, unsigned integer from a specified position of the telegrams data
      *
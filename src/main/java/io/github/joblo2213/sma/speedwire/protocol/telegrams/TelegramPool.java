@@ -0,0 +1,159 @@
+package io.github.joblo2213.sma.speedwire.protocol.telegrams;
+
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramInvalidException;
+import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramMismatchException;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A pool of recycled {@link EnergyMeterTelegram} instances.
+ * </p><p>
+ * Energy meters send a telegram about every second, so they make up the bulk of the received traffic. Telegrams decoded
+ * by the pool are reused once they were released (see {@link Telegram#release()}), their buffers and decoded records
+ * are overwritten in place. Device addresses and origins are interned, so decoding a telegram of a known device does
+ * not allocate in steady state. All other telegrams are decoded using {@link Telegram#from(DatagramPacket, ChannelProjection)}.
+ * </p><p>
+ * The pool is thread safe.
+ * </p>
+ */
+public final class TelegramPool {
+
+    private static final int MAX_ORIGINS = 4096;
+
+    private final ArrayBlockingQueue<EnergyMeterTelegram> free;
+    private final ConcurrentHashMap<InetAddress, InetAddress> origins = new ConcurrentHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+    //open addressing table of interned device addresses, replaced on write
+    private volatile DeviceAddress[] addresses = new DeviceAddress[64];
+    private int addressCount;
+
+    /**
+     * Creates a new pool
+     *
+     * @param capacity maximum number of idle telegrams kept by the pool
+     */
+    public TelegramPool(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Parses the given datagram packet into a telegram, energy meter telegrams are taken from the pool.<br>
+     * The packet may be reused as soon as this method returned.
+     *
+     * @param packet     packet that should be parsed as speedwire telegram
+     * @param projection channels of energy meter telegrams that should be decoded
+     * @return parsed telegram, has to be released using {@link Telegram#release()} once it is no longer used
+     * @throws TelegramInvalidException if the packet is not a valid telegram
+     * @see Telegram#from(DatagramPacket, ChannelProjection)
+     */
+    public Telegram decode(DatagramPacket packet, ChannelProjection projection) throws TelegramInvalidException {
+        if (!isEnergyMeterPacket(packet)) return Telegram.from(packet, projection);
+        EnergyMeterTelegram telegram = free.poll();
+        if (telegram == null) {
+            telegram = new EnergyMeterTelegram(this);
+            created.incrementAndGet();
+        }
+        //invalid telegrams are referenced by their exception and therefore not recycled
+        try {
+            telegram.reset(intern(packet.getAddress()), packet.getData(), packet.getOffset(), packet.getLength(), projection);
+            return telegram;
+        } catch (TelegramMismatchException e) {
+            //the cheap pre-check matched, but the field walker disagrees
+            free.offer(telegram);
+            return Telegram.from(packet, projection);
+        }
+    }
+
+    /**
+     * Checks the tag and the protocol id at the position where energy meters put them, without copying the packet
+     */
+    private static boolean isEnergyMeterPacket(DatagramPacket packet) {
+        if (packet.getLength() < 28) return false;
+        byte[] buf = packet.getData();
+        int offset = packet.getOffset();
+        return buf[offset + 14] == 0x00 && buf[offset + 15] == 0x10
+                && buf[offset + 16] == 0x60 && buf[offset + 17] == 0x69;
+    }
+
+    /**
+     * Returns a released telegram to the pool
+     */
+    void recycle(Telegram telegram) {
+        if (telegram instanceof EnergyMeterTelegram) free.offer((EnergyMeterTelegram) telegram);
+    }
+
+    /**
+     * Returns the interned origin equal to the given address
+     */
+    private InetAddress intern(InetAddress origin) {
+        InetAddress interned = origins.get(origin);
+        if (interned != null) return interned;
+        if (origins.size() >= MAX_ORIGINS) return origin;
+        interned = origins.putIfAbsent(origin, origin);
+        return interned != null ? interned : origin;
+    }
+
+    /**
+     * Returns the interned device address with the given SUSy ID and serial number
+     */
+    DeviceAddress intern(int SUSyID, long serNo) {
+        DeviceAddress[] table = addresses;
+        int mask = table.length - 1;
+        for (int i = hash(SUSyID, serNo) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (table[i].getSUSyID() == SUSyID && table[i].getSerNo() == serNo) return table[i];
+        }
+        return insert(new DeviceAddress(SUSyID, serNo));
+    }
+
+    private synchronized DeviceAddress insert(DeviceAddress address) {
+        DeviceAddress[] table = addresses;
+        int mask = table.length - 1;
+        int i = hash(address.getSUSyID(), address.getSerNo()) & mask;
+        for (; table[i] != null; i = (i + 1) & mask) {
+            if (table[i].equals(address)) return table[i];
+        }
+        //keep the load factor below 1/2
+        int capacity = (addressCount + 1) * 2 > table.length ? table.length * 2 : table.length;
+        DeviceAddress[] copy = new DeviceAddress[capacity];
+        for (DeviceAddress a : table) {
+            if (a != null) place(copy, a);
+        }
+        place(copy, address);
+        addressCount++;
+        addresses = copy;
+        return address;
+    }
+
+    private static void place(DeviceAddress[] table, DeviceAddress address) {
+        int mask = table.length - 1;
+        int i = hash(address.getSUSyID(), address.getSerNo()) & mask;
+        while (table[i] != null) i = (i + 1) & mask;
+        table[i] = address;
+    }
+
+    private static int hash(int SUSyID, long serNo) {
+        int h = (int) serNo * 31 + SUSyID;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the number of idle telegrams in the pool
+     */
+    public int available() {
+        return free.size();
+    }
+
+    /**
+     * Returns the number of telegrams created by the pool so far
+     */
+    public long created() {
+        return created.get();
+    }
+}
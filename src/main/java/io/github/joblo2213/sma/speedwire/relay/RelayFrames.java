@@ -0,0 +1,128 @@
+package io.github.joblo2213.sma.speedwire.relay;
+
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.Telegram;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Encoding of relayed telegrams and of the batch frames exchanged between relays.
+ * </p><p>
+ * <b>Relay field</b> ({@link Telegram#TAG_RELAY}), appended right before the end field of a forwarded telegram:
+ * </p><pre>
+ * 1 byte   number of relays n
+ * 1 byte   length of the origin address (4 or 16)
+ * 4/16     address of the device that originally sent the telegram
+ * n*4      ids of the relays the telegram passed, in order
+ * </pre><p>
+ * <b>Batch frame</b>, a single udp datagram carrying multiple telegrams over a WAN hop:
+ * </p><pre>
+ * 4 bytes  magic "SWRB"
+ * 4 bytes  id of the sending relay
+ * 4 bytes  sequence number of the frame
+ * 2 bytes  number of telegrams
+ * per telegram: 2 bytes length followed by the (tagged) telegram
+ * </pre>
+ * All values are big-endian like the speedwire protocol itself.
+ */
+class RelayFrames {
+
+    static final int MAGIC = 0x53575242;
+    static final int HEADER_LENGTH = 14;
+
+    private RelayFrames() {
+    }
+
+    /**
+     * Returns the ids of the relays a telegram passed, an empty array if it wasn't relayed
+     */
+    static int[] path(Telegram telegram) {
+        int field = telegram.findField(Telegram.TAG_RELAY);
+        if (field < 0) return new int[0];
+        int offset = telegram.getFieldOffset(field);
+        int count = telegram.getUnsigned(offset);
+        int start = offset + 2 + telegram.getUnsigned(offset + 1);
+        if (start + count * 4 > offset + telegram.getFieldLength(field)) return new int[0];
+        int[] path = new int[count];
+        for (int i = 0; i < count; i++) {
+            path[i] = telegram.get4ByteUnsignedInt(start + i * 4).intValue();
+        }
+        return path;
+    }
+
+    /**
+     * Returns the address of the device that originally sent a telegram
+     */
+    static InetAddress origin(Telegram telegram) {
+        int field = telegram.findField(Telegram.TAG_RELAY);
+        if (field < 0) return telegram.getOrigin();
+        int offset = telegram.getFieldOffset(field);
+        int length = telegram.getUnsigned(offset + 1);
+        if (2 + length > telegram.getFieldLength(field)) return telegram.getOrigin();
+        try {
+            return InetAddress.getByAddress(telegram.getBytes(offset + 2, length));
+        } catch (UnknownHostException e) {
+            return telegram.getOrigin();
+        }
+    }
+
+    /**
+     * Returns the original origin stored in the relay field of an undecoded telegram
+     *
+     * @param buf    buffer containing the telegram
+     * @param offset offset of the telegram in the buffer
+     * @param length length of the telegram
+     * @return the original origin, {@code null} if the telegram doesn't contain a valid relay field
+     */
+    static InetAddress origin(byte[] buf, int offset, int length) {
+        int end = offset + length;
+        for (int field = offset + 4; field + 4 <= end; ) {
+            int payloadLength = ((buf[field] & 0xff) << 8) | (buf[field + 1] & 0xff);
+            int tag = ((buf[field + 2] & 0xff) << 8) | (buf[field + 3] & 0xff);
+            if (tag == Telegram.TAG_END && payloadLength == 0) return null;
+            int payload = field + 4;
+            if (payload + payloadLength > end) return null;
+            if (tag == Telegram.TAG_RELAY && payloadLength >= 2) {
+                int addressLength = buf[payload + 1] & 0xff;
+                if (2 + addressLength > payloadLength) return null;
+                try {
+                    return InetAddress.getByAddress(Arrays.copyOfRange(buf, payload + 2, payload + 2 + addressLength));
+                } catch (UnknownHostException e) {
+                    return null;
+                }
+            }
+            field = payload + payloadLength;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the bytes of a telegram with a new relay field, an existing relay field is replaced.
+     *
+     * @param telegram telegram to forward
+     * @param origin   address of the device that originally sent the telegram
+     * @param path     relays the telegram passed including the forwarding relay
+     */
+    static byte[] tag(Telegram telegram, InetAddress origin, int[] path) {
+        byte[] address = origin.getAddress();
+        int relayLength = 2 + address.length + path.length * 4;
+        ByteBuffer out = ByteBuffer.allocate(telegram.length() + 4 + relayLength);
+        out.put(telegram.getBytes(0, 4));
+        for (int i = 0; i < telegram.getFieldCount(); i++) {
+            if (telegram.getFieldTag(i) == Telegram.TAG_RELAY) continue;
+            int offset = telegram.getFieldOffset(i) - 4;
+            out.put(telegram.getBytes(offset, telegram.getFieldLength(i) + 4));
+        }
+        out.putShort((short) relayLength).putShort((short) Telegram.TAG_RELAY);
+        out.put((byte) path.length).put((byte) address.length).put(address);
+        for (int id : path) out.putInt(id);
+        //end field
+        out.putInt(0);
+        byte[] result = new byte[out.position()];
+        out.flip().get(result);
+        return result;
+    }
+}
@@ -0,0 +1,180 @@
+package io.github.joblo2213.sma.speedwire.relay;
+
+import io.github.joblo2213.sma.speedwire.Speedwire;
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.SpeedwireErrorHandler;
+import io.github.joblo2213.sma.speedwire.protocol.exceptions.TelegramException;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.Telegram;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Receives the batch frames of {@link SpeedwireRelay}s on a unicast port, e.g. on a central collector.
+ * </p><p>
+ * The telegrams of each frame are decoded as if they were received from the device that originally sent them, so
+ * {@link Telegram#getOrigin()} returns the address of the device instead of the relay. They are passed to the
+ * registered callbacks and can be published into local segments using {@link #addTarget(Speedwire)}. Lost frames are
+ * detected by their sequence numbers.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * RelayReceiver receiver = new RelayReceiver(new InetSocketAddress(9523));
+ * receiver.onData(telegram -> ...);
+ * receiver.start();
+ * }</pre>
+ */
+public class RelayReceiver extends Thread implements AutoCloseable {
+
+    private static final int MAX_FRAME = 65535;
+
+    private final DatagramSocket socket;
+    private final CopyOnWriteArraySet<SpeedwireCallback<Telegram>> callbacks = new CopyOnWriteArraySet<>();
+    private final CopyOnWriteArraySet<Speedwire> segments = new CopyOnWriteArraySet<>();
+    private final CopyOnWriteArraySet<SpeedwireErrorHandler> errorHandlers = new CopyOnWriteArraySet<>();
+    //next expected sequence number of each relay, only accessed by the receiver thread
+    private final HashMap<Integer, Integer> sequences = new HashMap<>();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong lostFrames = new AtomicLong();
+    private final AtomicLong telegrams = new AtomicLong();
+
+    /**
+     * Creates a new receiver.
+     *
+     * @param bindAddress local address and port the receiver listens on
+     * @throws IOException if the socket could not be opened
+     */
+    public RelayReceiver(InetSocketAddress bindAddress) throws IOException {
+        super("Speedwire-relay-receiver");
+        setDaemon(true);
+        this.socket = new DatagramSocket(bindAddress);
+    }
+
+    /**
+     * Register a callback that is run for each received telegram.<br>
+     * The callback will be run on the receiver thread so avoid blocking or very slow operations.
+     */
+    public void onData(SpeedwireCallback<Telegram> callback) {
+        callbacks.add(callback);
+    }
+
+    /**
+     * Adds a speedwire instance, all received telegrams are sent to its multicast group
+     */
+    public void addTarget(Speedwire segment) {
+        segments.add(segment);
+    }
+
+    /**
+     * Register a callback that is run whenever an error occurs while receiving or decoding frames
+     */
+    public void onError(SpeedwireErrorHandler errorHandler) {
+        errorHandlers.add(errorHandler);
+    }
+
+    /**
+     * Returns the address and port the receiver listens on
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /**
+     * Returns the number of received frames
+     */
+    public long getFrames() {
+        return frames.get();
+    }
+
+    /**
+     * Returns the number of frames that were lost or reordered, detected by gaps in their sequence numbers
+     */
+    public long getLostFrames() {
+        return lostFrames.get();
+    }
+
+    /**
+     * Returns the number of received telegrams
+     */
+    public long getTelegrams() {
+        return telegrams.get();
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        DatagramPacket packet = new DatagramPacket(new byte[MAX_FRAME], MAX_FRAME);
+        while (!interrupted() && !socket.isClosed()) {
+            try {
+                packet.setData(packet.getData());
+                socket.receive(packet);
+                process(packet);
+            } catch (Exception e) {
+                if (socket.isClosed()) break;
+                errorHandlers.forEach(h -> h.onError(e));
+            }
+        }
+    }
+
+    /**
+     * Decodes a frame and passes its telegrams on
+     */
+    private void process(DatagramPacket packet) throws IOException {
+        ByteBuffer frame = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+        if (frame.remaining() < RelayFrames.HEADER_LENGTH || frame.getInt() != RelayFrames.MAGIC)
+            throw new IOException("not a relay frame from " + packet.getSocketAddress());
+        int relay = frame.getInt();
+        int sequence = frame.getInt();
+        int count = frame.getShort() & 0xffff;
+        Integer expected = sequences.put(relay, sequence + 1);
+        if (expected != null && expected != sequence) lostFrames.incrementAndGet();
+        frames.incrementAndGet();
+
+        for (int i = 0; i < count; i++) {
+            if (frame.remaining() < 2) throw new IOException("relay frame is truncated");
+            int length = frame.getShort() & 0xffff;
+            if (frame.remaining() < length) throw new IOException("relay frame is truncated");
+            int offset = frame.position();
+            frame.position(offset + length);
+            byte[] data = Arrays.copyOfRange(packet.getData(), offset, offset + length);
+            InetAddress origin = RelayFrames.origin(data, 0, length);
+            if (origin == null) origin = packet.getAddress();
+            final Telegram telegram;
+            try {
+                telegram = Telegram.from(new DatagramPacket(data, length, origin, packet.getPort()));
+            } catch (TelegramException e) {
+                errorHandlers.forEach(h -> h.onError(e));
+                continue;
+            }
+            telegrams.incrementAndGet();
+            for (Speedwire segment : segments) segment.send(data);
+            for (SpeedwireCallback<Telegram> callback : callbacks) {
+                try {
+                    callback.onDataReceived(telegram);
+                } catch (Exception e) {
+                    errorHandlers.forEach(h -> h.onError(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the receiver and closes its socket
+     */
+    @Override
+    public void close() {
+        interrupt();
+        socket.close();
+    }
+}
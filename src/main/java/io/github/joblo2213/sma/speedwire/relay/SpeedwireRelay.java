@@ -0,0 +1,304 @@
+package io.github.joblo2213.sma.speedwire.relay;
+
+import io.github.joblo2213.sma.speedwire.Speedwire;
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.SpeedwireErrorHandler;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.Telegram;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * Forwards telegrams from one network segment to others, e.g. across VLAN boundaries that multicast doesn't cross.
+ * </p><p>
+ * The relay is registered as callback of the speedwire instance of the source segment and forwards all telegrams
+ * matching its filter to its targets:
+ * </p><ul>
+ *     <li>Speedwire instances of other segments or multicast groups ({@link #addTarget(Speedwire)}). Telegrams are
+ *     sent to their multicast group one by one, so all speedwire receivers in the segment see them.</li>
+ *     <li>Unicast targets ({@link #addTarget(InetSocketAddress)}), usually a {@link RelayReceiver} of a central
+ *     collector. Telegrams are batched into compact frames of up to {@link #setMaxDatagramSize(int)} bytes that are
+ *     sent when they are full or the flush interval elapsed.</li>
+ * </ul><p>
+ * Each forwarded telegram is tagged with a relay field ({@link Telegram#TAG_RELAY}) containing the address of the
+ * device that originally sent it and the ids of all relays it passed. A relay never forwards telegrams that already
+ * passed it or that passed the maximum number of relays, so relays forwarding in both directions don't create loops.
+ * Use the same relay id for both directions of a bridge so echoed telegrams are dropped right away.
+ * Use {@link #getOriginalOrigin(Telegram)} to get the address of the sending device of a relayed telegram.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * SpeedwireRelay relay = new SpeedwireRelay(1);
+ * relay.setFilter(SpeedwireRelay.types(EnergyMeterTelegram.class));
+ * relay.addTarget(new InetSocketAddress("collector.example.com", 9523));
+ * speedwire.onData(relay);
+ * relay.start();
+ * }</pre>
+ */
+public class SpeedwireRelay extends Thread implements SpeedwireCallback<Telegram>, AutoCloseable {
+
+    private static final int DEFAULT_MAX_HOPS = 4;
+    private static final int DEFAULT_DATAGRAM_SIZE = 1400;
+
+    private final int relayId;
+    private final DatagramSocket socket;
+    private final CopyOnWriteArraySet<Speedwire> segments = new CopyOnWriteArraySet<>();
+    private final CopyOnWriteArraySet<InetSocketAddress> targets = new CopyOnWriteArraySet<>();
+    private final CopyOnWriteArraySet<SpeedwireErrorHandler> errorHandlers = new CopyOnWriteArraySet<>();
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong loops = new AtomicLong();
+    private volatile Predicate<? super Telegram> filter = t -> true;
+    private volatile int maxHops = DEFAULT_MAX_HOPS;
+    private volatile long flushInterval = 50;
+    //current batch frame, guarded by this
+    private ByteBuffer batch = ByteBuffer.allocate(DEFAULT_DATAGRAM_SIZE);
+    private int batchCount;
+    private int sequence;
+    private long batchStart;
+
+    /**
+     * Creates a new relay.
+     *
+     * @param relayId id of the relay, must be unique among all relays a telegram may pass
+     * @throws IOException if the socket for unicast targets can't be opened
+     */
+    public SpeedwireRelay(int relayId) throws IOException {
+        super("Speedwire-relay-" + Integer.toUnsignedString(relayId));
+        setDaemon(true);
+        this.relayId = relayId;
+        this.socket = new DatagramSocket();
+    }
+
+    /**
+     * Creates a new relay with a random id.
+     *
+     * @throws IOException if the socket for unicast targets can't be opened
+     */
+    public SpeedwireRelay() throws IOException {
+        this(ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * Returns a filter accepting telegrams of the given types
+     */
+    @SafeVarargs
+    public static Predicate<Telegram> types(Class<? extends Telegram>... types) {
+        //copied element by element, the varargs array itself must not escape
+        Set<Class<? extends Telegram>> set = new HashSet<>();
+        for (Class<? extends Telegram> type : types) set.add(type);
+        return t -> set.stream().anyMatch(type -> type.isInstance(t));
+    }
+
+    /**
+     * Returns a filter accepting telegrams of the given devices
+     */
+    public static Predicate<Telegram> devices(DeviceAddress... devices) {
+        Set<DeviceAddress> set = Set.of(devices);
+        return t -> set.contains(t.getDeviceAddress());
+    }
+
+    /**
+     * Returns the address of the device that originally sent a telegram, the origin of the telegram if it wasn't
+     * relayed
+     */
+    public static InetAddress getOriginalOrigin(Telegram telegram) {
+        return RelayFrames.origin(telegram);
+    }
+
+    /**
+     * Returns the ids of the relays a telegram passed, an empty array if it wasn't relayed
+     */
+    public static int[] getRelayPath(Telegram telegram) {
+        return RelayFrames.path(telegram);
+    }
+
+    /**
+     * Sets the filter selecting the telegrams that are forwarded, by default all telegrams are forwarded
+     */
+    public void setFilter(Predicate<? super Telegram> filter) {
+        this.filter = Objects.requireNonNull(filter);
+    }
+
+    /**
+     * Sets the maximum number of relays a telegram may pass (including this one), by default {@value #DEFAULT_MAX_HOPS}
+     */
+    public void setMaxHops(int maxHops) {
+        if (maxHops < 1 || maxHops > 255) throw new IllegalArgumentException("max hops must be between 1 and 255");
+        this.maxHops = maxHops;
+    }
+
+    /**
+     * Sets the maximum size of a batch frame sent to unicast targets, by default {@value #DEFAULT_DATAGRAM_SIZE} bytes
+     * so frames aren't fragmented on typical links.
+     */
+    public synchronized void setMaxDatagramSize(int size) {
+        if (size < 1024 || size > 65507) throw new IllegalArgumentException("size must be between 1024 and 65507");
+        flush();
+        batch = ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Sets the maximum time a telegram waits in a batch frame before the frame is sent, by default 50 ms
+     */
+    public void setFlushInterval(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("interval must be positive");
+        this.flushInterval = Math.max(1, interval.toMillis());
+    }
+
+    /**
+     * Adds a speedwire instance of another segment, forwarded telegrams are sent to its multicast group
+     */
+    public void addTarget(Speedwire segment) {
+        segments.add(segment);
+    }
+
+    /**
+     * Adds a unicast target, forwarded telegrams are sent to it in batch frames
+     */
+    public void addTarget(InetSocketAddress target) {
+        targets.add(target);
+    }
+
+    /**
+     * Register a callback that is run whenever an error occurs while forwarding telegrams
+     */
+    public void onError(SpeedwireErrorHandler errorHandler) {
+        errorHandlers.add(errorHandler);
+    }
+
+    @Override
+    public void onDataReceived(Telegram telegram) {
+        if (!filter.test(telegram)) return;
+        int[] path = RelayFrames.path(telegram);
+        if (path.length >= maxHops || Arrays.stream(path).anyMatch(id -> id == relayId)) {
+            loops.incrementAndGet();
+            return;
+        }
+        int[] extended = Arrays.copyOf(path, path.length + 1);
+        extended[path.length] = relayId;
+        byte[] data = RelayFrames.tag(telegram, RelayFrames.origin(telegram), extended);
+
+        for (Speedwire segment : segments) segment.send(data);
+        if (!targets.isEmpty()) append(data);
+        forwarded.incrementAndGet();
+    }
+
+    /**
+     * Appends a tagged telegram to the current batch frame
+     */
+    private synchronized void append(byte[] data) {
+        if (batchCount > 0 && batch.remaining() < 2 + data.length) flush();
+        if (RelayFrames.HEADER_LENGTH + 2 + data.length > batch.capacity()) {
+            //telegrams exceeding a frame are sent in a frame of their own
+            sendFrame(frame(ByteBuffer.allocate(RelayFrames.HEADER_LENGTH + 2 + data.length), data));
+            return;
+        }
+        if (batchCount == 0) {
+            batch.clear();
+            batch.position(RelayFrames.HEADER_LENGTH);
+            batchStart = System.nanoTime();
+        }
+        batch.putShort((short) data.length).put(data);
+        batchCount++;
+    }
+
+    private ByteBuffer frame(ByteBuffer buffer, byte[] data) {
+        buffer.position(RelayFrames.HEADER_LENGTH);
+        buffer.putShort((short) data.length).put(data);
+        writeHeader(buffer, 1);
+        return buffer;
+    }
+
+    private void writeHeader(ByteBuffer buffer, int count) {
+        buffer.putInt(0, RelayFrames.MAGIC);
+        buffer.putInt(4, relayId);
+        buffer.putInt(8, sequence++);
+        buffer.putShort(12, (short) count);
+    }
+
+    /**
+     * Sends the current batch frame to all unicast targets
+     */
+    public synchronized void flush() {
+        if (batchCount == 0) return;
+        writeHeader(batch, batchCount);
+        sendFrame(batch);
+        batchCount = 0;
+    }
+
+    private void sendFrame(ByteBuffer frame) {
+        for (InetSocketAddress target : targets) {
+            try {
+                socket.send(new DatagramPacket(frame.array(), 0, frame.position(), target));
+            } catch (IOException e) {
+                errorHandlers.forEach(h -> h.onError(e));
+            }
+        }
+    }
+
+    /**
+     * Returns the id of this relay
+     */
+    public int getRelayId() {
+        return relayId;
+    }
+
+    /**
+     * Returns the number of forwarded telegrams
+     */
+    public long getForwarded() {
+        return forwarded.get();
+    }
+
+    /**
+     * Returns the number of telegrams that weren't forwarded because they already passed this relay or the maximum
+     * number of relays
+     */
+    public long getLoopsPrevented() {
+        return loops.get();
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        while (!interrupted()) {
+            try {
+                synchronized (this) {
+                    if (batchCount > 0 && System.nanoTime() - batchStart >= flushInterval * 1_000_000) flush();
+                }
+                //noinspection BusyWait
+                Thread.sleep(Math.max(1, flushInterval / 4));
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Sends the pending batch frame, stops the relay thread and closes the socket
+     */
+    @Override
+    public void close() {
+        interrupt();
+        flush();
+        socket.close();
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads bits written by a {@link BitWriter} from a byte buffer without copying it
+ */
+class BitReader {
+
+    private ByteBuffer buf;
+    private int offset;
+    private long bit;
+
+    BitReader() {
+    }
+
+    /**
+     * Starts reading at the given absolute byte offset of the buffer
+     */
+    BitReader reset(ByteBuffer buf, int offset) {
+        this.buf = buf;
+        this.offset = offset;
+        this.bit = 0;
+        return this;
+    }
+
+    long read(int count) {
+        long value = 0;
+        while (count > 0) {
+            int b = buf.get(offset + (int) (bit >>> 3)) & 0xff;
+            int available = 8 - (int) (bit & 7);
+            int n = Math.min(available, count);
+            int chunk = (b >>> (available - n)) & ((1 << n) - 1);
+            value = (value << n) | chunk;
+            bit += n;
+            count -= n;
+        }
+        return value;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+
+    /**
+     * Reads a value written by {@link BitWriter#writeSigned(long)}
+     */
+    long readSigned() {
+        long zigzag;
+        if (!readBit()) return 0;
+        if (!readBit()) zigzag = read(7);
+        else if (!readBit()) zigzag = read(12);
+        else if (!readBit()) zigzag = read(20);
+        else if (!readBit()) zigzag = read(32);
+        else zigzag = read(64);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+import java.util.Arrays;
+
+/**
+ * Writes single bits and bit groups (most significant bit first) into a growable byte array
+ */
+class BitWriter {
+
+    private byte[] buf;
+    private long bits;
+
+    BitWriter(int capacity) {
+        buf = new byte[Math.max(8, capacity)];
+    }
+
+    /**
+     * Writes the lowest {@code count} bits of {@code value}
+     */
+    void write(long value, int count) {
+        if ((bits + count + 7) / 8 > buf.length) buf = Arrays.copyOf(buf, buf.length * 2 + 8);
+        for (int i = count - 1; i >= 0; ) {
+            int index = (int) (bits >>> 3);
+            int free = 8 - (int) (bits & 7);
+            int n = Math.min(free, i + 1);
+            int chunk = (int) (value >>> (i + 1 - n)) & ((1 << n) - 1);
+            buf[index] |= (byte) (chunk << (free - n));
+            bits += n;
+            i -= n;
+        }
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Writes a signed value using a variable length prefix code that favours small values
+     */
+    void writeSigned(long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        if (zigzag == 0) {
+            write(0b0, 1);
+        } else if (zigzag >>> 7 == 0) {
+            write(0b10, 2);
+            write(zigzag, 7);
+        } else if (zigzag >>> 12 == 0) {
+            write(0b110, 3);
+            write(zigzag, 12);
+        } else if (zigzag >>> 20 == 0) {
+            write(0b1110, 4);
+            write(zigzag, 20);
+        } else if (zigzag >>> 32 == 0) {
+            write(0b11110, 5);
+            write(zigzag, 32);
+        } else {
+            write(0b11111, 5);
+            write(zigzag, 64);
+        }
+    }
+
+    /**
+     * Returns the number of bits written so far
+     */
+    long bits() {
+        return bits;
+    }
+
+    /**
+     * Returns the number of bytes needed to store the written bits
+     */
+    int bytes() {
+        return (int) ((bits + 7) >>> 3);
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    void reset() {
+        Arrays.fill(buf, 0, bytes(), (byte) 0);
+        bits = 0;
+    }
+}
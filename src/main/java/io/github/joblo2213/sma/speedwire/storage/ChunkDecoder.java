@@ -0,0 +1,91 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decompresses a single series of a chunk written by a {@link ChunkEncoder} sample by sample, directly from the
+ * (mapped) buffers
+ */
+class ChunkDecoder {
+
+    private final BitReader timestamps = new BitReader();
+    private final BitReader bits = new BitReader();
+    private long[] values = new long[1];
+    private long[] valueDeltas = new long[1];
+    private int columns;
+    private int monotone;
+    private int remaining;
+    private int read;
+    private long timestamp;
+    private long delta;
+
+    /**
+     * Starts decoding a series of a chunk
+     *
+     * @param timestampBuf    buffer containing the timestamp column of the chunk
+     * @param timestampOffset absolute offset of the timestamp column
+     * @param valueBuf        buffer containing the column of the series
+     * @param valueOffset     absolute offset of the column of the series
+     * @param count           number of samples in the chunk
+     * @param columns         number of values per sample
+     * @param monotone        bit mask of the delta-of-delta encoded values
+     */
+    ChunkDecoder reset(ByteBuffer timestampBuf, int timestampOffset, ByteBuffer valueBuf, int valueOffset, int count,
+                       int columns, int monotone) {
+        timestamps.reset(timestampBuf, timestampOffset);
+        bits.reset(valueBuf, valueOffset);
+        if (values.length < columns) {
+            values = new long[columns];
+            valueDeltas = new long[columns];
+        }
+        this.columns = columns;
+        this.monotone = monotone;
+        this.remaining = count;
+        this.read = 0;
+        this.delta = 0;
+        for (int c = 0; c < columns; c++) valueDeltas[c] = 0;
+        return this;
+    }
+
+    /**
+     * Decodes the next sample
+     *
+     * @return {@code false} if the chunk contains no more samples
+     */
+    boolean next() {
+        if (remaining == 0) return false;
+        if (read == 0) {
+            timestamp = timestamps.read(64);
+            for (int c = 0; c < columns; c++) values[c] = bits.read(64);
+        } else {
+            delta += timestamps.readSigned();
+            timestamp += delta;
+            for (int c = 0; c < columns; c++) {
+                if ((monotone & (1 << c)) != 0) {
+                    valueDeltas[c] += bits.readSigned();
+                    values[c] += valueDeltas[c];
+                } else {
+                    values[c] += bits.readSigned();
+                }
+            }
+        }
+        read++;
+        remaining--;
+        return true;
+    }
+
+    long timestamp() {
+        return timestamp;
+    }
+
+    long value(int column) {
+        return values[column];
+    }
+
+    /**
+     * Returns the values of the current sample, the array is reused for the next sample
+     */
+    long[] values() {
+        return values;
+    }
+}
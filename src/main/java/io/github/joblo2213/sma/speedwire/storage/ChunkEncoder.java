@@ -0,0 +1,120 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Compresses a chunk of samples of one or more series that share their timestamps.
+ * </p><p>
+ * Timestamps are stored once per chunk in their own column using delta-of-delta encoding: samples arriving in a
+ * steady interval only need a single bit. Each series is stored in its own column as well, so a single series can be
+ * decoded without touching the others, and each sample of a series can consist of multiple values. Values marked as
+ * monotone (cumulative counters like the energy meter {@code _SUM} channels) are delta-of-delta encoded as well, all
+ * other values (slowly varying values like power) are delta encoded. All deltas are written with a variable length
+ * prefix code, see {@link BitWriter#writeSigned(long)}.
+ * </p>
+ */
+class ChunkEncoder {
+
+    private final BitWriter timestamps = new BitWriter(256);
+    private final BitWriter[] values;
+    private final int columns;
+    private final int[] monotone;
+    private final long[] prevValue;
+    private final long[] prevValueDelta;
+    private int count;
+    private long minTimestamp;
+    private long maxTimestamp;
+    private long prevTimestamp;
+    private long prevDelta;
+
+    /**
+     * @param columns  number of values per sample of each series
+     * @param monotone bit mask of the values that are delta-of-delta encoded, one entry per series
+     */
+    ChunkEncoder(int columns, int[] monotone) {
+        this.columns = columns;
+        this.monotone = monotone.clone();
+        this.values = new BitWriter[monotone.length];
+        for (int s = 0; s < values.length; s++) values[s] = new BitWriter(64);
+        this.prevValue = new long[monotone.length * columns];
+        this.prevValueDelta = new long[monotone.length * columns];
+    }
+
+    /**
+     * Appends a sample to all series
+     *
+     * @param timestamp timestamp of the sample
+     * @param values    values of all series, the values of series {@code s} start at index {@code s * columns}
+     */
+    void append(long timestamp, long[] values) {
+        if (count == 0) {
+            timestamps.write(timestamp, 64);
+            for (int i = 0; i < prevValue.length; i++) this.values[i / columns].write(values[i], 64);
+            minTimestamp = timestamp;
+            maxTimestamp = timestamp;
+        } else {
+            long delta = timestamp - prevTimestamp;
+            timestamps.writeSigned(delta - prevDelta);
+            prevDelta = delta;
+            for (int i = 0; i < prevValue.length; i++) {
+                int s = i / columns;
+                long valueDelta = values[i] - prevValue[i];
+                if ((monotone[s] & (1 << (i - s * columns))) != 0) {
+                    this.values[s].writeSigned(valueDelta - prevValueDelta[i]);
+                    prevValueDelta[i] = valueDelta;
+                } else {
+                    this.values[s].writeSigned(valueDelta);
+                }
+            }
+        }
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        System.arraycopy(values, 0, prevValue, 0, prevValue.length);
+        prevTimestamp = timestamp;
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of series
+     */
+    int series() {
+        return values.length;
+    }
+
+    int monotone(int series) {
+        return monotone[series];
+    }
+
+    long minTimestamp() {
+        return minTimestamp;
+    }
+
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    BitWriter timestamps() {
+        return timestamps;
+    }
+
+    BitWriter values(int series) {
+        return values[series];
+    }
+
+    void reset() {
+        timestamps.reset();
+        for (BitWriter v : values) v.reset();
+        count = 0;
+        prevDelta = 0;
+        Arrays.fill(prevValueDelta, 0);
+    }
+}
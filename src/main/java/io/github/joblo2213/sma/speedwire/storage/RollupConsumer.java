@@ -0,0 +1,27 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+/**
+ * <p>
+ * Receives the aggregated buckets of a {@link RollupStore} query one by one.
+ * </p><p>
+ * The meaning of the values depends on the kind of channel:
+ * <ul>
+ *     <li>Instantaneous values (e.g. power): minimum, maximum and average of the bucket</li>
+ *     <li>Cumulative meter readings (energy, OBIS type 8): first and last reading of the bucket and the energy
+ *     measured in the bucket (including the step from the last reading of the previous bucket)</li>
+ * </ul></p>
+ * When a query is answered from raw data, each sample forms its own bucket.
+ */
+@FunctionalInterface
+public interface RollupConsumer {
+
+    /**
+     * method called for each bucket of a query
+     *
+     * @param timestamp start of the bucket in ms since the unix epoch
+     * @param a         minimum (instantaneous) or first reading (cumulative)
+     * @param b         maximum (instantaneous) or last reading (cumulative)
+     * @param c         average (instantaneous) or delta (cumulative)
+     */
+    void accept(long timestamp, long a, long b, long c);
+}
@@ -0,0 +1,418 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+import io.github.joblo2213.sma.speedwire.SpeedwireErrorHandler;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.OBISIdentifier;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Compacts the raw data of a {@link TimeSeriesStore} into rollup tiers for long-term retention.
+ * </p><p>
+ * Each tier aggregates the data of the previous tier (the first tier the raw data) into buckets of a fixed
+ * resolution, e.g. one minute and 15 minutes. Instantaneous channels are aggregated into minimum, maximum and
+ * average, cumulative channels (OBIS type 8, the energy {@code _SUM} channels) into first reading, last reading and
+ * delta. Every tier is stored in its own compressed {@link TimeSeriesStore} and has its own retention.
+ * </p><p>
+ * Compaction runs incrementally on this thread: only buckets that are complete are compacted, at most one day of
+ * source data of a single series per step, and the thread pauses between steps so it uses at most the configured
+ * share of a cpu core (see {@link #setMaxCpuShare(double)}). Raw data and the data of a tier are only deleted once
+ * they were compacted into the next tier.
+ * </p><p>
+ * Queries pick the coarsest tier whose resolution satisfies the requested resolution, so queries over long time
+ * ranges only decode a few aggregated buckets.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * TimeSeriesStore raw = new TimeSeriesStore(Path.of("data/raw"));
+ * RollupStore rollups = new RollupStore(raw, Path.of("data/rollups"), Duration.ofDays(7),
+ *         new RollupTier(Duration.ofMinutes(1), Duration.ofDays(365)),
+ *         new RollupTier(Duration.ofMinutes(15), Duration.ofDays(10 * 365)));
+ * rollups.start();
+ * // ...
+ * rollups.scan(device, EnergyMeterChannels.TOTAL_P_IN, from, to, Duration.ofHours(1), (timestamp, min, max, avg) -> ...);
+ * }</pre>
+ */
+public class RollupStore extends Thread implements Closeable {
+
+    //raw samples may arrive a little late, buckets are compacted once this time has passed after their end
+    private static final long GRACE = 10_000;
+    private static final long RETENTION_INTERVAL = 60_000;
+    private static final long SLICE = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int MIN = 0, MAX = 1, SUM = 2, COUNT = 3;
+    private static final int FIRST = 0, LAST = 1, DELTA = 2;
+
+    private final TimeSeriesStore raw;
+    private final long rawRetention;
+    private final RollupTier[] tiers;
+    private final long[] resolutions;
+    private final TimeSeriesStore[] stores;
+    private final List<HashMap<SeriesKey, Progress>> progress;
+    private final CopyOnWriteArraySet<SpeedwireErrorHandler> errorHandlers = new CopyOnWriteArraySet<>();
+    private final long[] row = new long[4];
+    private long[] buckets = new long[0];
+    private long sliceStart;
+    private long lastRetention;
+    private volatile double cpuShare = 0.1;
+
+    /**
+     * Creates a new rollup store, the tiers are stored in sub directories named after their resolution.
+     *
+     * @param raw          store containing the raw data
+     * @param directory    directory of the rollup tiers
+     * @param rawRetention time the raw data is kept
+     * @param tiers        rollup tiers ordered by resolution, each resolution must be a multiple of the previous one
+     * @throws IOException if a tier can't be opened
+     */
+    public RollupStore(TimeSeriesStore raw, Path directory, Duration rawRetention, RollupTier... tiers)
+            throws IOException {
+        super("Speedwire-rollup");
+        setDaemon(true);
+        this.raw = raw;
+        this.rawRetention = rawRetention.toMillis();
+        this.tiers = tiers.clone();
+        this.resolutions = new long[tiers.length];
+        this.stores = new TimeSeriesStore[tiers.length];
+        this.progress = new ArrayList<>(tiers.length);
+        for (int t = 0; t < tiers.length; t++) {
+            long resolution = tiers[t].getResolution().toMillis();
+            if (t > 0 && (resolution <= resolutions[t - 1] || resolution % resolutions[t - 1] != 0))
+                throw new IllegalArgumentException("resolution of " + tiers[t] + " is no multiple of the previous tier");
+            resolutions[t] = resolution;
+            stores[t] = new TimeSeriesStore(directory.resolve(tiers[t].getResolution().toSeconds() + "s"), 4,
+                    channel -> isCumulative(channel) ? (1 << FIRST) | (1 << LAST) : 0);
+            progress.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Configure the share of a cpu core the compaction may use (default 0.1)
+     */
+    public void setMaxCpuShare(double share) {
+        if (share <= 0 || share > 1) throw new IllegalArgumentException("share must be in (0, 1]");
+        this.cpuShare = share;
+    }
+
+    /**
+     * Register a callback that is run on exceptions during compaction
+     *
+     * @param errorHandler errorHandler that listens for all occurring exceptions
+     */
+    public void onError(SpeedwireErrorHandler errorHandler) {
+        errorHandlers.add(errorHandler);
+    }
+
+    /**
+     * Returns the configured rollup tiers
+     */
+    public RollupTier[] getTiers() {
+        return tiers.clone();
+    }
+
+    /**
+     * Passes the data of a channel in the given time range to the consumer, using the coarsest tier whose
+     * resolution doesn't exceed the requested resolution. If no tier is fine enough the raw data is used.<br>
+     * Buckets are only available once they were compacted, so the most recent data is only contained in the
+     * raw data.
+     *
+     * @param device     device to scan
+     * @param channel    channel to scan
+     * @param from       start of the time range in ms since the unix epoch (inclusive)
+     * @param to         end of the time range in ms since the unix epoch (exclusive)
+     * @param resolution maximum acceptable length of a bucket
+     * @param consumer   consumer receiving the buckets
+     * @return resolution of the returned buckets, {@link Duration#ZERO} if the raw data was used
+     * @throws IOException if a segment file can't be mapped
+     */
+    public Duration scan(DeviceAddress device, MeasuringChannel<?> channel, long from, long to, Duration resolution,
+                         RollupConsumer consumer) throws IOException {
+        OBISIdentifier id = channel.getIdentifier();
+        boolean cumulative = isCumulative(id);
+        long requested = resolution.toMillis();
+        int t = tiers.length - 1;
+        while (t >= 0 && resolutions[t] > requested) t--;
+        if (t < 0) {
+            long[] prev = {0, 0};
+            raw.scan(device, id, from, to, (timestamp, value) -> {
+                if (!cumulative) {
+                    consumer.accept(timestamp, value, value, value);
+                    return;
+                }
+                consumer.accept(timestamp, value, value, prev[1] == 0 ? 0 : value - prev[0]);
+                prev[0] = value;
+                prev[1] = 1;
+            });
+            return Duration.ZERO;
+        }
+        //include the bucket containing the start of the range
+        stores[t].scanColumns(device, id, floor(from, resolutions[t]), to, (timestamp, v) -> {
+            if (cumulative) consumer.accept(timestamp, v[FIRST], v[LAST], v[DELTA]);
+            else consumer.accept(timestamp, v[MIN], v[MAX], v[SUM] / v[COUNT]);
+        });
+        return tiers[t].getResolution();
+    }
+
+    /**
+     * <a href="https://www.youtube.com/watch?v=otCpCn0l4Wo"><b><i>Don't touch this!</i></b></a>
+     */
+    @Override
+    public void run() {
+        sliceStart = System.nanoTime();
+        try {
+            while (!interrupted()) {
+                boolean busy = false;
+                try {
+                    busy = compact();
+                    retain();
+                } catch (IOException | RuntimeException e) {
+                    if (interrupted()) return;
+                    errorHandlers.forEach(h -> h.onError(e));
+                }
+                if (!busy) {
+                    sleep(Math.min(resolutions.length == 0 ? RETENTION_INTERVAL : resolutions[0] / 4, 15_000));
+                    sliceStart = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Stops the compaction thread.<br>
+     * This method does not await the termination of the thread.
+     */
+    public void shutdown() {
+        interrupt();
+    }
+
+    /**
+     * Stops the compaction thread and writes the data of all tiers to disk.<br>
+     * The raw store is not closed.
+     *
+     * @throws IOException if a tier can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        shutdown();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (TimeSeriesStore store : stores) store.close();
+    }
+
+    /**
+     * Runs one compaction step for every series of every tier
+     *
+     * @return {@code true} if there is more work to do
+     */
+    private boolean compact() throws IOException, InterruptedException {
+        boolean busy = false;
+        for (int t = 0; t < tiers.length; t++) {
+            TimeSeriesStore source = t == 0 ? raw : stores[t - 1];
+            for (DeviceAddress device : source.getDevices()) {
+                for (OBISIdentifier channel : source.getChannels(device)) {
+                    busy |= step(t, new SeriesKey(device, channel));
+                    throttle();
+                }
+            }
+        }
+        return busy;
+    }
+
+    /**
+     * Compacts the next complete buckets of a series, at most a day of source data
+     *
+     * @return {@code true} if there are more complete buckets
+     */
+    private boolean step(int t, SeriesKey key) throws IOException {
+        long resolution = resolutions[t];
+        long now = System.currentTimeMillis();
+        Progress p = progress.get(t).get(key);
+        if (p == null) {
+            p = init(t, key, now);
+            if (p == null) return false;
+            progress.get(t).put(key, p);
+        }
+        long limit;
+        if (t == 0) {
+            limit = floor(now - GRACE, resolution);
+        } else {
+            Progress previous = progress.get(t - 1).get(key);
+            if (previous == null) return false;
+            limit = floor(previous.watermark, resolution);
+        }
+        if (p.watermark >= limit) return false;
+        long start = p.watermark;
+        long end = Math.min(limit, start + Math.max(1, TimeSeriesStore.DAY / resolution) * resolution);
+        int n = (int) ((end - start) / resolution);
+        if (buckets.length < n * 4) buckets = new long[n * 4];
+        for (int i = 0; i < n; i++) buckets[i * 4 + COUNT] = 0;
+
+        boolean cumulative = isCumulative(key.channel);
+        final Progress progress = p;
+        TimeSeriesStore source = t == 0 ? raw : stores[t - 1];
+        source.scanColumns(key.device, key.channel, start, end, (timestamp, v) -> {
+            int b = (int) ((timestamp - start) / resolution) * 4;
+            if (t == 0) {
+                long value = v[0];
+                if (cumulative) {
+                    mergeCumulative(b, value, value, progress.hasPrevious ? value - progress.previous : 0, 1);
+                    progress.previous = value;
+                    progress.hasPrevious = true;
+                } else {
+                    mergeInstantaneous(b, value, value, value, 1);
+                }
+            } else if (cumulative) {
+                mergeCumulative(b, v[FIRST], v[LAST], v[DELTA], v[COUNT]);
+            } else {
+                mergeInstantaneous(b, v[MIN], v[MAX], v[SUM], v[COUNT]);
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            if (buckets[i * 4 + COUNT] == 0) continue;
+            System.arraycopy(buckets, i * 4, row, 0, 4);
+            stores[t].append(key.device, key.channel, start + i * resolution, row);
+        }
+        p.watermark = end;
+        return end < limit;
+    }
+
+    private void mergeInstantaneous(int b, long min, long max, long sum, long count) {
+        if (buckets[b + COUNT] == 0) {
+            buckets[b + MIN] = min;
+            buckets[b + MAX] = max;
+            buckets[b + SUM] = 0;
+        } else {
+            buckets[b + MIN] = Math.min(buckets[b + MIN], min);
+            buckets[b + MAX] = Math.max(buckets[b + MAX], max);
+        }
+        buckets[b + SUM] += sum;
+        buckets[b + COUNT] += count;
+    }
+
+    private void mergeCumulative(int b, long first, long last, long delta, long count) {
+        if (buckets[b + COUNT] == 0) {
+            buckets[b + FIRST] = first;
+            buckets[b + DELTA] = 0;
+        }
+        buckets[b + LAST] = last;
+        buckets[b + DELTA] += delta;
+        buckets[b + COUNT] += count;
+    }
+
+    /**
+     * Determines where the compaction of a series continues, after a restart this is the bucket following the
+     * last compacted bucket
+     */
+    private Progress init(int t, SeriesKey key, long now) throws IOException {
+        long resolution = resolutions[t];
+        Progress p = new Progress();
+        long[] compacted = stores[t].getTimeRange(key.device, key.channel);
+        if (compacted != null) {
+            p.watermark = floor(compacted[1], resolution) + resolution;
+            if (t == 0 && isCumulative(key.channel)) {
+                stores[t].scanColumns(key.device, key.channel, compacted[1], compacted[1] + 1, (timestamp, v) -> {
+                    p.previous = v[LAST];
+                    p.hasPrevious = true;
+                });
+            }
+            return p;
+        }
+        long[] available = (t == 0 ? raw : stores[t - 1]).getTimeRange(key.device, key.channel);
+        if (available == null) return null;
+        long oldest = now - tiers[t].getRetention().toMillis();
+        p.watermark = floor(Math.max(available[0], oldest), resolution);
+        return p;
+    }
+
+    /**
+     * Deletes data that is past its retention and was compacted into the next tier
+     */
+    private void retain() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastRetention < RETENTION_INTERVAL) return;
+        lastRetention = now;
+        raw.deleteBefore(Math.min(now - rawRetention, compacted(0, now)));
+        for (int t = 0; t < tiers.length; t++) {
+            long retention = now - tiers[t].getRetention().toMillis();
+            stores[t].deleteBefore(t + 1 < tiers.length ? Math.min(retention, compacted(t + 1, now)) : retention);
+        }
+    }
+
+    /**
+     * Returns the time up to which all series were compacted into the given tier
+     */
+    private long compacted(int t, long now) {
+        if (t >= tiers.length) return now;
+        long min = now;
+        for (Progress p : progress.get(t).values()) min = Math.min(min, p.watermark);
+        return min;
+    }
+
+    /**
+     * Pauses the thread so it doesn't exceed its cpu share
+     */
+    private void throttle() throws InterruptedException {
+        long busy = System.nanoTime() - sliceStart;
+        if (busy < SLICE) return;
+        double share = cpuShare;
+        long pause = (long) (busy * (1 - share) / share);
+        if (pause > 0) TimeUnit.NANOSECONDS.sleep(pause);
+        sliceStart = System.nanoTime();
+    }
+
+    private static boolean isCumulative(OBISIdentifier channel) {
+        return channel.getType() == 8;
+    }
+
+    private static long floor(long timestamp, long resolution) {
+        return Math.floorDiv(timestamp, resolution) * resolution;
+    }
+
+    /**
+     * Compaction progress of a single series in a single tier
+     */
+    private static class Progress {
+        //start of the next bucket to compact
+        long watermark;
+        //last raw reading of a cumulative channel
+        long previous;
+        boolean hasPrevious;
+    }
+
+    private static class SeriesKey {
+        final DeviceAddress device;
+        final OBISIdentifier channel;
+
+        SeriesKey(DeviceAddress device, OBISIdentifier channel) {
+            this.device = device;
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SeriesKey)) return false;
+            SeriesKey that = (SeriesKey) o;
+            return device.equals(that.device) && channel.equals(that.channel);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(device, channel);
+        }
+    }
+}
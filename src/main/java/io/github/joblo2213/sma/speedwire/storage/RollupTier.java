@@ -0,0 +1,43 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+import java.time.Duration;
+
+/**
+ * Resolution and retention of a rollup tier of a {@link RollupStore}
+ */
+public class RollupTier {
+
+    private final Duration resolution;
+    private final Duration retention;
+
+    /**
+     * @param resolution length of the aggregated buckets, at least one second
+     * @param retention  time the aggregated data is kept
+     */
+    public RollupTier(Duration resolution, Duration retention) {
+        if (resolution.compareTo(Duration.ofSeconds(1)) < 0)
+            throw new IllegalArgumentException("resolution must be at least one second");
+        if (retention.compareTo(resolution) < 0) throw new IllegalArgumentException("retention must exceed resolution");
+        this.resolution = resolution;
+        this.retention = retention;
+    }
+
+    /**
+     * Returns the length of the aggregated buckets
+     */
+    public Duration getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Returns the time the aggregated data is kept
+     */
+    public Duration getRetention() {
+        return retention;
+    }
+
+    @Override
+    public String toString() {
+        return resolution + " for " + retention;
+    }
+}
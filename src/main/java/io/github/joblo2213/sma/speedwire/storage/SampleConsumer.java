@@ -0,0 +1,16 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+/**
+ * Receives the samples of a time range scan one by one, without boxing
+ */
+@FunctionalInterface
+public interface SampleConsumer {
+
+    /**
+     * method called for each sample of a scan
+     *
+     * @param timestamp timestamp of the sample in ms since the unix epoch
+     * @param value     raw value of the sample in the unit of its channel
+     */
+    void accept(long timestamp, long value);
+}
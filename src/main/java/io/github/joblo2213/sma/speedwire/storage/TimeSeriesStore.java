@@ -0,0 +1,627 @@
+package io.github.joblo2213.sma.speedwire.storage;
+
+import io.github.joblo2213.sma.speedwire.SpeedwireCallback;
+import io.github.joblo2213.sma.speedwire.SpeedwireErrorHandler;
+import io.github.joblo2213.sma.speedwire.aggregation.DeviceClock;
+import io.github.joblo2213.sma.speedwire.protocol.DeviceAddress;
+import io.github.joblo2213.sma.speedwire.protocol.OBISIdentifier;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.EnergyMeterChannels;
+import io.github.joblo2213.sma.speedwire.protocol.measuringChannels.MeasuringChannel;
+import io.github.joblo2213.sma.speedwire.protocol.telegrams.EnergyMeterTelegram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>
+ * Stores the channel values of energy meters compressed on disk.
+ * </p><p>
+ * Samples are collected per device in chunks of up to {@value #MAX_CHUNK_SAMPLES} samples that are compressed while
+ * they are appended (see {@link ChunkEncoder}). All channels of a received telegram share one timestamp column, which
+ * is derived from the measuring time of the telegram (mapped to the receivers clock by a {@link DeviceClock}) instead
+ * of the jittering arrival time: as energy meters send their values in a steady interval and most values change only
+ * slightly between two telegrams, a typical timestamp needs a single bit per telegram and a typical value only a few
+ * bits instead of 8 bytes. Samples appended channel by channel with {@link #append(DeviceAddress, OBISIdentifier,
+ * long, long)} are stored in chunks of their own channel. Full chunks are appended to one segment file per device and
+ * day, so old data can be removed by deleting whole files (see {@link #deleteBefore(long)}).
+ * </p><p>
+ * Time range scans decode the chunks directly from memory mapped segment files and pass each sample to a
+ * {@link SampleConsumer} without materializing them. Samples that are not yet written to disk are included as well.
+ * </p><p>
+ * When a store is opened, the chunk index is rebuilt from the chunk headers of all segment files. A chunk that was
+ * only partially written (e.g. because the process was killed) is truncated.
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * TimeSeriesStore store = new TimeSeriesStore(Path.of("data"));
+ * speedwire.onData(EnergyMeterTelegram.class, store);
+ * // ...
+ * store.scan(device, EnergyMeterChannels.TOTAL_P_IN, from, to, (timestamp, value) -> ...);
+ * }</pre>
+ */
+public class TimeSeriesStore implements SpeedwireCallback<EnergyMeterTelegram>, Closeable {
+
+    /**
+     * Maximum number of samples in a chunk
+     */
+    public static final int MAX_CHUNK_SAMPLES = 3600;
+
+    static final long DAY = 86_400_000L;
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 8;
+    //count(4) min timestamp(8) max timestamp(8) length(4) columns(1) channels(1), followed by one entry per channel
+    private static final int CHUNK_HEADER_SIZE = 26;
+    //obis(4) monotone columns(1) offset of the channel column(4)
+    private static final int CHANNEL_ENTRY_SIZE = 9;
+    private static final int MAX_CHUNK_CHANNELS = 255;
+    private static final List<MeasuringChannel<?>> CHANNELS = EnergyMeterChannels.ALL;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int columns;
+    private final ToIntFunction<OBISIdentifier> monotone;
+    private final ConcurrentHashMap<DeviceAddress, DeviceSeries> devices = new ConcurrentHashMap<>();
+    private final CopyOnWriteArraySet<SpeedwireErrorHandler> errorHandlers = new CopyOnWriteArraySet<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Opens a store, creating the directory if it doesn't exist yet.
+     *
+     * @param directory directory containing the segment files
+     * @throws IOException if the directory can't be created or an existing segment file can't be read
+     */
+    public TimeSeriesStore(Path directory) throws IOException {
+        this(directory, 1, channel -> channel.getType() == 8 ? 1 : 0);
+    }
+
+    /**
+     * @param columns  number of values per sample
+     * @param monotone returns a bit mask of the columns of a channel that are cumulative and should be
+     *                 delta-of-delta encoded
+     */
+    TimeSeriesStore(Path directory, int columns, ToIntFunction<OBISIdentifier> monotone) throws IOException {
+        if (columns < 1 || columns > 8) throw new IllegalArgumentException("1 to 8 columns are supported");
+        this.directory = directory;
+        this.columns = columns;
+        this.monotone = monotone;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * Register a callback that is run on exceptions while storing received telegrams
+     *
+     * @param errorHandler errorHandler that listens for all occurring exceptions
+     */
+    public void onError(SpeedwireErrorHandler errorHandler) {
+        errorHandlers.add(errorHandler);
+    }
+
+    /**
+     * Stores all channels of a received telegram in one row sharing a single timestamp.<br>
+     * The timestamp is the measuring time of the telegram mapped to the receivers clock.
+     */
+    @Override
+    public void onDataReceived(EnergyMeterTelegram data) {
+        accept(data, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores all channels of a telegram that arrived at the given time, e.g. when replaying recorded telegrams.<br>
+     * The telegrams of each device must be passed in order of their arrival.
+     *
+     * @param data    telegram to store
+     * @param arrival arrival time of the telegram in ms since the unix epoch
+     */
+    public void accept(EnergyMeterTelegram data, long arrival) {
+        DeviceSeries series = series(data.getDeviceAddress());
+        try {
+            synchronized (series) {
+                long timestamp = series.clock.map(data.getMeasuringTimeMillis(), arrival);
+                long present = 0;
+                for (int i = 0; i < CHANNELS.size(); i++) {
+                    if (data.hasData(CHANNELS.get(i))) present |= 1L << i;
+                }
+                if (series.row == null || series.rowChannels != present) {
+                    List<OBISIdentifier> channels = new ArrayList<>(Long.bitCount(present));
+                    for (int i = 0; i < CHANNELS.size(); i++) {
+                        if ((present & (1L << i)) != 0) channels.add(CHANNELS.get(i).getIdentifier());
+                    }
+                    series.row = series.group(List.copyOf(channels));
+                    series.rowChannels = present;
+                }
+                long[] values = series.row.scratch;
+                int index = 0;
+                for (int i = 0; i < CHANNELS.size(); i++) {
+                    if ((present & (1L << i)) == 0) continue;
+                    values[index] = data.getRawData(CHANNELS.get(i));
+                    index += columns;
+                }
+                append(series, series.row, timestamp, values);
+            }
+        } catch (IOException | RuntimeException e) {
+            errorHandlers.forEach(h -> h.onError(e));
+        }
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param device    device the value belongs to
+     * @param channel   channel the value belongs to
+     * @param timestamp timestamp in ms since the unix epoch
+     * @param value     raw value in the unit of the channel
+     * @throws IOException if a full chunk can't be written
+     */
+    public void append(DeviceAddress device, OBISIdentifier channel, long timestamp, long value) throws IOException {
+        DeviceSeries series = series(device);
+        synchronized (series) {
+            Group group = series.single(channel);
+            group.scratch[0] = value;
+            append(series, group, timestamp, group.scratch);
+        }
+    }
+
+    /**
+     * Appends a sample consisting of one value per column
+     */
+    void append(DeviceAddress device, OBISIdentifier channel, long timestamp, long[] values) throws IOException {
+        DeviceSeries series = series(device);
+        synchronized (series) {
+            append(series, series.single(channel), timestamp, values);
+        }
+    }
+
+    private void append(DeviceSeries series, Group group, long timestamp, long[] values) throws IOException {
+        if (closed) throw new IllegalStateException("store is closed");
+        ChunkEncoder active = group.active;
+        long day = Math.floorDiv(timestamp, DAY);
+        if (active.count() > 0 && (group.activeDay != day || active.count() >= MAX_CHUNK_SAMPLES)) seal(series, group);
+        if (active.count() == 0) group.activeDay = day;
+        active.append(timestamp, values);
+    }
+
+    /**
+     * Passes all samples of a channel within the given time range to the consumer.<br>
+     * Samples are passed chunk by chunk in the order they were appended in.
+     *
+     * @param device   device to scan
+     * @param channel  channel to scan
+     * @param from     start of the time range in ms since the unix epoch (inclusive)
+     * @param to       end of the time range in ms since the unix epoch (exclusive)
+     * @param consumer consumer receiving the samples
+     * @throws IOException if a segment file can't be mapped
+     */
+    public void scan(DeviceAddress device, MeasuringChannel<?> channel, long from, long to, SampleConsumer consumer)
+            throws IOException {
+        scan(device, channel.getIdentifier(), from, to, consumer);
+    }
+
+    /**
+     * Passes all samples of a channel within the given time range to the consumer.
+     *
+     * @see #scan(DeviceAddress, MeasuringChannel, long, long, SampleConsumer)
+     */
+    public void scan(DeviceAddress device, OBISIdentifier channel, long from, long to, SampleConsumer consumer)
+            throws IOException {
+        scanColumns(device, channel, from, to, (timestamp, values) -> consumer.accept(timestamp, values[0]));
+    }
+
+    /**
+     * Passes all samples of a channel within the given time range to the consumer.<br>
+     * The values array is reused for the next sample.
+     */
+    void scanColumns(DeviceAddress device, OBISIdentifier channel, long from, long to, ColumnConsumer consumer)
+            throws IOException {
+        DeviceSeries series = devices.get(device);
+        if (series == null) return;
+        synchronized (series) {
+            ChannelSeries c = series.channels.get(channel);
+            if (c == null) return;
+            ChunkDecoder decoder = series.decoder;
+            for (ChunkRef chunk : c.chunks) {
+                if (chunk.maxTimestamp < from || chunk.minTimestamp >= to) continue;
+                ByteBuffer map = chunk.segment.map();
+                decoder.reset(map, chunk.timestampOffset, map, chunk.valueOffset, chunk.count, chunk.columns,
+                        chunk.monotone);
+                drain(decoder, from, to, consumer);
+            }
+            for (Group group : c.groups) {
+                ChunkEncoder active = group.active;
+                if (active.count() == 0 || active.maxTimestamp() < from || active.minTimestamp() >= to) continue;
+                int s = group.channels.indexOf(channel);
+                decoder.reset(ByteBuffer.wrap(active.timestamps().array()), 0,
+                        ByteBuffer.wrap(active.values(s).array()), 0, active.count(), active.columns(),
+                        active.monotone(s));
+                drain(decoder, from, to, consumer);
+            }
+        }
+    }
+
+    private static void drain(ChunkDecoder decoder, long from, long to, ColumnConsumer consumer) {
+        while (decoder.next()) {
+            long timestamp = decoder.timestamp();
+            if (timestamp >= from && timestamp < to) consumer.accept(timestamp, decoder.values());
+        }
+    }
+
+    /**
+     * Returns all devices that have data in this store
+     */
+    public Set<DeviceAddress> getDevices() {
+        return Collections.unmodifiableSet(devices.keySet());
+    }
+
+    /**
+     * Returns all channels of a device that have data in this store
+     */
+    public Set<OBISIdentifier> getChannels(DeviceAddress device) {
+        DeviceSeries series = devices.get(device);
+        if (series == null) return Set.of();
+        synchronized (series) {
+            return Set.copyOf(series.channels.keySet());
+        }
+    }
+
+    /**
+     * Returns the oldest and newest timestamp of a channel or {@code null} if the channel contains no data
+     */
+    long[] getTimeRange(DeviceAddress device, OBISIdentifier channel) {
+        DeviceSeries series = devices.get(device);
+        if (series == null) return null;
+        synchronized (series) {
+            ChannelSeries c = series.channels.get(channel);
+            if (c == null) return null;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (ChunkRef chunk : c.chunks) {
+                min = Math.min(min, chunk.minTimestamp);
+                max = Math.max(max, chunk.maxTimestamp);
+            }
+            for (Group group : c.groups) {
+                if (group.active.count() == 0) continue;
+                min = Math.min(min, group.active.minTimestamp());
+                max = Math.max(max, group.active.maxTimestamp());
+            }
+            return min > max ? null : new long[]{min, max};
+        }
+    }
+
+    /**
+     * Writes all samples that are still held in memory to disk.<br>
+     * This closes the current chunks, so flushing very frequently reduces the compression ratio.
+     *
+     * @throws IOException if a chunk can't be written
+     */
+    public void flush() throws IOException {
+        for (DeviceSeries series : devices.values()) {
+            synchronized (series) {
+                for (Group group : series.groups.values()) {
+                    if (group.active.count() > 0) seal(series, group);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes all segment files that only contain data older than the given timestamp.<br>
+     * Data is deleted in whole days, so samples of the day containing the timestamp are kept.
+     *
+     * @param timestamp timestamp in ms since the unix epoch
+     * @throws IOException if a segment file can't be deleted
+     */
+    public void deleteBefore(long timestamp) throws IOException {
+        long cutoff = Math.floorDiv(timestamp, DAY);
+        for (DeviceSeries series : devices.values()) {
+            synchronized (series) {
+                var old = series.segments.headMap(cutoff, false);
+                if (old.isEmpty()) continue;
+                for (Segment segment : old.values()) Files.deleteIfExists(segment.path);
+                old.clear();
+                for (ChannelSeries c : series.channels.values()) c.chunks.removeIf(chunk -> chunk.segment.day < cutoff);
+            }
+        }
+    }
+
+    /**
+     * Writes all remaining samples to disk and closes the store
+     *
+     * @throws IOException if a chunk can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        flush();
+        closed = true;
+    }
+
+    private DeviceSeries series(DeviceAddress device) {
+        DeviceSeries series = devices.get(device);
+        if (series == null) {
+            series = devices.computeIfAbsent(device, d -> new DeviceSeries(directory.resolve(
+                    d.getSUSyID() + "-" + d.getSerNo())));
+        }
+        return series;
+    }
+
+    /**
+     * Appends the active chunk of a group to the segment file of its day
+     */
+    private void seal(DeviceSeries series, Group group) throws IOException {
+        ChunkEncoder chunk = group.active;
+        Segment segment = series.segments.get(group.activeDay);
+        if (segment == null) {
+            Files.createDirectories(series.dir);
+            segment = new Segment(series.dir.resolve(group.activeDay + SEGMENT_SUFFIX), group.activeDay, 0);
+            series.segments.put(group.activeDay, segment);
+        }
+        int channels = chunk.series();
+        int headerSize = CHUNK_HEADER_SIZE + channels * CHANNEL_ENTRY_SIZE;
+        int[] offsets = new int[channels];
+        int length = chunk.timestamps().bytes();
+        for (int s = 0; s < channels; s++) {
+            offsets[s] = length;
+            length += chunk.values(s).bytes();
+        }
+        ByteBuffer buf = ByteBuffer.allocate((segment.size == 0 ? FILE_HEADER_SIZE : 0) + headerSize + length);
+        if (segment.size == 0) buf.put((byte) 'S').put((byte) 'W').put((byte) 'T').put((byte) 'S').putInt(VERSION);
+        buf.putInt(chunk.count()).putLong(chunk.minTimestamp()).putLong(chunk.maxTimestamp())
+                .putInt(length).put((byte) chunk.columns()).put((byte) channels);
+        for (int s = 0; s < channels; s++) {
+            buf.putInt(encode(group.channels.get(s))).put((byte) chunk.monotone(s)).putInt(offsets[s]);
+        }
+        buf.put(chunk.timestamps().array(), 0, chunk.timestamps().bytes());
+        for (int s = 0; s < channels; s++) buf.put(chunk.values(s).array(), 0, chunk.values(s).bytes());
+        buf.flip();
+        try (FileChannel file = FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = segment.size;
+            while (buf.hasRemaining()) position += file.write(buf, position);
+        }
+        int data = (int) (segment.size == 0 ? FILE_HEADER_SIZE : segment.size) + headerSize;
+        segment.size = data + length;
+        for (int s = 0; s < channels; s++) {
+            series.channels.get(group.channels.get(s)).chunks.add(new ChunkRef(segment, data, data + offsets[s],
+                    chunk.count(), chunk.columns(), chunk.monotone(s), chunk.minTimestamp(), chunk.maxTimestamp()));
+        }
+        chunk.reset();
+    }
+
+    /**
+     * Rebuilds the chunk index from the segment files
+     */
+    private void load() throws IOException {
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                String[] name = dir.getFileName().toString().split("-");
+                DeviceAddress address;
+                try {
+                    if (name.length != 2) continue;
+                    address = new DeviceAddress(Integer.parseInt(name[0]), Long.parseLong(name[1]));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                DeviceSeries series = new DeviceSeries(dir);
+                List<Path> files = new ArrayList<>();
+                try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+                    segments.forEach(files::add);
+                }
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    long day;
+                    try {
+                        day = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    series.segments.put(day, new Segment(file, day, Files.size(file)));
+                }
+                //segments are indexed in day order, so the chunks of each channel are in order as well
+                for (Segment segment : series.segments.values()) index(series, segment);
+                devices.put(address, series);
+            }
+        }
+    }
+
+    private void index(DeviceSeries series, Segment segment) throws IOException {
+        if (segment.size < FILE_HEADER_SIZE) {
+            segment.size = 0;
+            truncate(segment);
+            return;
+        }
+        ByteBuffer buf = segment.map();
+        if (buf.get(0) != 'S' || buf.get(1) != 'W' || buf.get(2) != 'T' || buf.get(3) != 'S')
+            throw new IOException(segment.path + " is not a segment file");
+        if (buf.getInt(4) != VERSION) throw new IOException(segment.path + " has unsupported version " + buf.getInt(4));
+        int position = FILE_HEADER_SIZE;
+        chunks:
+        while (position < segment.size) {
+            if (position + CHUNK_HEADER_SIZE > segment.size) break;
+            int length = buf.getInt(position + 20);
+            int channels = buf.get(position + 25) & 0xff;
+            int headerSize = CHUNK_HEADER_SIZE + channels * CHANNEL_ENTRY_SIZE;
+            if (length < 0 || position + headerSize + (long) length > segment.size) break;
+            for (int s = 0; s < channels; s++) {
+                int offset = buf.getInt(position + CHUNK_HEADER_SIZE + s * CHANNEL_ENTRY_SIZE + 5);
+                if (offset < 0 || offset > length) break chunks;
+            }
+            int count = buf.getInt(position);
+            long minTimestamp = buf.getLong(position + 4);
+            long maxTimestamp = buf.getLong(position + 12);
+            int columns = buf.get(position + 24) & 0xff;
+            int data = position + headerSize;
+            for (int s = 0; s < channels; s++) {
+                int entry = position + CHUNK_HEADER_SIZE + s * CHANNEL_ENTRY_SIZE;
+                ChannelSeries c = series.channels.computeIfAbsent(decode(buf.getInt(entry)), k -> new ChannelSeries());
+                c.chunks.add(new ChunkRef(segment, data, data + buf.getInt(entry + 5), count, columns,
+                        buf.get(entry + 4) & 0xff, minTimestamp, maxTimestamp));
+            }
+            position = data + length;
+        }
+        if (position != segment.size) {
+            //partially written chunk
+            segment.size = position;
+            truncate(segment);
+        }
+    }
+
+    private static void truncate(Segment segment) throws IOException {
+        try (FileChannel file = FileChannel.open(segment.path, StandardOpenOption.WRITE)) {
+            file.truncate(segment.size);
+        }
+        segment.map = null;
+    }
+
+    private static int encode(OBISIdentifier id) {
+        return (id.getChannel() << 24) | (id.getIndex() << 16) | (id.getType() << 8) | id.getTariff();
+    }
+
+    private static OBISIdentifier decode(int id) {
+        return new OBISIdentifier(id >>> 24, (id >>> 16) & 0xff, (id >>> 8) & 0xff, id & 0xff);
+    }
+
+    /**
+     * Receives the samples of a scan over a series with multiple columns
+     */
+    @FunctionalInterface
+    interface ColumnConsumer {
+        void accept(long timestamp, long[] values);
+    }
+
+    /**
+     * All series of a single device, guarded by its own monitor
+     */
+    private class DeviceSeries {
+        final Path dir;
+        final HashMap<OBISIdentifier, ChannelSeries> channels = new HashMap<>();
+        final HashMap<List<OBISIdentifier>, Group> groups = new HashMap<>();
+        final TreeMap<Long, Segment> segments = new TreeMap<>();
+        final ChunkDecoder decoder = new ChunkDecoder();
+        final DeviceClock clock = new DeviceClock();
+        //group of the latest received telegram and the indices of its channels in EnergyMeterChannels.ALL
+        Group row;
+        long rowChannels;
+
+        DeviceSeries(Path dir) {
+            this.dir = dir;
+        }
+
+        /**
+         * Returns the group of channels that share their timestamps
+         */
+        Group group(List<OBISIdentifier> channels) {
+            Group group = groups.get(channels);
+            if (group != null) return group;
+            if (channels.size() > MAX_CHUNK_CHANNELS)
+                throw new IllegalArgumentException("at most " + MAX_CHUNK_CHANNELS + " channels can share a chunk");
+            group = new Group(channels);
+            groups.put(channels, group);
+            for (OBISIdentifier channel : channels) {
+                this.channels.computeIfAbsent(channel, k -> new ChannelSeries()).groups.add(group);
+            }
+            return group;
+        }
+
+        /**
+         * Returns the group of a channel whose samples are appended one by one
+         */
+        Group single(OBISIdentifier channel) {
+            ChannelSeries c = channels.get(channel);
+            if (c != null && c.single != null) return c.single;
+            Group group = group(List.of(channel));
+            channels.get(channel).single = group;
+            return group;
+        }
+    }
+
+    private static class ChannelSeries {
+        final List<ChunkRef> chunks = new ArrayList<>();
+        //groups containing this channel
+        final List<Group> groups = new ArrayList<>();
+        Group single;
+    }
+
+    /**
+     * Channels of a device that are appended together and share one timestamp column
+     */
+    private class Group {
+        final List<OBISIdentifier> channels;
+        final ChunkEncoder active;
+        final long[] scratch;
+        long activeDay;
+
+        Group(List<OBISIdentifier> channels) {
+            this.channels = channels;
+            this.active = new ChunkEncoder(columns, channels.stream().mapToInt(monotone).toArray());
+            this.scratch = new long[channels.size() * columns];
+        }
+    }
+
+    /**
+     * Location and time range of a chunk that was written to disk
+     */
+    private static class ChunkRef {
+        final Segment segment;
+        final int timestampOffset;
+        final int valueOffset;
+        final int count;
+        final int columns;
+        final int monotone;
+        final long minTimestamp;
+        final long maxTimestamp;
+
+        ChunkRef(Segment segment, int timestampOffset, int valueOffset, int count, int columns, int monotone,
+                 long minTimestamp, long maxTimestamp) {
+            this.segment = segment;
+            this.timestampOffset = timestampOffset;
+            this.valueOffset = valueOffset;
+            this.count = count;
+            this.columns = columns;
+            this.monotone = monotone;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+        }
+    }
+
+    /**
+     * Segment file of a single device and day
+     */
+    private static class Segment {
+        final Path path;
+        final long day;
+        long size;
+        ByteBuffer map;
+
+        Segment(Path path, long day, long size) {
+            this.path = path;
+            this.day = day;
+            this.size = size;
+        }
+
+        /**
+         * Returns a read only mapping of the file, the file is mapped again if it grew since the last call
+         */
+        ByteBuffer map() throws IOException {
+            if (map == null || map.capacity() < size) {
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                    map = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+            return map;
+        }
+    }
+}
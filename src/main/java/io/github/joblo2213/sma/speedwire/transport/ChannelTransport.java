@@ -0,0 +1,155 @@
+package io.github.joblo2213.sma.speedwire.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * A transport based on a non-blocking {@link DatagramChannel} bound to a single network interface.
+ * </p><p>
+ * Unlike the {@link MulticastTransport} it supports {@link #poll(DatagramPacket) polling} for packets without blocking,
+ * which speedwire uses if an {@link io.github.joblo2213.sma.speedwire.IdleStrategy} is configured. Packets are received
+ * into a direct buffer and copied into the given packet, so receiving does not allocate.
+ * {@link #receive(DatagramPacket)} waits for packets using a selector.
+ * </p>
+ */
+public class ChannelTransport implements SpeedwireTransport {
+
+    private static final int MAX_DATAGRAM = 65535;
+
+    private final DatagramChannel channel;
+    private final NetworkInterface networkInterface;
+    private final Map<InetAddress, MembershipKey> memberships = new ConcurrentHashMap<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    private volatile Selector selector;
+    private int timeout;
+
+    /**
+     * Opens a datagram channel on the given port
+     *
+     * @param port             udp port to bind to
+     * @param networkInterface network interface used for sending and receiving multicast packets
+     * @throws IOException if the channel can't be opened
+     */
+    public ChannelTransport(int port, NetworkInterface networkInterface) throws IOException {
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        this.networkInterface = networkInterface;
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a datagram channel on the network interface the given host address is assigned to
+     *
+     * @param port        udp port to bind to
+     * @param hostAddress local address of the network interface
+     * @throws IOException if the address isn't assigned to a network interface or the channel can't be opened
+     */
+    public ChannelTransport(int port, InetAddress hostAddress) throws IOException {
+        this(port, interfaceOf(hostAddress));
+    }
+
+    private static NetworkInterface interfaceOf(InetAddress hostAddress) throws IOException {
+        NetworkInterface nif = NetworkInterface.getByInetAddress(hostAddress);
+        if (nif == null) throw new IOException("host address " + hostAddress + " isn't assigned to a network interface");
+        return nif;
+    }
+
+    @Override
+    public void join(InetAddress group) throws IOException {
+        if (memberships.containsKey(group)) return;
+        memberships.put(group, channel.join(group, networkInterface));
+    }
+
+    @Override
+    public void leave(InetAddress group) {
+        MembershipKey key = memberships.remove(group);
+        if (key != null) key.drop();
+    }
+
+    @Override
+    public void setReceiveTimeout(int timeout) {
+        if (timeout < 0) throw new IllegalArgumentException("timeout must not be negative");
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        if (poll(packet)) return;
+        if (selector == null) {
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (timeout > 0 && remaining <= 0) throw new SocketTimeoutException("Receive timed out");
+                selector.select(timeout == 0 ? 0 : remaining);
+                selector.selectedKeys().clear();
+                if (poll(packet)) return;
+            }
+        } catch (ClosedSelectorException e) {
+            //closing the transport closes the selector to unblock the receive call
+            throw new SocketException("transport is closed");
+        }
+    }
+
+    @Override
+    public boolean supportsPolling() {
+        return true;
+    }
+
+    @Override
+    public boolean poll(DatagramPacket packet) throws IOException {
+        receiveBuffer.clear();
+        InetSocketAddress source = (InetSocketAddress) channel.receive(receiveBuffer);
+        if (source == null) return false;
+        receiveBuffer.flip();
+        int length = Math.min(receiveBuffer.remaining(), packet.getLength());
+        receiveBuffer.get(packet.getData(), packet.getOffset(), length);
+        packet.setLength(length);
+        packet.setAddress(source.getAddress());
+        packet.setPort(source.getPort());
+        return true;
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+        if (channel.send(data, packet.getSocketAddress()) == 0) throw new IOException("send buffer is full");
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            Selector s = selector;
+            if (s != null) s.close();
+        } catch (IOException e) {
+            //closing never fails for datagram channels and selectors
+        }
+    }
+}
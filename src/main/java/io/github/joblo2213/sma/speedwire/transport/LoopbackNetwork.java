@@ -0,0 +1,96 @@
+package io.github.joblo2213.sma.speedwire.transport;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>
+ * A simulated network that moves packets between {@link LoopbackTransport}s in the same JVM.
+ * </p><p>
+ * Each transport has its own address and port. Packets sent to a multicast group are delivered to all transports
+ * with the same port that joined the group, including the sender, just like multicast packets are looped back by
+ * the operating system. Packets sent to a single address are delivered to the transport bound to this address and
+ * port. Packets to unknown addresses are dropped silently.
+ * </p><p>
+ * Packets are copied into the receive queue of each receiving transport, so delivery is deterministic and runs at
+ * memory speed. If a receive queue is full the packet is dropped for this receiver (see
+ * {@link LoopbackTransport#getDroppedPackets()}).
+ * </p><p>
+ * <b>Example:</b>
+ * </p><pre>{@code
+ * LoopbackNetwork network = new LoopbackNetwork();
+ * Speedwire speedwire = new Speedwire("10.0.0.1", "239.12.255.254", 9522);
+ * speedwire.setTransport(network.open(InetAddress.getByName("10.0.0.1"), 9522));
+ * speedwire.start();
+ *
+ * //simulated energy meter
+ * LoopbackTransport meter = network.open(InetAddress.getByName("10.0.0.2"), 9522);
+ * meter.send(new DatagramPacket(telegram, telegram.length, InetAddress.getByName("239.12.255.254"), 9522));
+ * }</pre>
+ */
+public class LoopbackNetwork {
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private final ConcurrentHashMap<InetSocketAddress, LoopbackTransport> endpoints = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+
+    /**
+     * Opens a new transport with a receive queue of {@value #DEFAULT_QUEUE_CAPACITY} packets.
+     *
+     * @param address address of the transport within this network
+     * @param port    port of the transport
+     * @return the new transport
+     * @throws BindException if another open transport is bound to the same address and port
+     */
+    public LoopbackTransport open(InetAddress address, int port) throws IOException {
+        return open(address, port, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Opens a new transport.
+     *
+     * @param address       address of the transport within this network
+     * @param port          port of the transport
+     * @param queueCapacity maximum number of packets waiting to be received by the transport
+     * @return the new transport
+     * @throws BindException if another open transport is bound to the same address and port
+     */
+    public LoopbackTransport open(InetAddress address, int port, int queueCapacity) throws IOException {
+        InetSocketAddress endpoint = new InetSocketAddress(address, port);
+        LoopbackTransport transport = new LoopbackTransport(this, endpoint, queueCapacity);
+        if (endpoints.putIfAbsent(endpoint, transport) != null)
+            throw new BindException(endpoint + " is already in use");
+        transports.add(transport);
+        return transport;
+    }
+
+    /**
+     * Delivers a packet to all receiving transports
+     */
+    void send(LoopbackTransport sender, DatagramPacket packet) {
+        InetAddress destination = packet.getAddress();
+        if (destination.isMulticastAddress()) {
+            for (LoopbackTransport transport : transports) {
+                if (transport.getPort() == packet.getPort() && transport.hasJoined(destination))
+                    transport.deliver(sender.getEndpoint(), packet);
+            }
+        } else {
+            LoopbackTransport transport = endpoints.get(new InetSocketAddress(destination, packet.getPort()));
+            if (transport != null) transport.deliver(sender.getEndpoint(), packet);
+        }
+    }
+
+    /**
+     * Removes a closed transport from the network
+     */
+    void remove(LoopbackTransport transport) {
+        endpoints.remove(transport.getEndpoint(), transport);
+        transports.remove(transport);
+    }
+}
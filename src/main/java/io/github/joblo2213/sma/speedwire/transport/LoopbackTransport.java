@@ -0,0 +1,179 @@
+package io.github.joblo2213.sma.speedwire.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A transport of a {@link LoopbackNetwork} that exchanges packets with other transports in the same JVM.
+ * </p><p>
+ * Received packets are queued until they are received, the buffers of the queued packets are recycled.
+ * </p>
+ */
+public class LoopbackTransport implements SpeedwireTransport {
+
+    //marks a closed transport in the receive queue, so a pending receive returns immediately
+    private static final Datagram CLOSED = new Datagram();
+
+    private final LoopbackNetwork network;
+    private final InetSocketAddress endpoint;
+    private final ArrayBlockingQueue<Datagram> queue;
+    private final ArrayBlockingQueue<Datagram> free;
+    private final Set<InetAddress> groups = ConcurrentHashMap.newKeySet();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+    private volatile int timeout;
+
+    LoopbackTransport(LoopbackNetwork network, InetSocketAddress endpoint, int queueCapacity) {
+        this.network = network;
+        this.endpoint = endpoint;
+        //one additional slot for the closed marker
+        this.queue = new ArrayBlockingQueue<>(queueCapacity + 1);
+        this.free = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @Override
+    public void join(InetAddress group) throws IOException {
+        if (!group.isMulticastAddress()) throw new SocketException(group + " is not a multicast address");
+        groups.add(group);
+    }
+
+    @Override
+    public void leave(InetAddress group) {
+        groups.remove(group);
+    }
+
+    @Override
+    public void setReceiveTimeout(int timeout) {
+        if (timeout < 0) throw new IllegalArgumentException("timeout must not be negative");
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        if (closed) throw new SocketException("transport is closed");
+        Datagram datagram;
+        try {
+            datagram = timeout == 0 ? queue.take() : queue.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketException("receive was interrupted");
+        }
+        if (datagram == null && closed) throw new SocketException("transport is closed");
+        if (datagram == null) throw new SocketTimeoutException("Receive timed out");
+        copy(datagram, packet);
+    }
+
+    @Override
+    public boolean supportsPolling() {
+        return true;
+    }
+
+    @Override
+    public boolean poll(DatagramPacket packet) throws IOException {
+        if (closed) throw new SocketException("transport is closed");
+        Datagram datagram = queue.poll();
+        if (datagram == null) return false;
+        copy(datagram, packet);
+        return true;
+    }
+
+    /**
+     * Copies a received datagram into the packet and recycles it
+     */
+    private void copy(Datagram datagram, DatagramPacket packet) throws SocketException {
+        if (datagram == CLOSED) throw new SocketException("transport is closed");
+        int length = Math.min(datagram.length, packet.getLength());
+        System.arraycopy(datagram.data, 0, packet.getData(), packet.getOffset(), length);
+        packet.setLength(length);
+        packet.setAddress(datagram.source.getAddress());
+        packet.setPort(datagram.source.getPort());
+        free.offer(datagram);
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        if (closed) throw new SocketException("transport is closed");
+        network.send(this, packet);
+    }
+
+    /**
+     * Copies a packet into the receive queue
+     */
+    void deliver(InetSocketAddress source, DatagramPacket packet) {
+        if (closed) return;
+        Datagram datagram = free.poll();
+        if (datagram == null) datagram = new Datagram();
+        if (datagram.data.length < packet.getLength()) datagram.data = new byte[packet.getLength()];
+        System.arraycopy(packet.getData(), packet.getOffset(), datagram.data, 0, packet.getLength());
+        datagram.length = packet.getLength();
+        datagram.source = source;
+        //keep the last slot for the closed marker
+        if (queue.remainingCapacity() <= 1 || !queue.offer(datagram)) {
+            dropped.incrementAndGet();
+            free.offer(datagram);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        network.remove(this);
+        if (!queue.offer(CLOSED)) {
+            queue.clear();
+            queue.offer(CLOSED);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the transport joined the given multicast group
+     */
+    boolean hasJoined(InetAddress group) {
+        return groups.contains(group);
+    }
+
+    /**
+     * Returns the address and port of this transport
+     */
+    public InetSocketAddress getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the port of this transport
+     */
+    public int getPort() {
+        return endpoint.getPort();
+    }
+
+    /**
+     * Returns the number of packets that were dropped because the receive queue was full
+     */
+    public long getDroppedPackets() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of packets waiting to be received
+     */
+    public int getQueuedPackets() {
+        int size = queue.size();
+        return closed ? Math.max(0, size - 1) : size;
+    }
+
+    private static class Datagram {
+        private byte[] data = new byte[0];
+        private int length;
+        private InetSocketAddress source;
+    }
+}
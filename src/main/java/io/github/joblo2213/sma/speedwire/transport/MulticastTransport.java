@@ -0,0 +1,85 @@
+package io.github.joblo2213.sma.speedwire.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+
+/**
+ * The default transport, a {@link MulticastSocket} bound to a single network interface.
+ */
+public class MulticastTransport implements SpeedwireTransport {
+
+    private final MulticastSocket socket;
+    private final NetworkInterface networkInterface;
+    private final int port;
+
+    /**
+     * Opens a multicast socket on the given port
+     *
+     * @param port             udp port to bind to
+     * @param networkInterface network interface used for sending and receiving multicast packets
+     * @throws IOException if the socket can't be opened
+     */
+    public MulticastTransport(int port, NetworkInterface networkInterface) throws IOException {
+        this.socket = new MulticastSocket(port);
+        this.networkInterface = networkInterface;
+        this.port = port;
+        try {
+            socket.setNetworkInterface(networkInterface);
+            socket.setReuseAddress(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a multicast socket on the network interface the given host address is assigned to
+     *
+     * @param port        udp port to bind to
+     * @param hostAddress local address of the network interface
+     * @throws IOException if the address isn't assigned to a network interface or the socket can't be opened
+     */
+    public MulticastTransport(int port, InetAddress hostAddress) throws IOException {
+        this(port, interfaceOf(hostAddress));
+    }
+
+    private static NetworkInterface interfaceOf(InetAddress hostAddress) throws IOException {
+        NetworkInterface nif = NetworkInterface.getByInetAddress(hostAddress);
+        if (nif == null) throw new IOException("host address " + hostAddress + " isn't assigned to a network interface");
+        return nif;
+    }
+
+    @Override
+    public void join(InetAddress group) throws IOException {
+        socket.joinGroup(new InetSocketAddress(group, port), networkInterface);
+    }
+
+    @Override
+    public void leave(InetAddress group) throws IOException {
+        socket.leaveGroup(new InetSocketAddress(group, port), networkInterface);
+    }
+
+    @Override
+    public void setReceiveTimeout(int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        socket.receive(packet);
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        socket.send(packet);
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
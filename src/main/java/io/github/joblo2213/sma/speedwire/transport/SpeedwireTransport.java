@@ -0,0 +1,94 @@
+package io.github.joblo2213.sma.speedwire.transport;
+
+import io.github.joblo2213.sma.speedwire.Speedwire;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+
+/**
+ * <p>
+ * The datagram transport used by {@link Speedwire} to exchange packets with speedwire devices.
+ * </p><p>
+ * By default speedwire uses a {@link MulticastTransport} on the network interface of the host address, or a
+ * non-blocking {@link ChannelTransport} if it polls for packets. Other
+ * transports can be configured using {@link Speedwire#setTransport(SpeedwireTransport)}, e.g. a
+ * {@link LoopbackTransport} that exchanges packets between speedwire instances in the same JVM without any network.
+ * </p><p>
+ * Packets are received by a single thread, sending and closing must be possible from any thread.
+ * </p>
+ */
+public interface SpeedwireTransport extends Closeable {
+
+    /**
+     * Joins a multicast group, packets sent to the group are received afterwards
+     *
+     * @param group address of the multicast group
+     * @throws IOException if the group can't be joined
+     */
+    void join(InetAddress group) throws IOException;
+
+    /**
+     * Leaves a multicast group
+     *
+     * @param group address of the multicast group
+     * @throws IOException if the group can't be left
+     */
+    void leave(InetAddress group) throws IOException;
+
+    /**
+     * Sets the time {@link #receive(DatagramPacket)} waits for a packet
+     *
+     * @param timeout timeout in ms, {@code 0} to wait forever
+     * @throws IOException if the timeout can't be set
+     */
+    void setReceiveTimeout(int timeout) throws IOException;
+
+    /**
+     * Receives a packet into the buffer of the given packet.<br>
+     * The length of the packet is set to the number of received bytes, the address and port to the sender.
+     *
+     * @param packet packet receiving the data
+     * @throws SocketTimeoutException if no packet was received within the receive timeout
+     * @throws IOException            if the packet can't be received, e.g. because the transport was closed
+     */
+    void receive(DatagramPacket packet) throws IOException;
+
+    /**
+     * Receives a packet into the buffer of the given packet if one is available, without waiting for it.<br>
+     * Used instead of {@link #receive(DatagramPacket)} if speedwire polls for packets using an
+     * {@link io.github.joblo2213.sma.speedwire.IdleStrategy}. Only called if {@link #supportsPolling()} returns
+     * {@code true}, transports that can only receive blocking don't implement it.
+     *
+     * @param packet packet receiving the data
+     * @return {@code true} if a packet was received, {@code false} if none was available
+     * @throws IOException                   if the packet can't be received, e.g. because the transport was closed
+     * @throws UnsupportedOperationException if the transport doesn't support receiving without blocking
+     */
+    default boolean poll(DatagramPacket packet) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support polling");
+    }
+
+    /**
+     * Returns {@code true} if the transport implements {@link #poll(DatagramPacket)}, by default {@code false}
+     */
+    default boolean supportsPolling() {
+        return false;
+    }
+
+    /**
+     * Sends a packet to the address of the packet, which is either a multicast group or a single device
+     *
+     * @param packet packet to send
+     * @throws IOException if the packet can't be sent
+     */
+    void send(DatagramPacket packet) throws IOException;
+
+    /**
+     * Closes the transport, a pending {@link #receive(DatagramPacket)} returns immediately by throwing an exception
+     */
+    @Override
+    void close();
+}
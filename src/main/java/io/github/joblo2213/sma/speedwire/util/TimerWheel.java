@@ -0,0 +1,206 @@
+package io.github.joblo2213.sma.speedwire.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A hierarchical timer wheel for managing large numbers of timeouts.
+ * </p><p>
+ * Scheduling and cancelling a timeout is done in constant time, independent of the number of pending timeouts.
+ * The wheel consists of {@value #LEVELS} levels with {@value #SLOTS} slots each. Timeouts far in the future are stored
+ * on the upper levels and cascade down to the lower levels as the wheel advances, so a single wheel covers
+ * {@code 64^4} ticks (about 1.9 days with a tick duration of 10 ms). Timeouts exceeding this range are re-scheduled
+ * until they are due.
+ * </p><p>
+ * The wheel has no thread of its own. The owner has to call {@link #advance(long)} periodically, all due tasks are
+ * run by the calling thread. Scheduling and cancelling is thread safe.
+ * </p>
+ */
+public class TimerWheel {
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[][] wheel = new Timeout[LEVELS][SLOTS];
+    private long currentTick;
+    private int pending;
+
+    /**
+     * Creates a new timer wheel.
+     *
+     * @param tickDuration resolution of the wheel, all timeouts are rounded up to a multiple of it
+     * @param unit         time unit of {@code tickDuration}
+     * @param nowNanos     current time as returned by {@link System#nanoTime()}
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, long nowNanos) {
+        this.tickNanos = unit.toNanos(tickDuration);
+        if (tickNanos <= 0) throw new IllegalArgumentException("tick duration must be positive");
+        this.startNanos = nowNanos;
+    }
+
+    /**
+     * Creates a new timer wheel with a resolution of 10 ms.
+     */
+    public TimerWheel() {
+        this(10, TimeUnit.MILLISECONDS, System.nanoTime());
+    }
+
+    /**
+     * Schedules a task that is run by {@link #advance(long)} once the given deadline has passed.
+     *
+     * @param task          task to run
+     * @param deadlineNanos deadline as returned by {@link System#nanoTime()}
+     * @return handle that can be used to cancel the timeout
+     */
+    public synchronized Timeout schedule(Runnable task, long deadlineNanos) {
+        Timeout timeout = new Timeout(task);
+        insert(timeout, Math.max(ticksOf(deadlineNanos), currentTick + 1));
+        pending++;
+        return timeout;
+    }
+
+    /**
+     * Schedules a task that is run by {@link #advance(long)} after the given delay.
+     *
+     * @param task  task to run
+     * @param delay delay after which the task should run
+     * @param unit  time unit of {@code delay}
+     * @return handle that can be used to cancel the timeout
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return schedule(task, System.nanoTime() + unit.toNanos(delay));
+    }
+
+    /**
+     * Advances the wheel up to the given time and runs all tasks whose deadline has passed.<br>
+     * Exceptions thrown by tasks are not caught.
+     *
+     * @param nowNanos current time as returned by {@link System#nanoTime()}
+     * @return number of tasks that were run
+     */
+    public int advance(long nowNanos) {
+        ArrayList<Runnable> due = null;
+        synchronized (this) {
+            long target = (nowNanos - startNanos) / tickNanos;
+            while (currentTick < target) {
+                currentTick++;
+                if (pending == 0) {
+                    currentTick = target;
+                    break;
+                }
+                //cascade upper levels whose slot boundary is reached, highest level first
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                        Timeout t = detachSlot(level, (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                        while (t != null) {
+                            Timeout next = t.next;
+                            insert(t, t.deadline);
+                            t = next;
+                        }
+                    }
+                }
+                Timeout t = detachSlot(0, (int) currentTick & SLOT_MASK);
+                while (t != null) {
+                    Timeout next = t.next;
+                    if (t.deadline <= currentTick) {
+                        t.level = -1;
+                        pending--;
+                        if (due == null) due = new ArrayList<>();
+                        due.add(t.task);
+                    } else {
+                        insert(t, t.deadline);
+                    }
+                    t = next;
+                }
+            }
+        }
+        if (due == null) return 0;
+        for (Runnable task : due) task.run();
+        return due.size();
+    }
+
+    /**
+     * Returns the number of timeouts that are scheduled and neither expired nor cancelled
+     */
+    public synchronized int pending() {
+        return pending;
+    }
+
+    private long ticksOf(long nanos) {
+        //round up, so timeouts never expire early
+        return Math.floorDiv(nanos - startNanos + tickNanos - 1, tickNanos);
+    }
+
+    private void insert(Timeout t, long deadline) {
+        t.deadline = deadline;
+        //the level is determined by the highest 6 bit group in which deadline and current tick differ
+        int level = (63 - Long.numberOfLeadingZeros(deadline ^ currentTick)) / SLOT_BITS;
+        if (level >= LEVELS) level = LEVELS - 1;
+        int slot = (int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK;
+        if (level == LEVELS - 1 && deadline - currentTick >= 1L << (SLOT_BITS * LEVELS)) {
+            //out of range: park in the slot that is cascaded last, it will be inserted again from there
+            slot = (int) ((currentTick >>> (SLOT_BITS * level)) - 1) & SLOT_MASK;
+        }
+        t.level = level;
+        t.slot = slot;
+        t.prev = null;
+        t.next = wheel[level][slot];
+        if (t.next != null) t.next.prev = t;
+        wheel[level][slot] = t;
+    }
+
+    private Timeout detachSlot(int level, int slot) {
+        Timeout head = wheel[level][slot];
+        wheel[level][slot] = null;
+        return head;
+    }
+
+    private synchronized boolean remove(Timeout t) {
+        if (t.level < 0) return false;
+        if (t.prev != null) t.prev.next = t.next;
+        else wheel[t.level][t.slot] = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.level = -1;
+        pending--;
+        return true;
+    }
+
+    /**
+     * Handle of a scheduled task
+     */
+    public class Timeout {
+        private final Runnable task;
+        private Timeout prev, next;
+        private long deadline;
+        private int level = -1;
+        private int slot;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Cancels this timeout, so its task will not be run.
+         *
+         * @return {@code false} if the timeout already expired or was cancelled before
+         */
+        public boolean cancel() {
+            return remove(this);
+        }
+
+        /**
+         * Returns {@code true} if this timeout is still scheduled
+         */
+        public boolean isPending() {
+            synchronized (TimerWheel.this) {
+                return level >= 0;
+            }
+        }
+    }
+}